@@ -21,6 +21,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import org.whispersystems.bithub.config.BithubConfiguration;
 import org.whispersystems.bithub.config.CoinbaseConfiguration;
 import org.whispersystems.bithub.config.GithubConfiguration;
+import org.whispersystems.bithub.config.MemoryBackendConfiguration;
 import org.whispersystems.bithub.config.OrganizationConfiguration;
 
 import javax.validation.Valid;
@@ -49,6 +50,9 @@ public class BithubServerConfiguration extends Configuration {
   @JsonProperty
   private OrganizationConfiguration organization;
 
+  @Valid
+  @JsonProperty
+  private MemoryBackendConfiguration memoryBackend;
 
   public GithubConfiguration getGithubConfiguration() {
     return github;
@@ -65,4 +69,11 @@ public class BithubServerConfiguration extends Configuration {
   public OrganizationConfiguration getOrganizationConfiguration() {
     return organization;
   }
+
+  /**
+   * @return The in-memory payment backend to use instead of Coinbase, or null.
+   */
+  public MemoryBackendConfiguration getMemoryBackendConfiguration() {
+    return memoryBackend;
+  }
 }
@@ -18,17 +18,47 @@
 package org.whispersystems.bithub;
 
 import org.eclipse.jetty.servlets.CrossOriginFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.whispersystems.bithub.auth.GithubWebhookAuthenticator;
+import org.whispersystems.bithub.auth.TrustedNetworks;
+import org.whispersystems.bithub.auth.WebhookSignatureFilter;
 import org.whispersystems.bithub.client.CoinbaseClient;
+import org.whispersystems.bithub.client.ExchangeRateService;
 import org.whispersystems.bithub.client.GithubClient;
+import org.whispersystems.bithub.client.InMemoryPaymentBackend;
+import org.whispersystems.bithub.client.PaymentBackend;
+import org.whispersystems.bithub.config.BatchConfiguration;
+import org.whispersystems.bithub.config.CacheConfiguration;
+import org.whispersystems.bithub.config.ClientConfiguration;
 import org.whispersystems.bithub.config.CoinbaseConfiguration;
+import org.whispersystems.bithub.config.CommentConfiguration;
+import org.whispersystems.bithub.config.CommitCacheConfiguration;
+import org.whispersystems.bithub.config.DeduplicationConfiguration;
+import org.whispersystems.bithub.config.HistoryConfiguration;
+import org.whispersystems.bithub.config.IntakeConfiguration;
+import org.whispersystems.bithub.config.JournalConfiguration;
+import org.whispersystems.bithub.config.LedgerConfiguration;
+import org.whispersystems.bithub.config.OutboxConfiguration;
 import org.whispersystems.bithub.config.RepositoryConfiguration;
+import org.whispersystems.bithub.config.TrustedNetworkConfiguration;
+import org.whispersystems.bithub.config.WebhookConfiguration;
 import org.whispersystems.bithub.controllers.DashboardController;
 import org.whispersystems.bithub.controllers.GithubController;
 import org.whispersystems.bithub.controllers.StatusController;
 import org.whispersystems.bithub.mappers.IOExceptionMapper;
 import org.whispersystems.bithub.mappers.UnauthorizedHookExceptionMapper;
+import org.whispersystems.bithub.payouts.CommitCommentQueue;
+import org.whispersystems.bithub.payouts.PaymentOutbox;
+import org.whispersystems.bithub.payouts.PayoutBatcher;
+import org.whispersystems.bithub.payouts.PushEventProcessor;
+import org.whispersystems.bithub.payouts.PushEventQueue;
+import org.whispersystems.bithub.storage.BalanceLedger;
 import org.whispersystems.bithub.storage.CacheManager;
+import org.whispersystems.bithub.storage.CommitDescriptionCache;
+import org.whispersystems.bithub.storage.DuplicateFilter;
+import org.whispersystems.bithub.storage.PushEventJournal;
+import org.whispersystems.bithub.storage.TransactionHistory;
 
 import javax.servlet.DispatcherType;
 import java.math.BigDecimal;
@@ -39,6 +69,7 @@ import io.dropwizard.Application;
 import io.dropwizard.auth.basic.BasicAuthProvider;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
 import io.dropwizard.views.ViewBundle;
 
 /**
@@ -48,6 +79,8 @@ import io.dropwizard.views.ViewBundle;
  */
 public class BithubService extends Application<BithubServerConfiguration> {
 
+  private final Logger logger = LoggerFactory.getLogger(BithubService.class);
+
   @Override
   public void initialize(Bootstrap<BithubServerConfiguration> bootstrap) {
     bootstrap.addBundle(new ViewBundle());
@@ -57,27 +90,65 @@ public class BithubService extends Application<BithubServerConfiguration> {
   public void run(BithubServerConfiguration config, Environment environment)
       throws Exception
   {
-    String                        githubUser         = config.getGithubConfiguration().getUser();
-    String                        githubToken        = config.getGithubConfiguration().getToken();
     String                        githubWebhookUser  = config.getGithubConfiguration().getWebhookConfiguration().getUsername();
     String                        githubWebhookPwd   = config.getGithubConfiguration().getWebhookConfiguration().getPassword();
     List<RepositoryConfiguration> githubRepositories = config.getGithubConfiguration().getRepositories();
     BigDecimal                    payoutRate         = config.getBithubConfiguration().getPayoutRate();
     String                        organizationName   = config.getOrganizationConfiguration().getName();
     String                        donationUrl        = config.getOrganizationConfiguration().getDonationUrl().toExternalForm();
-    String                        coinbaseApiKey     = config.getCoinbaseConfiguration().getApiKey();
-    String                        coinbaseApiSecret  = config.getCoinbaseConfiguration().getApiSecret();
+    Duration                      exchangeRateTtl    = config.getCoinbaseConfiguration().getExchangeRateTtl();
+    IntakeConfiguration           intakeConfig       = config.getBithubConfiguration().getIntakeConfiguration();
+    JournalConfiguration          journalConfig      = config.getBithubConfiguration().getJournalConfiguration();
+    DeduplicationConfiguration    dedupConfig        = config.getBithubConfiguration().getDeduplicationConfiguration();
+    BatchConfiguration            batchConfig        = config.getBithubConfiguration().getBatchConfiguration();
+    CommentConfiguration          commentConfig      = config.getBithubConfiguration().getCommentConfiguration();
+    LedgerConfiguration           ledgerConfig       = config.getBithubConfiguration().getLedgerConfiguration();
+    HistoryConfiguration          historyConfig      = config.getBithubConfiguration().getHistoryConfiguration();
+    CommitCacheConfiguration      commitCacheConfig  = config.getBithubConfiguration().getCommitCacheConfiguration();
+    OutboxConfiguration           outboxConfig       = config.getBithubConfiguration().getOutboxConfiguration();
+    CacheConfiguration            cacheConfig        = config.getBithubConfiguration().getCacheConfiguration();
+    WebhookConfiguration          webhookConfig      = config.getGithubConfiguration().getWebhookConfiguration();
+    TrustedNetworkConfiguration   trustedConfig      = webhookConfig.getTrustedNetworkConfiguration();
+
+    GithubClient           githubClient   = new GithubClient(config.getGithubConfiguration(), environment.metrics());
+    PaymentBackend         paymentBackend = getPaymentBackend(config, environment);
+    ExchangeRateService    exchangeRates  = new ExchangeRateService(paymentBackend, exchangeRateTtl, environment.metrics());
+    BalanceLedger          balanceLedger  = new BalanceLedger(paymentBackend, ledgerConfig, environment.metrics());
+    CommitDescriptionCache descriptions   = new CommitDescriptionCache(commitCacheConfig, environment.metrics());
+    TransactionHistory     history        = new TransactionHistory(paymentBackend, githubClient, descriptions, historyConfig);
+    CacheManager           cacheManager   = new CacheManager(exchangeRates, balanceLedger, history, githubClient, githubRepositories, payoutRate, cacheConfig, environment.metrics());
 
-    GithubClient   githubClient   = new GithubClient(githubUser, githubToken);
-    CoinbaseClient coinbaseClient = new CoinbaseClient(coinbaseApiKey, coinbaseApiSecret);
-    CacheManager   cacheManager   = new CacheManager(coinbaseClient, githubClient, githubRepositories, payoutRate);
+    TrustedNetworks    trustedNetworks    = new TrustedNetworks(trustedConfig);
+    DuplicateFilter    deliveryFilter     = new DuplicateFilter("deliveries", dedupConfig, environment.metrics());
+    DuplicateFilter    commitFilter       = new DuplicateFilter("commits", dedupConfig, environment.metrics());
+    PushEventJournal   pushEventJournal   = new PushEventJournal(journalConfig, environment.metrics());
+    CommitCommentQueue commentQueue       = new CommitCommentQueue(githubClient, commentConfig, environment.metrics());
+    PaymentOutbox      paymentOutbox      = new PaymentOutbox(paymentBackend, balanceLedger, commentQueue, cacheManager, pushEventJournal, outboxConfig, environment.metrics());
+    PayoutBatcher      payoutBatcher      = new PayoutBatcher(paymentBackend, exchangeRates, balanceLedger, commentQueue, paymentOutbox, cacheManager, pushEventJournal, payoutRate, batchConfig, environment.metrics());
+    PushEventProcessor pushEventProcessor = new PushEventProcessor(payoutBatcher, commentQueue, pushEventJournal, commitFilter, descriptions, commentConfig);
+    PushEventQueue     pushEventQueue     = new PushEventQueue(pushEventProcessor, pushEventJournal, intakeConfig, environment.metrics());
 
     environment.servlets().addFilter("CORS", CrossOriginFilter.class)
                .addMappingForUrlPatterns(EnumSet.of(DispatcherType.REQUEST), true, "/*");
 
+    if (!webhookConfig.getSecrets().isEmpty()) {
+      environment.servlets().addFilter("webhook-signature", new WebhookSignatureFilter(webhookConfig.getSecrets(),
+                                                                                       webhookConfig.getMaxPayloadSize(),
+                                                                                       environment.metrics()))
+                 .addMappingForUrlPatterns(EnumSet.of(DispatcherType.REQUEST), true, "/v1/github/*");
+    }
+
+    environment.lifecycle().manage(trustedNetworks);
+    environment.lifecycle().manage(balanceLedger);
+    environment.lifecycle().manage(descriptions);
     environment.lifecycle().manage(cacheManager);
+    environment.lifecycle().manage(pushEventJournal);
+    environment.lifecycle().manage(commentQueue);
+    environment.lifecycle().manage(paymentOutbox);
+    environment.lifecycle().manage(payoutBatcher);
+    environment.lifecycle().manage(pushEventQueue);
 
-    environment.jersey().register(new GithubController(githubRepositories, githubClient, coinbaseClient, payoutRate));
+    environment.jersey().register(new GithubController(githubRepositories, trustedNetworks, pushEventQueue, deliveryFilter));
     environment.jersey().register(new StatusController(cacheManager, githubRepositories));
     environment.jersey().register(new DashboardController(organizationName, donationUrl, cacheManager));
 
@@ -87,6 +158,20 @@ public class BithubService extends Application<BithubServerConfiguration> {
                                                           GithubWebhookAuthenticator.REALM));
   }
 
+  private PaymentBackend getPaymentBackend(BithubServerConfiguration config, Environment environment) {
+    if (config.getMemoryBackendConfiguration() != null) {
+      logger.warn("Using the in-memory payment backend, no real payouts will be sent");
+      return new InMemoryPaymentBackend(config.getMemoryBackendConfiguration());
+    }
+
+    CoinbaseConfiguration coinbaseConfig = config.getCoinbaseConfiguration();
+    ClientConfiguration   clientConfig   = coinbaseConfig.getClientConfiguration();
+
+    return new CoinbaseClient(coinbaseConfig.getApiKey(), coinbaseConfig.getApiSecret(),
+                              coinbaseConfig.getAccountCacheDuration(), clientConfig,
+                              environment.metrics());
+  }
+
   public static void main(String[] args) throws Exception {
     new BithubService().run(args);
   }
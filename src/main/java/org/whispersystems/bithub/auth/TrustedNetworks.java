@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.auth;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.bithub.config.TrustedNetworkConfiguration;
+import org.whispersystems.bithub.util.AddressTrie;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.dropwizard.lifecycle.Managed;
+
+/**
+ * The allow-list of networks that GitHub webhooks may originate from.
+ *
+ * Networks come from the configuration and, optionally, a file of one
+ * CIDR per line, which is polled and reloaded when it changes.  Each
+ * load builds a new AddressTrie and swaps it in, so lookups never block.
+ */
+public class TrustedNetworks implements Managed {
+
+  private final Logger                   logger   = LoggerFactory.getLogger(TrustedNetworks.class);
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+  private final AtomicReference<AddressTrie> networks = new AtomicReference<>();
+
+  private final List<String> configured;
+  private final AddressTrie  proxies;
+  private final File         file;
+  private final long         reloadIntervalMillis;
+
+  private long fileModified = -1;
+
+  public TrustedNetworks(TrustedNetworkConfiguration configuration) throws IOException {
+    this.configured           = configuration.getNetworks();
+    this.proxies              = new AddressTrie();
+    this.file                 = configuration.getFile() != null ? new File(configuration.getFile()) : null;
+    this.reloadIntervalMillis = configuration.getReloadInterval().toMilliseconds();
+
+    for (String proxy : configuration.getProxies()) {
+      proxies.add(proxy);
+    }
+
+    reload();
+  }
+
+  @Override
+  public void start() throws Exception {
+    if (file == null) {
+      return;
+    }
+
+    executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (file.lastModified() != fileModified) {
+            reload();
+          }
+        } catch (IOException | IllegalArgumentException e) {
+          logger.warn("Failed to reload trusted networks, keeping previous list", e);
+        }
+      }
+    }, reloadIntervalMillis, reloadIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void stop() throws Exception {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Rebuilds the allow-list from the configuration and the networks file.
+   */
+  public synchronized void reload() throws IOException {
+    AddressTrie trie = new AddressTrie();
+
+    for (String network : configured) {
+      trie.add(network);
+    }
+
+    if (file != null) {
+      long modified = file.lastModified();
+
+      for (String line : Files.readLines(file, Charsets.UTF_8)) {
+        line = line.replaceFirst("#.*", "").trim();
+
+        if (!line.isEmpty()) {
+          trie.add(line);
+        }
+      }
+
+      fileModified = modified;
+    }
+
+    networks.set(trie);
+  }
+
+  /**
+   * Finds the client address in an X-Forwarded-For chain and checks it
+   * against the allow-list.  The chain is read from the right, since
+   * entries to the left of the nearest untrusted hop can be forged by
+   * the client, and entries from configured proxies are skipped.
+   *
+   * @return true if the client is in a trusted network.
+   */
+  public boolean isTrusted(String forwardedFor) {
+    String[] hops = forwardedFor.split(",");
+
+    for (int i=hops.length-1;i>=0;i--) {
+      String hop = hops[i].trim();
+
+      if (i > 0 && proxies.contains(hop)) {
+        continue;
+      }
+
+      return networks.get().contains(hop);
+    }
+
+    return false;
+  }
+}
@@ -0,0 +1,213 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.auth;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedList;
+import java.util.List;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Verifies the X-Hub-Signature-256 header on GitHub webhook deliveries.
+ *
+ * The HMAC is computed over the raw request bytes as they are read, for
+ * every active secret at once, before Jersey decodes the form or binds
+ * any JSON.  Requests that are too large, unsigned, or signed with an
+ * unknown secret are rejected without being parsed.  The verified body
+ * is then replayed to the rest of the chain.
+ */
+public class WebhookSignatureFilter implements Filter {
+
+  public  static final String SIGNATURE_HEADER = "X-Hub-Signature-256";
+  private static final String SIGNATURE_PREFIX = "sha256=";
+  private static final String ALGORITHM        = "HmacSHA256";
+
+  private final Logger logger = LoggerFactory.getLogger(WebhookSignatureFilter.class);
+
+  private final List<SecretKeySpec> secrets = new LinkedList<>();
+  private final int                 maxPayloadSize;
+
+  private final Meter rejectedMeter;
+  private final Meter oversizedMeter;
+
+  /**
+   * @param secrets The active webhook secrets.  A delivery signed with any
+   *                of them is accepted, so secrets can be rotated.
+   * @param maxPayloadSize The largest request body, in bytes, that is read.
+   */
+  public WebhookSignatureFilter(List<String> secrets, int maxPayloadSize, MetricRegistry metricRegistry) {
+    for (String secret : secrets) {
+      this.secrets.add(new SecretKeySpec(secret.getBytes(Charsets.UTF_8), ALGORITHM));
+    }
+
+    this.maxPayloadSize = maxPayloadSize;
+    this.rejectedMeter  = metricRegistry.meter(name(WebhookSignatureFilter.class, "rejected"));
+    this.oversizedMeter = metricRegistry.meter(name(WebhookSignatureFilter.class, "oversized"));
+  }
+
+  @Override
+  public void init(FilterConfig filterConfig) {}
+
+  @Override
+  public void destroy() {}
+
+  @Override
+  public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain)
+      throws IOException, ServletException
+  {
+    HttpServletRequest  request  = (HttpServletRequest)servletRequest;
+    HttpServletResponse response = (HttpServletResponse)servletResponse;
+
+    if (request.getContentLength() > maxPayloadSize) {
+      reject(response, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, oversizedMeter, "Payload too large");
+      return;
+    }
+
+    byte[] signature = getSignature(request.getHeader(SIGNATURE_HEADER));
+
+    if (signature == null) {
+      reject(response, HttpServletResponse.SC_UNAUTHORIZED, rejectedMeter, "Missing or malformed signature");
+      return;
+    }
+
+    List<Mac>             macs = createMacs();
+    ByteArrayOutputStream body = new ByteArrayOutputStream(Math.max(request.getContentLength(), 0));
+    InputStream           in   = request.getInputStream();
+    byte[]                buf  = new byte[4096];
+    int                   read;
+
+    while ((read = in.read(buf)) != -1) {
+      if (body.size() + read > maxPayloadSize) {
+        reject(response, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, oversizedMeter, "Payload too large");
+        return;
+      }
+
+      body.write(buf, 0, read);
+
+      for (Mac mac : macs) {
+        mac.update(buf, 0, read);
+      }
+    }
+
+    if (!isValidSignature(macs, signature)) {
+      reject(response, HttpServletResponse.SC_UNAUTHORIZED, rejectedMeter, "Bad signature");
+      return;
+    }
+
+    chain.doFilter(new VerifiedRequest(request, body.toByteArray()), response);
+  }
+
+  private boolean isValidSignature(List<Mac> macs, byte[] signature) {
+    boolean valid = false;
+
+    for (Mac mac : macs) {
+      valid |= MessageDigest.isEqual(mac.doFinal(), signature);
+    }
+
+    return valid;
+  }
+
+  private byte[] getSignature(String header) {
+    if (header == null || !header.startsWith(SIGNATURE_PREFIX)) {
+      return null;
+    }
+
+    try {
+      return BaseEncoding.base16().lowerCase().decode(header.substring(SIGNATURE_PREFIX.length()));
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  private List<Mac> createMacs() {
+    try {
+      List<Mac> macs = new LinkedList<>();
+
+      for (SecretKeySpec secret : secrets) {
+        Mac mac = Mac.getInstance(ALGORITHM);
+        mac.init(secret);
+        macs.add(mac);
+      }
+
+      return macs;
+    } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private void reject(HttpServletResponse response, int status, Meter meter, String reason)
+      throws IOException
+  {
+    logger.warn("Rejected webhook delivery: " + reason);
+    meter.mark();
+    response.sendError(status);
+  }
+
+  private static class VerifiedRequest extends HttpServletRequestWrapper {
+
+    private final byte[] body;
+
+    private VerifiedRequest(HttpServletRequest request, byte[] body) {
+      super(request);
+      this.body = body;
+    }
+
+    @Override
+    public ServletInputStream getInputStream() {
+      final ByteArrayInputStream in = new ByteArrayInputStream(body);
+
+      return new ServletInputStream() {
+        @Override
+        public int read() {
+          return in.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+          return in.read(buffer, offset, length);
+        }
+      };
+    }
+  }
+}
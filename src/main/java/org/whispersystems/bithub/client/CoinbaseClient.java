@@ -17,55 +17,122 @@
 
 package org.whispersystems.bithub.client;
 
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
 import com.coinbase.api.Coinbase;
 import com.coinbase.api.CoinbaseBuilder;
 import com.coinbase.api.entity.Account;
+import com.coinbase.api.entity.AccountsResponse;
 import com.coinbase.api.entity.Transaction;
+import com.coinbase.api.entity.TransactionsResponse;
 import com.coinbase.api.exception.CoinbaseException;
 import org.joda.money.CurrencyUnit;
 import org.joda.money.Money;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.bithub.config.ClientConfiguration;
 import org.whispersystems.bithub.entities.Author;
 
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.util.List;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.Map;
+
+import io.dropwizard.util.Duration;
+
+import static com.codahale.metrics.MetricRegistry.name;
 
 /**
- * Handles interaction with the Coinbase API.
+ * Handles interaction with the Coinbase API.  Every request is made
+ * through a {@link DependencyGuard}, so a failing or slow Coinbase is
+ * refused quickly instead of tying up the calling threads.
  *
  * @author Moxie Marlinspike
  */
-public class CoinbaseClient {
+public class CoinbaseClient implements PaymentBackend {
+
+  private static final String API_URL = "https://coinbase.com/api/v1/";
+
+  private final Logger logger = LoggerFactory.getLogger(CoinbaseClient.class);
 
-  private final Coinbase coinbase;
+  private final Coinbase        coinbase;
+  private final DependencyGuard guard;
+  private final long            accountCacheMillis;
+  private final Meter           accountHits;
+  private final Meter           accountMisses;
 
-  public CoinbaseClient(String apiKey, String apiSecret) {
-    this.coinbase = new CoinbaseBuilder().withApiKey(apiKey, apiSecret).build();
+  private volatile PrimaryAccount primaryAccount;
+
+  public CoinbaseClient(String apiKey, String apiSecret, Duration accountCacheDuration,
+                        ClientConfiguration clientConfiguration, MetricRegistry metricRegistry)
+  {
+    this(new CoinbaseBuilder().withApiKey(apiKey, apiSecret)
+                              .withBaseApiURL(getApiUrl(clientConfiguration))
+                              .build(),
+         accountCacheDuration, clientConfiguration, metricRegistry);
   }
 
-  public List<Transaction> getRecentTransactions()
+  public CoinbaseClient(Coinbase coinbase, Duration accountCacheDuration,
+                        ClientConfiguration clientConfiguration, MetricRegistry metricRegistry)
+  {
+    this.coinbase           = coinbase;
+    this.guard              = new DependencyGuard("coinbase", clientConfiguration, metricRegistry);
+    this.accountCacheMillis = accountCacheDuration.toMilliseconds();
+    this.accountHits        = metricRegistry.meter(name(CoinbaseClient.class, "primary_account", "hits"));
+    this.accountMisses      = metricRegistry.meter(name(CoinbaseClient.class, "primary_account", "misses"));
+
+    metricRegistry.register(name(CoinbaseClient.class, "primary_account", "hit_ratio"), new RatioGauge() {
+      @Override
+      protected Ratio getRatio() {
+        return Ratio.of(accountHits.getCount(), accountHits.getCount() + accountMisses.getCount());
+      }
+    });
+  }
+
+  @Override
+  public TransactionsResponse getTransactions(final int page)
       throws CoinbaseException, IOException
   {
-    return coinbase.getTransactions().getTransactions();
+    return call(new CoinbaseCall<TransactionsResponse>() {
+      @Override
+      public TransactionsResponse call() throws IOException, CoinbaseException {
+        return coinbase.getTransactions(page);
+      }
+    });
   }
 
-  public BigDecimal getExchangeRate() throws IOException, CoinbaseException {
-    return coinbase.getExchangeRates().get("btc_to_usd");
+  @Override
+  public Map<String, BigDecimal> getExchangeRates() throws IOException, CoinbaseException {
+    return call(new CoinbaseCall<Map<String, BigDecimal>>() {
+      @Override
+      public Map<String, BigDecimal> call() throws IOException, CoinbaseException {
+        return coinbase.getExchangeRates();
+      }
+    });
   }
 
-  public void sendPayment(Author author, BigDecimal amount, String url)
+  @Override
+  public void sendPayment(Author author, BigDecimal amount, String url, String idempotencyKey)
       throws TransferFailedException
   {
     try {
-      String note = "Commit payment:\n__" + author.getUsername() + "__ " + url;
-
-      Transaction transaction = new Transaction();
+      final Transaction transaction = new Transaction();
       transaction.setTo(author.getEmail());
       transaction.setAmount(Money.of(CurrencyUnit.of("BTC"), amount, RoundingMode.DOWN));
-      transaction.setNotes(note);
+      transaction.setNotes(getPaymentNote(author, url));
+      transaction.setIdem(idempotencyKey);
 
-      Transaction response = coinbase.sendMoney(transaction);
+      Transaction response = call(new CoinbaseCall<Transaction>() {
+        @Override
+        public Transaction call() throws IOException, CoinbaseException {
+          return coinbase.sendMoney(transaction);
+        }
+      });
 
       if (response.getStatus() != Transaction.Status.COMPLETE) {
         throw new TransferFailedException();
@@ -75,18 +142,132 @@ public class CoinbaseClient {
     }
   }
 
+  /**
+   * Reads the primary account's balance.  The primary account's ID is
+   * cached, so this is usually a single request.  If the balance read
+   * fails, the ID is treated as stale, resolved again, and the read retried.
+   */
+  @Override
   public BigDecimal getAccountBalance() throws IOException, CoinbaseException {
-    List<Account> accounts = coinbase.getAccounts().getAccounts();
-    Account       primary  = null;
+    String accountId = getPrimaryAccountId();
+
+    if (accountId == null) {
+      return BigDecimal.ZERO;
+    }
+
+    try {
+      return getBalance(accountId);
+    } catch (CoinbaseException e) {
+      logger.warn("Balance read failed, refreshing primary account", e);
+      primaryAccount = null;
+    }
+
+    accountId = getPrimaryAccountId();
+
+    if (accountId != null) return getBalance(accountId);
+    else                   return BigDecimal.ZERO;
+  }
+
+  /**
+   * The note a payout is sent with.  {@link org.whispersystems.bithub.storage.CoinbaseTransactionParser}
+   * reads the destination and commit URL back out of it.
+   */
+  static String getPaymentNote(Author author, String url) {
+    return "Commit payment:\n__" + author.getUsername() + "__ " + url;
+  }
+
+  private BigDecimal getBalance(final String accountId) throws IOException, CoinbaseException {
+    return call(new CoinbaseCall<BigDecimal>() {
+      @Override
+      public BigDecimal call() throws IOException, CoinbaseException {
+        return coinbase.getBalance(accountId).getAmount();
+      }
+    });
+  }
 
-    for (Account account : accounts) {
+  private String getPrimaryAccountId() throws IOException, CoinbaseException {
+    PrimaryAccount cached = primaryAccount;
+
+    if (cached != null && System.currentTimeMillis() - cached.resolved < accountCacheMillis) {
+      accountHits.mark();
+      return cached.id;
+    }
+
+    accountMisses.mark();
+
+    AccountsResponse accounts = call(new CoinbaseCall<AccountsResponse>() {
+      @Override
+      public AccountsResponse call() throws IOException, CoinbaseException {
+        return coinbase.getAccounts();
+      }
+    });
+
+    for (Account account : accounts.getAccounts()) {
       if (account.isPrimary()) {
-        primary = account;
-        break;
+        primaryAccount = new PrimaryAccount(account.getId(), System.currentTimeMillis());
+        return account.getId();
       }
     }
 
-    if (primary != null) return coinbase.getBalance(primary.getId()).getAmount();
-    else                 return new BigDecimal(0.0);
+    return null;
+  }
+
+  /**
+   * Makes a Coinbase request through the guard.  Only I/O failures count
+   * against the breaker, since a CoinbaseException is an answer from a
+   * healthy API.
+   */
+  private <T> T call(CoinbaseCall<T> call) throws IOException, CoinbaseException {
+    guard.acquire();
+
+    boolean failure = true;
+
+    try {
+      T result = call.call();
+      failure = false;
+      return result;
+    } catch (CoinbaseException e) {
+      failure = false;
+      throw e;
+    } finally {
+      guard.release(failure);
+    }
+  }
+
+  /**
+   * coinbase-java opens plain URLConnections and has no timeout settings
+   * of its own.  It resolves every request against the base API URL, and
+   * a resolved URL keeps its base's handler, so a handler on the base URL
+   * can set the timeouts on each connection that it opens.
+   */
+  private static URL getApiUrl(final ClientConfiguration configuration) {
+    try {
+      return new URL(null, API_URL, new URLStreamHandler() {
+        @Override
+        protected URLConnection openConnection(URL url) throws IOException {
+          URLConnection connection = new URL(url.toExternalForm()).openConnection();
+          connection.setConnectTimeout((int)configuration.getConnectTimeout().toMilliseconds());
+          connection.setReadTimeout((int)configuration.getReadTimeout().toMilliseconds());
+
+          return connection;
+        }
+      });
+    } catch (MalformedURLException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private interface CoinbaseCall<T> {
+    public T call() throws IOException, CoinbaseException;
+  }
+
+  private static class PrimaryAccount {
+    private final String id;
+    private final long   resolved;
+
+    private PrimaryAccount(String id, long resolved) {
+      this.id       = id;
+      this.resolved = resolved;
+    }
   }
 }
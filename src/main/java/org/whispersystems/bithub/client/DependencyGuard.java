@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.client;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.bithub.config.ClientConfiguration;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * A circuit breaker and bulkhead for calls to one remote dependency.
+ *
+ * The bulkhead bounds how many calls may be in flight at once.  Callers
+ * beyond that limit are refused immediately rather than queued, so a slow
+ * dependency can only ever hold a fixed number of threads.
+ *
+ * The breaker opens after a run of consecutive failures and refuses every
+ * call until the open duration has passed.  It then lets a single trial
+ * call through: if that succeeds the breaker closes, otherwise it opens
+ * again.
+ */
+public class DependencyGuard {
+
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private static final Logger logger = LoggerFactory.getLogger(DependencyGuard.class);
+
+  private final AtomicReference<State> state    = new AtomicReference<>(State.CLOSED);
+  private final AtomicInteger          failures = new AtomicInteger();
+
+  private final String    dependency;
+  private final Semaphore bulkhead;
+  private final int       failureThreshold;
+  private final long      openMillis;
+
+  private final Meter rejected;
+  private final Meter shortCircuited;
+  private final Meter failed;
+
+  private volatile long openedAt;
+
+  public DependencyGuard(String dependency, ClientConfiguration configuration,
+                         MetricRegistry metricRegistry)
+  {
+    this.dependency       = dependency;
+    this.bulkhead         = new Semaphore(configuration.getMaxConcurrency());
+    this.failureThreshold = configuration.getFailureThreshold();
+    this.openMillis       = configuration.getOpenDuration().toMilliseconds();
+    this.rejected         = metricRegistry.meter(name(DependencyGuard.class, dependency, "rejected"));
+    this.shortCircuited   = metricRegistry.meter(name(DependencyGuard.class, dependency, "short_circuited"));
+    this.failed           = metricRegistry.meter(name(DependencyGuard.class, dependency, "failures"));
+
+    final int maxConcurrency = configuration.getMaxConcurrency();
+
+    metricRegistry.register(name(DependencyGuard.class, dependency, "state"), new Gauge<String>() {
+      @Override
+      public String getValue() {
+        return state.get().name();
+      }
+    });
+
+    metricRegistry.register(name(DependencyGuard.class, dependency, "in_flight"), new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        return maxConcurrency - bulkhead.availablePermits();
+      }
+    });
+  }
+
+  /**
+   * Admits a call.  Every successful acquire() must be paired with a
+   * release().
+   *
+   * @throws DependencyUnavailableException if the bulkhead is full or the breaker is open.
+   */
+  public void acquire() throws DependencyUnavailableException {
+    if (!bulkhead.tryAcquire()) {
+      rejected.mark();
+      throw new DependencyUnavailableException(dependency + " has too many calls in flight");
+    }
+
+    if (!allowRequest()) {
+      bulkhead.release();
+      shortCircuited.mark();
+      throw new DependencyUnavailableException(dependency + " circuit is open");
+    }
+  }
+
+  /**
+   * @param failure Whether the call failed in a way that suggests the
+   *                dependency itself is unhealthy.
+   */
+  public void release(boolean failure) {
+    try {
+      if (failure) recordFailure();
+      else         recordSuccess();
+    } finally {
+      bulkhead.release();
+    }
+  }
+
+  public State getState() {
+    return state.get();
+  }
+
+  private boolean allowRequest() {
+    switch (state.get()) {
+      case CLOSED:
+        return true;
+      case OPEN:
+        return System.currentTimeMillis() - openedAt >= openMillis &&
+               state.compareAndSet(State.OPEN, State.HALF_OPEN);
+      default:
+        return false;
+    }
+  }
+
+  private void recordSuccess() {
+    failures.set(0);
+
+    if (state.getAndSet(State.CLOSED) != State.CLOSED) {
+      logger.info(dependency + " circuit closed");
+    }
+  }
+
+  private void recordFailure() {
+    failed.mark();
+
+    if (state.get() == State.HALF_OPEN || failures.incrementAndGet() >= failureThreshold) {
+      openedAt = System.currentTimeMillis();
+
+      if (state.getAndSet(State.OPEN) != State.OPEN) {
+        logger.warn(dependency + " circuit opened");
+      }
+    }
+  }
+}
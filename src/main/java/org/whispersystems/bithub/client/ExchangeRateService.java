@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.client;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.coinbase.api.exception.CoinbaseException;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.SettableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.dropwizard.util.Duration;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Serves exchange rates from a cached snapshot of the Coinbase rate table.
+ *
+ * The snapshot is refreshed once it is older than the configured TTL.
+ * Concurrent callers that find it expired wait on a single in-flight
+ * fetch rather than each fetching the table.  If a refresh fails, the
+ * last good snapshot keeps being served until a later refresh succeeds.
+ */
+public class ExchangeRateService {
+
+  public static final String BTC_TO_USD = "btc_to_usd";
+
+  private final Logger logger = LoggerFactory.getLogger(ExchangeRateService.class);
+
+  private final AtomicReference<Snapshot>                 snapshot = new AtomicReference<>();
+  private final AtomicReference<SettableFuture<Snapshot>> inFlight = new AtomicReference<>();
+
+  private final PaymentBackend paymentBackend;
+  private final long           ttlMillis;
+
+  private final Meter hitsMeter;
+  private final Meter fetchesMeter;
+  private final Meter staleMeter;
+
+  public ExchangeRateService(PaymentBackend paymentBackend, Duration ttl, MetricRegistry metricRegistry) {
+    this.paymentBackend = paymentBackend;
+    this.ttlMillis      = ttl.toMilliseconds();
+    this.hitsMeter      = metricRegistry.meter(name(ExchangeRateService.class, "hits"));
+    this.fetchesMeter   = metricRegistry.meter(name(ExchangeRateService.class, "fetches"));
+    this.staleMeter     = metricRegistry.meter(name(ExchangeRateService.class, "stale"));
+  }
+
+  /**
+   * @return The BTC to USD exchange rate.
+   */
+  public BigDecimal getExchangeRate() throws IOException, CoinbaseException {
+    return getExchangeRate(BTC_TO_USD);
+  }
+
+  /**
+   * @param pair A Coinbase rate name, such as btc_to_usd.
+   * @return The rate, or null if Coinbase does not publish it.
+   */
+  public BigDecimal getExchangeRate(String pair) throws IOException, CoinbaseException {
+    return getSnapshot().rates.get(pair);
+  }
+
+  private Snapshot getSnapshot() throws IOException, CoinbaseException {
+    while (true) {
+      Snapshot current = snapshot.get();
+
+      if (current != null && System.currentTimeMillis() - current.fetched < ttlMillis) {
+        hitsMeter.mark();
+        return current;
+      }
+
+      SettableFuture<Snapshot> leader = inFlight.get();
+
+      if (leader != null) {
+        return await(leader);
+      }
+
+      SettableFuture<Snapshot> future = SettableFuture.create();
+
+      if (inFlight.compareAndSet(null, future)) {
+        try {
+          return refresh(current, future);
+        } finally {
+          inFlight.set(null);
+        }
+      }
+    }
+  }
+
+  private Snapshot refresh(Snapshot current, SettableFuture<Snapshot> future)
+      throws IOException, CoinbaseException
+  {
+    try {
+      fetchesMeter.mark();
+
+      Snapshot fetched = new Snapshot(ImmutableMap.copyOf(paymentBackend.getExchangeRates()),
+                                      System.currentTimeMillis());
+
+      snapshot.set(fetched);
+      future.set(fetched);
+
+      return fetched;
+    } catch (IOException | CoinbaseException | RuntimeException e) {
+      if (current == null) {
+        future.setException(e);
+        throw e;
+      }
+
+      logger.warn("Exchange rate refresh failed, serving last known rates", e);
+      staleMeter.mark();
+      future.set(current);
+
+      return current;
+    }
+  }
+
+  private Snapshot await(SettableFuture<Snapshot> future) throws IOException, CoinbaseException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+
+      if      (cause instanceof IOException)       throw (IOException)cause;
+      else if (cause instanceof CoinbaseException) throw (CoinbaseException)cause;
+      else if (cause instanceof RuntimeException)  throw (RuntimeException)cause;
+      else                                         throw new IOException(cause);
+    }
+  }
+
+  private static class Snapshot {
+    private final Map<String, BigDecimal> rates;
+    private final long                    fetched;
+
+    private Snapshot(Map<String, BigDecimal> rates, long fetched) {
+      this.rates   = rates;
+      this.fetched = fetched;
+    }
+  }
+}
@@ -17,44 +17,120 @@
 
 package org.whispersystems.bithub.client;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.ClientHandlerException;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.UniformInterfaceException;
 import com.sun.jersey.api.client.WebResource;
 import com.sun.jersey.api.client.config.ClientConfig;
-import com.sun.jersey.api.client.config.DefaultClientConfig;
 import com.sun.jersey.api.json.JSONConfiguration;
+import com.sun.jersey.client.apache4.ApacheHttpClient4;
+import com.sun.jersey.client.apache4.ApacheHttpClient4Handler;
+import com.sun.jersey.client.apache4.config.DefaultApacheHttpClient4Config;
 import com.sun.jersey.core.util.Base64;
-
+import org.apache.http.HttpHost;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.whispersystems.bithub.client.GithubRateLimiter.Priority;
+import org.whispersystems.bithub.config.ClientConfiguration;
+import org.whispersystems.bithub.config.ConnectionPoolConfiguration;
+import org.whispersystems.bithub.config.GithubConfiguration;
 import org.whispersystems.bithub.entities.Commit;
 import org.whispersystems.bithub.entities.CommitComment;
 import org.whispersystems.bithub.entities.Repository;
 
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import io.dropwizard.client.HttpClientBuilder;
+import io.dropwizard.client.HttpClientConfiguration;
+
+import static com.codahale.metrics.MetricRegistry.name;
 
 /**
- * Handles interaction with the GitHub API.
+ * Handles interaction with the GitHub API.  Requests are sent over a
+ * pool of keep-alive connections with connect and read timeouts, are
+ * scheduled against the REST or GraphQL rate limit by a
+ * {@link GithubRateLimiter}, and
+ * are made through a {@link DependencyGuard}.  Lookups are revalidated
+ * against a {@link ResponseCache} with conditional GETs, which GitHub
+ * does not count against the rate limit when they return 304.
+ *
+ * Lookups of many repositories or commits at once are batched into
+ * GraphQL queries, one aliased field per lookup, so that a dashboard
+ * refresh takes the same number of round trips however many
+ * repositories are configured.
  *
  * @author Moxie Marlinspike
  */
 public class GithubClient {
 
-  private static final String GITHUB_URL      = "https://api.github.com/";
   private static final String COMMENT_PATH    = "/repos/%s/%s/commits/%s/comments";
   private static final String COMMIT_PATH     = "/repos/%s/%s/git/commits/%s";
   private static final String REPOSITORY_PATH = "/repos/%s/%s";
 
+  private static final String REPOSITORY_FIELDS = "name description owner { name: login }";
+
+  private static final String RATE_LIMIT_REMAINING = "X-RateLimit-Remaining";
+  private static final String RATE_LIMIT_RESET     = "X-RateLimit-Reset";
+
+  private static final int NOT_MODIFIED = 304;
+
+  private static final ObjectMapper mapper = new ObjectMapper();
+
   private final Logger logger = LoggerFactory.getLogger(GithubClient.class);
 
-  private final String authorizationHeader;
-  private final Client client;
+  private final String            authorizationHeader;
+  private final WebResource       api;
+  private final WebResource       graphql;
+  private final DependencyGuard   guard;
+  private final GithubRateLimiter restLimiter;
+  private final GithubRateLimiter graphqlLimiter;
+  private final ResponseCache     responseCache;
+  private final boolean           graphqlEnabled;
+  private final int               graphqlBatchSize;
 
-  public GithubClient(String user, String token) {
-    this.authorizationHeader = getAuthorizationHeader(user, token);
-    this.client              = Client.create(getClientConfig());
+  public GithubClient(GithubConfiguration configuration, MetricRegistry metricRegistry) {
+    ClientConfiguration clientConfiguration = configuration.getClientConfiguration();
+
+    HttpClient httpClient = new HttpClientBuilder(metricRegistry)
+        .using(getHttpClientConfiguration(clientConfiguration, configuration.getConnectionPoolConfiguration()))
+        .build("github");
+
+    Client client = new ApacheHttpClient4(new ApacheHttpClient4Handler(httpClient, null, false),
+                                          getClientConfig());
+
+    registerRouteMetrics(httpClient, configuration.getUrl(), metricRegistry);
+
+    this.authorizationHeader = getAuthorizationHeader(configuration.getUser(), configuration.getToken());
+    this.api                 = client.resource(configuration.getUrl());
+    this.graphql             = client.resource(configuration.getGraphqlConfiguration().getUrl());
+    this.guard               = new DependencyGuard("github", clientConfiguration, metricRegistry);
+    this.restLimiter         = new GithubRateLimiter("rest", configuration.getRateLimitConfiguration(),
+                                                     metricRegistry);
+    this.graphqlLimiter      = new GithubRateLimiter("graphql", configuration.getRateLimitConfiguration(),
+                                                     metricRegistry);
+    this.responseCache       = new ResponseCache("github", configuration.getResponseCacheConfiguration(),
+                                                 metricRegistry);
+    this.graphqlEnabled      = configuration.getGraphqlConfiguration().isEnabled();
+    this.graphqlBatchSize    = configuration.getGraphqlConfiguration().getBatchSize();
   }
 
   public String getCommitDescription(String commitUrl) {
@@ -63,14 +139,9 @@ public class GithubClient {
     String   repository     = commitUrlParts[commitUrlParts.length - 3];
     String   commit         = commitUrlParts[commitUrlParts.length - 1];
 
-    String      path     = String.format(COMMIT_PATH, owner, repository, commit);
-    WebResource resource = client.resource(GITHUB_URL).path(path);
-    Commit      response = resource.type(MediaType.APPLICATION_JSON_TYPE)
-                                   .accept(MediaType.APPLICATION_JSON_TYPE)
-                                   .header("Authorization", authorizationHeader)
-                                   .get(Commit.class);
+    String path = String.format(COMMIT_PATH, owner, repository, commit);
 
-    return response.getMessage();
+    return getCached(Priority.HISTORY, path, Commit.class).getMessage();
   }
 
   public Repository getRepository(String url) {
@@ -78,46 +149,359 @@ public class GithubClient {
     String   owner    = urlParts[urlParts.length - 2];
     String   name     = urlParts[urlParts.length - 1];
 
-    String      path     = String.format(REPOSITORY_PATH, owner, name);
-    WebResource resource = client.resource(GITHUB_URL).path(path);
+    String path = String.format(REPOSITORY_PATH, owner, name);
 
-    return resource.type(MediaType.APPLICATION_JSON_TYPE)
-                   .accept(MediaType.APPLICATION_JSON_TYPE)
-                   .header("Authorization", authorizationHeader)
-                   .get(Repository.class);
+    return getCached(Priority.DASHBOARD, path, Repository.class);
+  }
+
+  /**
+   * @return The repositories, in the order of their URLs.
+   */
+  public List<Repository> getRepositories(List<String> urls) {
+    List<Repository> repositories = new LinkedList<>();
+
+    if (!graphqlEnabled) {
+      for (String url : urls) {
+        repositories.add(getRepository(url));
+      }
 
+      return repositories;
+    }
+
+    for (List<String> batch : partition(urls)) {
+      StringBuilder query = new StringBuilder("query {");
+
+      for (int i = 0; i < batch.size(); i++) {
+        String[] urlParts = batch.get(i).split("/");
+
+        query.append(" r").append(i).append(": ")
+             .append(repositoryField(urlParts[urlParts.length - 2], urlParts[urlParts.length - 1]))
+             .append(" { ").append(REPOSITORY_FIELDS).append(" }");
+      }
+
+      JsonNode data = queryGraphql(Priority.DASHBOARD, query.append(" }").toString());
+
+      for (int i = 0; i < batch.size(); i++) {
+        String[]   urlParts   = batch.get(i).split("/");
+        ObjectNode repository = getAlias(data, "r" + i, batch.get(i));
+
+        repository.put("url", getRepositoryUrl(urlParts[urlParts.length - 2], urlParts[urlParts.length - 1]));
+        repositories.add(treeToValue(repository, Repository.class));
+      }
+    }
+
+    return repositories;
   }
 
-  public void addCommitComment(Repository repository, Commit commit, String comment) {
+  /**
+   * @return The full message of each commit, keyed by commit URL.
+   */
+  public Map<String, String> getCommitDescriptions(List<String> commitUrls) {
+    Map<String, String> descriptions = new HashMap<>();
+
+    if (!graphqlEnabled) {
+      for (String commitUrl : commitUrls) {
+        descriptions.put(commitUrl, getCommitDescription(commitUrl));
+      }
+
+      return descriptions;
+    }
+
+    for (List<String> batch : partition(commitUrls)) {
+      StringBuilder query = new StringBuilder("query {");
+
+      for (int i = 0; i < batch.size(); i++) {
+        String[] commitUrlParts = batch.get(i).split("/");
+
+        query.append(" c").append(i).append(": ")
+             .append(repositoryField(commitUrlParts[commitUrlParts.length - 4],
+                                     commitUrlParts[commitUrlParts.length - 3]))
+             .append(" { object(oid: ").append(literal(commitUrlParts[commitUrlParts.length - 1]))
+             .append(") { ... on Commit { message } } }");
+      }
+
+      JsonNode data = queryGraphql(Priority.HISTORY, query.append(" }").toString());
+
+      for (int i = 0; i < batch.size(); i++) {
+        JsonNode message = getAlias(data, "c" + i, batch.get(i)).path("object").path("message");
+
+        if (!message.isTextual()) {
+          throw new ClientHandlerException("Commit not found: " + batch.get(i));
+        }
+
+        descriptions.put(batch.get(i), message.asText());
+      }
+    }
+
+    return descriptions;
+  }
+
+  /**
+   * @return true if the comment was posted.
+   */
+  public boolean addCommitComment(Repository repository, Commit commit, String comment) {
     try {
       String path = String.format(COMMENT_PATH, repository.getOwner().getName(),
                                   repository.getName(), commit.getSha());
 
-      WebResource    resource = client.resource(GITHUB_URL).path(path);
-      ClientResponse response = resource.type(MediaType.APPLICATION_JSON_TYPE)
-                                        .accept(MediaType.APPLICATION_JSON)
-                                        .header("Authorization", authorizationHeader)
-                                        .entity(new CommitComment(comment))
-                                        .post(ClientResponse.class);
+      ClientResponse response = execute(Priority.COMMENT, "POST", path, new CommitComment(comment), null);
+      response.close();
 
       if (response.getStatus() < 200 || response.getStatus() >=300) {
         logger.warn("Commit comment failed: " + response.getClientResponseStatus().getReasonPhrase());
+        return false;
       }
 
+      return true;
     } catch (UniformInterfaceException | ClientHandlerException e) {
       logger.warn("Comment failed", e);
+      return false;
+    }
+  }
+
+  /**
+   * Runs a GraphQL query.  A lookup that fails leaves its alias null and
+   * adds to the response's errors, which are logged.
+   *
+   * @return The query's data.
+   */
+  private JsonNode queryGraphql(Priority priority, String query) {
+    try {
+      String         body     = mapper.writeValueAsString(new GraphqlRequest(query));
+      ClientResponse response = execute(graphqlLimiter, graphql, priority, "POST", body, null);
+      JsonNode       result   = mapper.readTree(getEntity(response, byte[].class));
+
+      if (result.hasNonNull("errors")) {
+        logger.warn("GraphQL query returned errors: " + result.get("errors"));
+      }
+
+      if (!result.path("data").isObject()) {
+        throw new ClientHandlerException("GraphQL query returned no data");
+      }
+
+      return result.get("data");
+    } catch (IOException e) {
+      throw new ClientHandlerException(e);
+    }
+  }
+
+  private ObjectNode getAlias(JsonNode data, String alias, String url) {
+    JsonNode node = data.path(alias);
+
+    if (!node.isObject()) {
+      throw new ClientHandlerException("Not found: " + url);
+    }
+
+    return (ObjectNode)node;
+  }
+
+  private <T> T treeToValue(JsonNode node, Class<T> type) {
+    try {
+      return mapper.treeToValue(node, type);
+    } catch (IOException e) {
+      throw new ClientHandlerException(e);
+    }
+  }
+
+  /**
+   * GraphQL only knows a repository's HTML URL, so the REST API URL that
+   * a REST lookup would have returned is built from the API base.
+   */
+  private String getRepositoryUrl(String owner, String name) {
+    return api.path(String.format(REPOSITORY_PATH, owner, name)).getURI().toString();
+  }
+
+  private String repositoryField(String owner, String name) {
+    return "repository(owner: " + literal(owner) + ", name: " + literal(name) + ")";
+  }
+
+  /**
+   * GraphQL string literals share JSON's syntax and escapes.
+   */
+  private String literal(String value) {
+    try {
+      return mapper.writeValueAsString(value);
+    } catch (IOException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  private List<List<String>> partition(List<String> values) {
+    List<List<String>> batches = new LinkedList<>();
+
+    for (int i = 0; i < values.size(); i += graphqlBatchSize) {
+      batches.add(new ArrayList<>(values.subList(i, Math.min(values.size(), i + graphqlBatchSize))));
     }
+
+    return batches;
+  }
+
+  /**
+   * GETs an entity, sending the validators of any cached response so that
+   * an unchanged entity is answered from the cache.
+   */
+  private <T> T getCached(Priority priority, String path, Class<T> type) {
+    ResponseCache.Entry cached   = responseCache.get(path);
+    ClientResponse      response = execute(priority, "GET", path, null, cached);
+
+    if (cached != null && response.getStatus() == NOT_MODIFIED) {
+      response.close();
+      responseCache.hit(cached);
+      return type.cast(cached.getEntity());
+    }
+
+    byte[] body = getEntity(response, byte[].class);
+
+    try {
+      T entity = mapper.readValue(body, type);
+
+      responseCache.put(path, response.getHeaders().getFirst(HttpHeaders.ETAG),
+                        response.getHeaders().getFirst(HttpHeaders.LAST_MODIFIED),
+                        entity, body.length);
+
+      return entity;
+    } catch (IOException e) {
+      throw new ClientHandlerException(e);
+    }
+  }
+
+  private ClientResponse execute(Priority priority, String method, String path, Object entity,
+                                 ResponseCache.Entry conditional)
+  {
+    return execute(restLimiter, api.path(path), priority, method, entity, conditional);
+  }
+
+  /**
+   * Makes a request once the API's rate limiter and the guard admit it.  A
+   * refusal surfaces as a ClientHandlerException, the same way Jersey
+   * surfaces any other failure to reach GitHub.
+   *
+   * @param conditional A cached response to revalidate, or null.
+   */
+  private ClientResponse execute(GithubRateLimiter rateLimiter, WebResource resource, Priority priority,
+                                 String method, Object entity, ResponseCache.Entry conditional)
+  {
+    try {
+      rateLimiter.acquire(priority);
+      guard.acquire();
+    } catch (DependencyUnavailableException e) {
+      throw new ClientHandlerException(e);
+    }
+
+    boolean failure = true;
+
+    try {
+      WebResource.Builder request = resource.type(MediaType.APPLICATION_JSON_TYPE)
+                                            .accept(MediaType.APPLICATION_JSON_TYPE)
+                                            .header("Authorization", authorizationHeader);
+
+      if (conditional != null && conditional.getEtag() != null) {
+        request.header(HttpHeaders.IF_NONE_MATCH, conditional.getEtag());
+      }
+
+      if (conditional != null && conditional.getLastModified() != null) {
+        request.header(HttpHeaders.IF_MODIFIED_SINCE, conditional.getLastModified());
+      }
+
+      ClientResponse response = entity == null ? request.method(method, ClientResponse.class)
+                                               : request.method(method, ClientResponse.class, entity);
+
+      rateLimiter.update(response.getHeaders().getFirst(RATE_LIMIT_REMAINING),
+                         response.getHeaders().getFirst(RATE_LIMIT_RESET));
+
+      failure = response.getStatus() >= 500;
+      return response;
+    } finally {
+      guard.release(failure);
+    }
+  }
+
+  private <T> T getEntity(ClientResponse response, Class<T> type) {
+    if (response.getStatus() < 200 || response.getStatus() >= 300) {
+      response.close();
+      throw new UniformInterfaceException(response);
+    }
+
+    return response.getEntity(type);
   }
 
   private ClientConfig getClientConfig() {
-    ClientConfig config = new DefaultClientConfig();
+    ClientConfig config = new DefaultApacheHttpClient4Config();
     config.getFeatures().put(JSONConfiguration.FEATURE_POJO_MAPPING, Boolean.TRUE);
 
     return config;
   }
 
+  /**
+   * Every request goes to a single host, so the pool's total and per-route
+   * limits are the same.  Retries are left to callers, since a retried
+   * POST could leave a duplicate comment.
+   */
+  private HttpClientConfiguration getHttpClientConfiguration(ClientConfiguration clientConfiguration,
+                                                             ConnectionPoolConfiguration poolConfiguration)
+  {
+    HttpClientConfiguration configuration = new HttpClientConfiguration();
+    configuration.setConnectionTimeout(clientConfiguration.getConnectTimeout());
+    configuration.setTimeout(clientConfiguration.getReadTimeout());
+    configuration.setMaxConnections(poolConfiguration.getMaxConnections());
+    configuration.setMaxConnectionsPerRoute(poolConfiguration.getMaxConnections());
+    configuration.setKeepAlive(poolConfiguration.getKeepAlive());
+    configuration.setTimeToLive(poolConfiguration.getTimeToLive());
+    configuration.setRetries(0);
+    configuration.setCookiesEnabled(false);
+
+    return configuration;
+  }
+
+  /**
+   * The route is derived from the API URL the same way HttpClient derives
+   * it for a request, so that its pool stats are the ones requests use.
+   */
+  private void registerRouteMetrics(HttpClient httpClient, String url, MetricRegistry metricRegistry) {
+    final PoolingClientConnectionManager pool   = (PoolingClientConnectionManager)httpClient.getConnectionManager();
+    final HttpHost                       target = URIUtils.extractHost(URI.create(url));
+    final HttpRoute                      route  = new HttpRoute(target, null, "https".equals(target.getSchemeName()));
+    final String                         host   = target.getHostName();
+
+    metricRegistry.register(name(GithubClient.class, host, "leased"), new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        return pool.getStats(route).getLeased();
+      }
+    });
+
+    metricRegistry.register(name(GithubClient.class, host, "available"), new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        return pool.getStats(route).getAvailable();
+      }
+    });
+
+    metricRegistry.register(name(GithubClient.class, host, "pending"), new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        return pool.getStats(route).getPending();
+      }
+    });
+
+    metricRegistry.register(name(GithubClient.class, host, "max"), new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        return pool.getStats(route).getMax();
+      }
+    });
+  }
+
   private String getAuthorizationHeader(String user, String token) {
     return "Basic " + new String(Base64.encode(user + ":" + token));
   }
 
+  private static class GraphqlRequest {
+    @JsonProperty
+    private final String query;
+
+    private GraphqlRequest(String query) {
+      this.query = query;
+    }
+  }
 }
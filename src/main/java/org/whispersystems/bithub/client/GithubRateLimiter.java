@@ -0,0 +1,207 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.client;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.whispersystems.bithub.config.RateLimitConfiguration;
+
+import java.util.PriorityQueue;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Schedules outbound GitHub requests against the token's rate limit.
+ *
+ * The remaining budget and its reset time are read from the
+ * X-RateLimit-Remaining and X-RateLimit-Reset headers of every response.
+ * GitHub keeps separate budgets for its REST and GraphQL APIs, so each
+ * API is scheduled by its own limiter.  Waiting requests are admitted
+ * in priority order.  How many may be in flight at once is left to the
+ * client's DependencyGuard.
+ *
+ * Commit comments may spend the whole budget.  Background requests stop
+ * once the budget falls to the comment reserve, and until then are paced
+ * so that what is left above the reserve is spread evenly across the
+ * rest of the rate limit window.  As the budget shrinks, background
+ * refreshes slow down.
+ *
+ * A request that cannot be admitted within the maximum wait is refused.
+ */
+public class GithubRateLimiter {
+
+  public enum Priority {
+    COMMENT, HISTORY, DASHBOARD
+  }
+
+  private static final int UNKNOWN = -1;
+
+  private final PriorityQueue<Ticket> waiting = new PriorityQueue<>();
+
+  private final int  commentReserve;
+  private final long maxWaitMillis;
+
+  private final Meter throttled;
+  private final Timer waits;
+
+  private long sequence;
+  private int  remaining = UNKNOWN;
+  private long resetMillis;
+  private long nextBackgroundMillis;
+
+  public GithubRateLimiter(String name, RateLimitConfiguration configuration,
+                           MetricRegistry metricRegistry)
+  {
+    this.commentReserve = configuration.getCommentReserve();
+    this.maxWaitMillis  = configuration.getMaxWait().toMilliseconds();
+    this.throttled      = metricRegistry.meter(name(GithubRateLimiter.class, name, "throttled"));
+    this.waits          = metricRegistry.timer(name(GithubRateLimiter.class, name, "wait"));
+
+    metricRegistry.register(name(GithubRateLimiter.class, name, "remaining"), new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        return getRemaining();
+      }
+    });
+  }
+
+  /**
+   * Waits until a request of the given priority may be made.
+   *
+   * @throws DependencyUnavailableException if the budget does not allow
+   *         the request within the maximum wait.
+   */
+  public void acquire(Priority priority) throws DependencyUnavailableException {
+    Timer.Context timer = waits.time();
+
+    try {
+      admit(priority);
+    } finally {
+      timer.stop();
+    }
+  }
+
+  /**
+   * Records the rate limit headers of a response.  Missing or malformed
+   * headers are ignored.
+   */
+  public synchronized void update(String remainingHeader, String resetHeader) {
+    if (remainingHeader == null || resetHeader == null) {
+      return;
+    }
+
+    try {
+      this.remaining   = Integer.parseInt(remainingHeader.trim());
+      this.resetMillis = Long.parseLong(resetHeader.trim()) * 1000;
+    } catch (NumberFormatException e) {
+      return;
+    }
+
+    notifyAll();
+  }
+
+  public synchronized int getRemaining() {
+    return remaining;
+  }
+
+  private synchronized void admit(Priority priority) throws DependencyUnavailableException {
+    Ticket ticket   = new Ticket(priority, sequence++);
+    long   deadline = System.currentTimeMillis() + maxWaitMillis;
+
+    waiting.add(ticket);
+
+    try {
+      while (true) {
+        long now     = System.currentTimeMillis();
+        long readyAt = getReadyAt(priority, now);
+        boolean next = waiting.peek() == ticket;
+
+        if (next && readyAt <= now) {
+          spend(priority, now);
+          return;
+        }
+
+        if (readyAt > deadline || now >= deadline) {
+          throttled.mark();
+          throw new DependencyUnavailableException("GitHub rate limit budget exhausted for " + priority);
+        }
+
+        wait(Math.max(1, (next ? readyAt : deadline) - now));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DependencyUnavailableException("Interrupted waiting for GitHub rate limit");
+    } finally {
+      waiting.remove(ticket);
+      notifyAll();
+    }
+  }
+
+  private long getReadyAt(Priority priority, long now) {
+    if (remaining != UNKNOWN && now >= resetMillis) {
+      remaining = UNKNOWN;
+    }
+
+    if (remaining == UNKNOWN) {
+      return now;
+    }
+
+    if (priority == Priority.COMMENT) {
+      return remaining > 0 ? now : resetMillis;
+    }
+
+    if (remaining <= commentReserve) {
+      return resetMillis;
+    }
+
+    return Math.max(now, nextBackgroundMillis);
+  }
+
+  private void spend(Priority priority, long now) {
+    if (remaining == UNKNOWN) {
+      return;
+    }
+
+    if (priority != Priority.COMMENT) {
+      nextBackgroundMillis = now + (resetMillis - now) / Math.max(1, remaining - commentReserve);
+    }
+
+    remaining--;
+  }
+
+  private static class Ticket implements Comparable<Ticket> {
+    private final Priority priority;
+    private final long     sequence;
+
+    private Ticket(Priority priority, long sequence) {
+      this.priority = priority;
+      this.sequence = sequence;
+    }
+
+    @Override
+    public int compareTo(Ticket other) {
+      if (priority != other.priority) {
+        return priority.compareTo(other.priority);
+      }
+
+      return Long.compare(sequence, other.sequence);
+    }
+  }
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.client;
+
+import com.coinbase.api.entity.Transaction;
+import com.coinbase.api.entity.TransactionsResponse;
+import com.coinbase.api.exception.CoinbaseException;
+import com.google.common.collect.ImmutableMap;
+import org.joda.money.CurrencyUnit;
+import org.joda.money.Money;
+import org.joda.time.DateTime;
+import org.whispersystems.bithub.config.MemoryBackendConfiguration;
+import org.whispersystems.bithub.entities.Author;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A payment backend that keeps its account in memory, for exercising the
+ * payout pipeline without the network.
+ *
+ * Every call sleeps for the configured latency, and fails with the
+ * configured probability, before touching the account.  Sent payouts are
+ * recorded as Coinbase transactions with the same notes CoinbaseClient
+ * sends, so the transaction history reads them back unchanged.  A payout
+ * whose idempotency key was already used, among the retained
+ * transactions, is not sent again.
+ */
+public class InMemoryPaymentBackend implements PaymentBackend {
+
+  private static final CurrencyUnit BTC               = CurrencyUnit.of("BTC");
+  private static final int          PAGE_SIZE         = 25;
+  private static final int          RETAINED_PAYMENTS = 1000;
+
+  private final LinkedList<Transaction> transactions    = new LinkedList<>();
+  private final Set<String>             idempotencyKeys = new HashSet<>();
+
+  private final Map<String, BigDecimal> exchangeRates;
+  private final long                    latencyNanos;
+  private final double                  failureRate;
+
+  private BigDecimal balance;
+
+  public InMemoryPaymentBackend(MemoryBackendConfiguration configuration) {
+    this.balance       = configuration.getBalance();
+    this.exchangeRates = ImmutableMap.of(ExchangeRateService.BTC_TO_USD, configuration.getExchangeRate());
+    this.latencyNanos  = configuration.getLatency().toNanoseconds();
+    this.failureRate   = configuration.getFailureRate();
+  }
+
+  @Override
+  public BigDecimal getAccountBalance() throws IOException {
+    simulateNetwork();
+
+    synchronized (this) {
+      return balance;
+    }
+  }
+
+  @Override
+  public Map<String, BigDecimal> getExchangeRates() throws IOException {
+    simulateNetwork();
+    return exchangeRates;
+  }
+
+  @Override
+  public void sendPayment(Author author, BigDecimal amount, String url, String idempotencyKey)
+      throws TransferFailedException
+  {
+    try {
+      simulateNetwork();
+    } catch (IOException e) {
+      throw new TransferFailedException(e);
+    }
+
+    BigDecimal btc = Money.of(BTC, amount, RoundingMode.DOWN).getAmount();
+
+    synchronized (this) {
+      if (idempotencyKeys.contains(idempotencyKey)) {
+        return;
+      }
+
+      if (btc.compareTo(balance) > 0) {
+        throw new TransferFailedException(new CoinbaseException("Insufficient funds"));
+      }
+
+      Transaction transaction = new Transaction();
+      transaction.setId(UUID.randomUUID().toString());
+      transaction.setTo(author.getEmail());
+      transaction.setAmount(Money.of(BTC, btc.negate()));
+      transaction.setNotes(CoinbaseClient.getPaymentNote(author, url));
+      transaction.setIdem(idempotencyKey);
+      transaction.setStatus(Transaction.Status.COMPLETE);
+      transaction.setCreatedAt(new DateTime());
+
+      balance = balance.subtract(btc);
+      transactions.addFirst(transaction);
+      idempotencyKeys.add(idempotencyKey);
+
+      if (transactions.size() > RETAINED_PAYMENTS) {
+        idempotencyKeys.remove(transactions.removeLast().getIdem());
+      }
+    }
+  }
+
+  @Override
+  public TransactionsResponse getTransactions(int page) throws IOException {
+    simulateNetwork();
+
+    List<Transaction> results;
+    int               count;
+
+    synchronized (this) {
+      int from = Math.min((page - 1) * PAGE_SIZE, transactions.size());
+      int to   = Math.min(from + PAGE_SIZE, transactions.size());
+
+      results = new ArrayList<>(transactions.subList(from, to));
+      count   = transactions.size();
+    }
+
+    TransactionsResponse response = new TransactionsResponse();
+    response.setTransactions(results);
+    response.setCurrentPage(page);
+    response.setTotalCount(count);
+    response.setNumPages(Math.max(1, (count + PAGE_SIZE - 1) / PAGE_SIZE));
+
+    return response;
+  }
+
+  private void simulateNetwork() throws IOException {
+    if (latencyNanos > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(latencyNanos);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      }
+    }
+
+    if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+      throw new IOException("Injected failure");
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.client;
+
+import com.coinbase.api.entity.TransactionsResponse;
+import com.coinbase.api.exception.CoinbaseException;
+import org.whispersystems.bithub.entities.Author;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Map;
+
+/**
+ * The account that payouts are sent from.
+ *
+ * Transactions and errors are described with Coinbase's types, which the
+ * payout and history code is written against.  Other backends produce
+ * the same types.
+ */
+public interface PaymentBackend {
+
+  /**
+   * @return The account's balance in BTC.
+   */
+  public BigDecimal getAccountBalance() throws IOException, CoinbaseException;
+
+  /**
+   * @return Exchange rates keyed by pair name, such as btc_to_usd.
+   */
+  public Map<String, BigDecimal> getExchangeRates() throws IOException, CoinbaseException;
+
+  /**
+   * Sends a payout for a commit to its author.
+   *
+   * @param idempotencyKey Identifies the payout across retries.  If a
+   *                       transfer with this key was already made, it is
+   *                       not made again and the call succeeds.
+   */
+  public void sendPayment(Author author, BigDecimal amount, String url, String idempotencyKey)
+      throws TransferFailedException;
+
+  /**
+   * @param page A page of the account's transactions, newest first, starting at 1.
+   */
+  public TransactionsResponse getTransactions(int page) throws IOException, CoinbaseException;
+
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.client;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import org.whispersystems.bithub.config.ResponseCacheConfiguration;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * A bounded cache of GET responses, keyed by URL, that holds each
+ * response's ETag and Last-Modified validators alongside its entity.
+ *
+ * Callers send the validators of a cached entry with their next request
+ * for the URL.  When the server answers 304 Not Modified, the cached
+ * entity is used instead of a new body.  The least recently used entry
+ * is evicted once the cache is full.
+ */
+public class ResponseCache {
+
+  private final Map<String, Entry> entries;
+
+  private final Meter   hits;
+  private final Meter   misses;
+  private final Counter bytesSaved;
+
+  public ResponseCache(String name, ResponseCacheConfiguration configuration,
+                       MetricRegistry metricRegistry)
+  {
+    final int maxEntries = configuration.getMaxEntries();
+
+    this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, ResponseCache.Entry> eldest) {
+        return size() > maxEntries;
+      }
+    };
+
+    this.hits       = metricRegistry.meter(name(ResponseCache.class, name, "hits"));
+    this.misses     = metricRegistry.meter(name(ResponseCache.class, name, "misses"));
+    this.bytesSaved = metricRegistry.counter(name(ResponseCache.class, name, "bytes_saved"));
+
+    metricRegistry.register(name(ResponseCache.class, name, "hit_ratio"), new RatioGauge() {
+      @Override
+      protected Ratio getRatio() {
+        return Ratio.of(hits.getCount(), hits.getCount() + misses.getCount());
+      }
+    });
+  }
+
+  /**
+   * @return The cached entry for the URL, or null if there is none.
+   */
+  public synchronized Entry get(String url) {
+    return entries.get(url);
+  }
+
+  /**
+   * Caches a full response for the URL and counts it as a miss.  A
+   * response without validators can't be revalidated, so it is not kept.
+   */
+  public void put(String url, String etag, String lastModified, Object entity, long size) {
+    misses.mark();
+
+    if (etag == null && lastModified == null) {
+      synchronized (this) {
+        entries.remove(url);
+      }
+
+      return;
+    }
+
+    Entry entry = new Entry(etag, lastModified, entity, size);
+
+    synchronized (this) {
+      entries.put(url, entry);
+    }
+  }
+
+  /**
+   * Counts a 304 Not Modified that was answered from the cached entry.
+   */
+  public void hit(Entry entry) {
+    hits.mark();
+    bytesSaved.inc(entry.size);
+  }
+
+  public static class Entry {
+    private final String etag;
+    private final String lastModified;
+    private final Object entity;
+    private final long   size;
+
+    private Entry(String etag, String lastModified, Object entity, long size) {
+      this.etag         = etag;
+      this.lastModified = lastModified;
+      this.entity       = entity;
+      this.size         = size;
+    }
+
+    public String getEtag() {
+      return etag;
+    }
+
+    public String getLastModified() {
+      return lastModified;
+    }
+
+    public Object getEntity() {
+      return entity;
+    }
+
+    public long getSize() {
+      return size;
+    }
+  }
+}
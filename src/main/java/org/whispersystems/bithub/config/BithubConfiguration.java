@@ -22,6 +22,8 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 
 import org.hibernate.validator.constraints.NotEmpty;
 
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
 import java.math.BigDecimal;
 
 public class BithubConfiguration {
@@ -30,8 +32,98 @@ public class BithubConfiguration {
   @NotEmpty
   private String payout = "0.02";
 
+  @JsonProperty
+  @Valid
+  @NotNull
+  private IntakeConfiguration intake = new IntakeConfiguration();
+
+  @JsonProperty
+  @Valid
+  @NotNull
+  private JournalConfiguration journal = new JournalConfiguration();
+
+  @JsonProperty
+  @Valid
+  @NotNull
+  private DeduplicationConfiguration deduplication = new DeduplicationConfiguration();
+
+  @JsonProperty
+  @Valid
+  @NotNull
+  private BatchConfiguration batch = new BatchConfiguration();
+
+  @JsonProperty
+  @Valid
+  @NotNull
+  private CommentConfiguration comments = new CommentConfiguration();
+
+  @JsonProperty
+  @Valid
+  @NotNull
+  private LedgerConfiguration ledger = new LedgerConfiguration();
+
+  @JsonProperty
+  @Valid
+  @NotNull
+  private HistoryConfiguration history = new HistoryConfiguration();
+
+  @JsonProperty
+  @Valid
+  @NotNull
+  private CommitCacheConfiguration commitCache = new CommitCacheConfiguration();
+
+  @Valid
+  @NotNull
+  @JsonProperty
+  private OutboxConfiguration outbox = new OutboxConfiguration();
+
+  @JsonProperty
+  @Valid
+  @NotNull
+  private CacheConfiguration cache = new CacheConfiguration();
+
   public BigDecimal getPayoutRate() {
     return new BigDecimal(payout);
   }
 
+  public IntakeConfiguration getIntakeConfiguration() {
+    return intake;
+  }
+
+  public JournalConfiguration getJournalConfiguration() {
+    return journal;
+  }
+
+  public DeduplicationConfiguration getDeduplicationConfiguration() {
+    return deduplication;
+  }
+
+  public BatchConfiguration getBatchConfiguration() {
+    return batch;
+  }
+
+  public CommentConfiguration getCommentConfiguration() {
+    return comments;
+  }
+
+  public LedgerConfiguration getLedgerConfiguration() {
+    return ledger;
+  }
+
+  public HistoryConfiguration getHistoryConfiguration() {
+    return history;
+  }
+
+  public CommitCacheConfiguration getCommitCacheConfiguration() {
+    return commitCache;
+  }
+
+  public OutboxConfiguration getOutboxConfiguration() {
+    return outbox;
+  }
+
+  public CacheConfiguration getCacheConfiguration() {
+    return cache;
+  }
+
 }
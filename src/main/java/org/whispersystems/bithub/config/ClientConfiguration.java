@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import io.dropwizard.util.Duration;
+
+public class ClientConfiguration {
+
+  @JsonProperty
+  @NotNull
+  private Duration connectTimeout = Duration.seconds(5);
+
+  @JsonProperty
+  @NotNull
+  private Duration readTimeout = Duration.seconds(15);
+
+  @JsonProperty
+  @Min(1)
+  private int maxConcurrency = 8;
+
+  @JsonProperty
+  @Min(1)
+  private int failureThreshold = 5;
+
+  @JsonProperty
+  @NotNull
+  private Duration openDuration = Duration.seconds(30);
+
+  public ClientConfiguration(int maxConcurrency, int failureThreshold, Duration openDuration) {
+    this.maxConcurrency   = maxConcurrency;
+    this.failureThreshold = failureThreshold;
+    this.openDuration     = openDuration;
+  }
+
+  public ClientConfiguration() {}
+
+  public Duration getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  public Duration getReadTimeout() {
+    return readTimeout;
+  }
+
+  public int getMaxConcurrency() {
+    return maxConcurrency;
+  }
+
+  public int getFailureThreshold() {
+    return failureThreshold;
+  }
+
+  public Duration getOpenDuration() {
+    return openDuration;
+  }
+}
@@ -21,6 +21,11 @@ package org.whispersystems.bithub.config;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.hibernate.validator.constraints.NotEmpty;
 
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+
+import io.dropwizard.util.Duration;
+
 public class CoinbaseConfiguration {
 
   @JsonProperty
@@ -31,6 +36,19 @@ public class CoinbaseConfiguration {
   @NotEmpty
   private String apiSecret;
 
+  @JsonProperty
+  @NotNull
+  private Duration accountCacheDuration = Duration.hours(24);
+
+  @JsonProperty
+  @NotNull
+  private Duration exchangeRateTtl = Duration.minutes(1);
+
+  @Valid
+  @NotNull
+  @JsonProperty
+  private ClientConfiguration client = new ClientConfiguration();
+
   public String getApiKey() {
     return apiKey;
   }
@@ -38,4 +56,16 @@ public class CoinbaseConfiguration {
   public String getApiSecret() {
     return apiSecret;
   }
+
+  public Duration getAccountCacheDuration() {
+    return accountCacheDuration;
+  }
+
+  public Duration getExchangeRateTtl() {
+    return exchangeRateTtl;
+  }
+
+  public ClientConfiguration getClientConfiguration() {
+    return client;
+  }
 }
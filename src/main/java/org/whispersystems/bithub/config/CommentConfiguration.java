@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Min;
+
+public class CommentConfiguration {
+
+  @JsonProperty
+  @Min(1)
+  private int queueSize = 1000;
+
+  @JsonProperty
+  @Min(1)
+  private int concurrency = 2;
+
+  @JsonProperty
+  private boolean summarize = false;
+
+  public CommentConfiguration(int queueSize, int concurrency) {
+    this(queueSize, concurrency, false);
+  }
+
+  public CommentConfiguration(int queueSize, int concurrency, boolean summarize) {
+    this.queueSize   = queueSize;
+    this.concurrency = concurrency;
+    this.summarize   = summarize;
+  }
+
+  public CommentConfiguration() {}
+
+  public int getQueueSize() {
+    return queueSize;
+  }
+
+  public int getConcurrency() {
+    return concurrency;
+  }
+
+  public boolean isSummarize() {
+    return summarize;
+  }
+}
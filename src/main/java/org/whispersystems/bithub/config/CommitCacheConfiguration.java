@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.hibernate.validator.constraints.NotEmpty;
+
+import javax.validation.constraints.Min;
+
+public class CommitCacheConfiguration {
+
+  @JsonProperty
+  @NotEmpty
+  private String file = "commits.db";
+
+  @JsonProperty
+  @Min(0)
+  private int memoryEntries = 1000;
+
+  public CommitCacheConfiguration(String file, int memoryEntries) {
+    this.file          = file;
+    this.memoryEntries = memoryEntries;
+  }
+
+  public CommitCacheConfiguration() {}
+
+  public String getFile() {
+    return file;
+  }
+
+  public int getMemoryEntries() {
+    return memoryEntries;
+  }
+}
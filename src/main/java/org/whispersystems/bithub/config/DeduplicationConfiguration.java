@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import io.dropwizard.util.Duration;
+
+public class DeduplicationConfiguration {
+
+  @JsonProperty
+  @Min(1)
+  private int recentEntries = 10000;
+
+  @JsonProperty
+  @NotNull
+  private Duration recentExpiration = Duration.hours(1);
+
+  @JsonProperty
+  @Min(1)
+  private int buckets = 24;
+
+  @JsonProperty
+  @NotNull
+  private Duration bucketDuration = Duration.hours(1);
+
+  @JsonProperty
+  @Min(1)
+  private int expectedInsertions = 10000;
+
+  @JsonProperty
+  @DecimalMin(value = "0.0", inclusive = false)
+  @DecimalMax("0.1")
+  private double falsePositiveProbability = 0.000001;
+
+  public DeduplicationConfiguration(int recentEntries, Duration recentExpiration,
+                                    int buckets, Duration bucketDuration)
+  {
+    this.recentEntries    = recentEntries;
+    this.recentExpiration = recentExpiration;
+    this.buckets          = buckets;
+    this.bucketDuration   = bucketDuration;
+  }
+
+  public DeduplicationConfiguration(int recentEntries, Duration recentExpiration,
+                                    int buckets, Duration bucketDuration,
+                                    int expectedInsertions, double falsePositiveProbability)
+  {
+    this(recentEntries, recentExpiration, buckets, bucketDuration);
+    this.expectedInsertions       = expectedInsertions;
+    this.falsePositiveProbability = falsePositiveProbability;
+  }
+
+  public DeduplicationConfiguration() {}
+
+  public int getRecentEntries() {
+    return recentEntries;
+  }
+
+  public Duration getRecentExpiration() {
+    return recentExpiration;
+  }
+
+  public int getBuckets() {
+    return buckets;
+  }
+
+  public Duration getBucketDuration() {
+    return bucketDuration;
+  }
+
+  public int getExpectedInsertions() {
+    return expectedInsertions;
+  }
+
+  public double getFalsePositiveProbability() {
+    return falsePositiveProbability;
+  }
+}
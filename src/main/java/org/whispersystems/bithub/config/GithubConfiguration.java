@@ -34,6 +34,10 @@ public class GithubConfiguration {
 
   private final Logger logger = LoggerFactory.getLogger(GithubConfiguration.class);
 
+  @JsonProperty
+  @NotEmpty
+  private String url = "https://api.github.com/";
+
   @JsonProperty
   @NotEmpty
   private String user;
@@ -53,6 +57,44 @@ public class GithubConfiguration {
   @JsonProperty
   private WebhookConfiguration webhook;
 
+  @Valid
+  @NotNull
+  @JsonProperty
+  private ClientConfiguration client = new ClientConfiguration();
+
+  @Valid
+  @NotNull
+  @JsonProperty
+  private RateLimitConfiguration rateLimit = new RateLimitConfiguration();
+
+  @Valid
+  @NotNull
+  @JsonProperty
+  private ConnectionPoolConfiguration connectionPool = new ConnectionPoolConfiguration();
+
+  @Valid
+  @NotNull
+  @JsonProperty
+  private ResponseCacheConfiguration responseCache = new ResponseCacheConfiguration();
+
+  @Valid
+  @NotNull
+  @JsonProperty
+  private GraphqlConfiguration graphql = new GraphqlConfiguration();
+
+  public GithubConfiguration(String url, String user, String token, GraphqlConfiguration graphql) {
+    this.url     = url;
+    this.user    = user;
+    this.token   = token;
+    this.graphql = graphql;
+  }
+
+  public GithubConfiguration() {}
+
+  public String getUrl() {
+    return url;
+  }
+
   public String getUser() {
     return user;
   }
@@ -81,4 +123,24 @@ public class GithubConfiguration {
   public WebhookConfiguration getWebhookConfiguration() {
     return webhook;
   }
+
+  public ClientConfiguration getClientConfiguration() {
+    return client;
+  }
+
+  public RateLimitConfiguration getRateLimitConfiguration() {
+    return rateLimit;
+  }
+
+  public ConnectionPoolConfiguration getConnectionPoolConfiguration() {
+    return connectionPool;
+  }
+
+  public ResponseCacheConfiguration getResponseCacheConfiguration() {
+    return responseCache;
+  }
+
+  public GraphqlConfiguration getGraphqlConfiguration() {
+    return graphql;
+  }
 }
@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.hibernate.validator.constraints.NotEmpty;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+
+public class GraphqlConfiguration {
+
+  @JsonProperty
+  private boolean enabled = true;
+
+  @JsonProperty
+  @NotEmpty
+  private String url = "https://api.github.com/graphql";
+
+  @JsonProperty
+  @Min(1)
+  @Max(100)
+  private int batchSize = 50;
+
+  public GraphqlConfiguration(boolean enabled, String url, int batchSize) {
+    this.enabled   = enabled;
+    this.url       = url;
+    this.batchSize = batchSize;
+  }
+
+  public GraphqlConfiguration() {}
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+}
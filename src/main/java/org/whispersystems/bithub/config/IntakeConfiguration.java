@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import io.dropwizard.util.Duration;
+
+public class IntakeConfiguration {
+
+  @JsonProperty
+  private boolean asynchronous = true;
+
+  @JsonProperty
+  @Min(1)
+  private int queueSize = 100;
+
+  @JsonProperty
+  @Min(1)
+  private int workers = 2;
+
+  @JsonProperty
+  @Min(1)
+  private int maxAttempts = 3;
+
+  @JsonProperty
+  @NotNull
+  private Duration retryDelay = Duration.seconds(30);
+
+  @JsonProperty
+  @NotNull
+  private Duration maxRetryDelay = Duration.minutes(10);
+
+  public IntakeConfiguration(boolean asynchronous, int queueSize, int workers,
+                             int maxAttempts, Duration retryDelay)
+  {
+    this.asynchronous = asynchronous;
+    this.queueSize    = queueSize;
+    this.workers      = workers;
+    this.maxAttempts  = maxAttempts;
+    this.retryDelay   = retryDelay;
+  }
+
+  public IntakeConfiguration() {}
+
+  public boolean isAsynchronous() {
+    return asynchronous;
+  }
+
+  public int getQueueSize() {
+    return queueSize;
+  }
+
+  public int getWorkers() {
+    return workers;
+  }
+
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  public Duration getRetryDelay() {
+    return retryDelay;
+  }
+
+  public Duration getMaxRetryDelay() {
+    return maxRetryDelay;
+  }
+}
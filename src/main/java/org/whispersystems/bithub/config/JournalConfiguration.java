@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.hibernate.validator.constraints.NotEmpty;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import io.dropwizard.util.Duration;
+
+public class JournalConfiguration {
+
+  @JsonProperty
+  @NotEmpty
+  private String directory = "journal";
+
+  @JsonProperty
+  @Min(1024)
+  private long maxSegmentSize = 16 * 1024 * 1024;
+
+  @JsonProperty
+  @Min(1)
+  private int maxBatchSize = 256;
+
+  @JsonProperty
+  @NotNull
+  private Duration writeTimeout = Duration.seconds(30);
+
+  public JournalConfiguration(String directory) {
+    this.directory = directory;
+  }
+
+  public JournalConfiguration() {}
+
+  public String getDirectory() {
+    return directory;
+  }
+
+  public long getMaxSegmentSize() {
+    return maxSegmentSize;
+  }
+
+  public int getMaxBatchSize() {
+    return maxBatchSize;
+  }
+
+  public Duration getWriteTimeout() {
+    return writeTimeout;
+  }
+}
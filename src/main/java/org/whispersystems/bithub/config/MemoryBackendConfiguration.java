@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.NotNull;
+import java.math.BigDecimal;
+
+import io.dropwizard.util.Duration;
+
+public class MemoryBackendConfiguration {
+
+  @JsonProperty
+  @NotNull
+  private BigDecimal balance = new BigDecimal("10");
+
+  @JsonProperty
+  @NotNull
+  private BigDecimal exchangeRate = new BigDecimal("500");
+
+  @JsonProperty
+  @NotNull
+  private Duration latency = Duration.milliseconds(0);
+
+  @JsonProperty
+  @DecimalMin("0.0")
+  @DecimalMax("1.0")
+  private double failureRate = 0.0;
+
+  public MemoryBackendConfiguration(BigDecimal balance, BigDecimal exchangeRate,
+                                    Duration latency, double failureRate)
+  {
+    this.balance      = balance;
+    this.exchangeRate = exchangeRate;
+    this.latency      = latency;
+    this.failureRate  = failureRate;
+  }
+
+  public MemoryBackendConfiguration() {}
+
+  public BigDecimal getBalance() {
+    return balance;
+  }
+
+  public BigDecimal getExchangeRate() {
+    return exchangeRate;
+  }
+
+  public Duration getLatency() {
+    return latency;
+  }
+
+  public double getFailureRate() {
+    return failureRate;
+  }
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.hibernate.validator.constraints.NotEmpty;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import io.dropwizard.util.Duration;
+
+public class OutboxConfiguration {
+
+  @JsonProperty
+  @NotEmpty
+  private String directory = "outbox";
+
+  @JsonProperty
+  @NotNull
+  private Duration pollInterval = Duration.seconds(10);
+
+  @JsonProperty
+  @NotNull
+  private Duration initialBackoff = Duration.seconds(30);
+
+  @JsonProperty
+  @NotNull
+  private Duration maxBackoff = Duration.hours(1);
+
+  @JsonProperty
+  @Min(1)
+  private int maxAttempts = 20;
+
+  public OutboxConfiguration(String directory, Duration pollInterval, Duration initialBackoff,
+                             Duration maxBackoff, int maxAttempts)
+  {
+    this.directory      = directory;
+    this.pollInterval   = pollInterval;
+    this.initialBackoff = initialBackoff;
+    this.maxBackoff     = maxBackoff;
+    this.maxAttempts    = maxAttempts;
+  }
+
+  public OutboxConfiguration() {}
+
+  public String getDirectory() {
+    return directory;
+  }
+
+  public Duration getPollInterval() {
+    return pollInterval;
+  }
+
+  public Duration getInitialBackoff() {
+    return initialBackoff;
+  }
+
+  public Duration getMaxBackoff() {
+    return maxBackoff;
+  }
+
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+}
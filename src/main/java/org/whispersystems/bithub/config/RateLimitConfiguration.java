@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import io.dropwizard.util.Duration;
+
+public class RateLimitConfiguration {
+
+  @JsonProperty
+  @Min(0)
+  private int commentReserve = 500;
+
+  @JsonProperty
+  @NotNull
+  private Duration maxWait = Duration.seconds(30);
+
+  public RateLimitConfiguration(int commentReserve, Duration maxWait) {
+    this.commentReserve = commentReserve;
+    this.maxWait        = maxWait;
+  }
+
+  public RateLimitConfiguration() {}
+
+  public int getCommentReserve() {
+    return commentReserve;
+  }
+
+  public Duration getMaxWait() {
+    return maxWait;
+  }
+}
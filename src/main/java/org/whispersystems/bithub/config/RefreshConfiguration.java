@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.NotNull;
+
+import io.dropwizard.util.Duration;
+
+public class RefreshConfiguration {
+
+  @JsonProperty
+  @NotNull
+  private Duration interval = Duration.seconds(60);
+
+  @JsonProperty
+  @NotNull
+  private Duration jitter = Duration.seconds(5);
+
+  @JsonProperty
+  @NotNull
+  private Duration timeout = Duration.seconds(30);
+
+  @JsonProperty
+  @NotNull
+  private Duration initialBackoff = Duration.seconds(5);
+
+  @JsonProperty
+  @NotNull
+  private Duration maxBackoff = Duration.minutes(5);
+
+  public RefreshConfiguration(Duration interval, Duration jitter, Duration timeout,
+                              Duration initialBackoff, Duration maxBackoff)
+  {
+    this.interval       = interval;
+    this.jitter         = jitter;
+    this.timeout        = timeout;
+    this.initialBackoff = initialBackoff;
+    this.maxBackoff     = maxBackoff;
+  }
+
+  public RefreshConfiguration() {}
+
+  public Duration getInterval() {
+    return interval;
+  }
+
+  public Duration getJitter() {
+    return jitter;
+  }
+
+  public Duration getTimeout() {
+    return timeout;
+  }
+
+  public Duration getInitialBackoff() {
+    return initialBackoff;
+  }
+
+  public Duration getMaxBackoff() {
+    return maxBackoff;
+  }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.NotNull;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import io.dropwizard.util.Duration;
+
+public class TrustedNetworkConfiguration {
+
+  @JsonProperty
+  @NotNull
+  private List<String> networks = new LinkedList<>(Arrays.asList("192.30.252.0/22",
+                                                                 "185.199.108.0/22",
+                                                                 "140.82.112.0/20",
+                                                                 "143.55.64.0/20",
+                                                                 "2a0a:a440::/29",
+                                                                 "2606:50c0::/32"));
+
+  @JsonProperty
+  private String file;
+
+  @JsonProperty
+  @NotNull
+  private List<String> proxies = new LinkedList<>();
+
+  @JsonProperty
+  @NotNull
+  private Duration reloadInterval = Duration.minutes(1);
+
+  public TrustedNetworkConfiguration(List<String> networks, String file, List<String> proxies) {
+    this.networks = networks;
+    this.file     = file;
+    this.proxies  = proxies;
+  }
+
+  public TrustedNetworkConfiguration() {}
+
+  /**
+   * @return The networks, in CIDR notation, that webhooks may originate from.
+   */
+  public List<String> getNetworks() {
+    return networks;
+  }
+
+  /**
+   * @return An optional file of additional networks, one per line, which
+   *         is reloaded whenever it changes.
+   */
+  public String getFile() {
+    return file;
+  }
+
+  /**
+   * @return The networks of proxies in front of BitHub that append to
+   *         X-Forwarded-For, and are skipped when finding the client.
+   */
+  public List<String> getProxies() {
+    return proxies;
+  }
+
+  public Duration getReloadInterval() {
+    return reloadInterval;
+  }
+}
@@ -3,6 +3,12 @@ package org.whispersystems.bithub.config;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.hibernate.validator.constraints.NotEmpty;
 
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.LinkedList;
+import java.util.List;
+
 public class WebhookConfiguration {
 
   @JsonProperty
@@ -13,7 +19,26 @@ public class WebhookConfiguration {
   @NotEmpty
   private String password;
 
+  @JsonProperty
+  @NotNull
+  private List<String> secrets = new LinkedList<>();
+
+  @JsonProperty
+  @Min(1)
+  private int maxPayloadSize = 5 * 1024 * 1024;
+
+  @JsonProperty
+  @Valid
+  @NotNull
+  private TrustedNetworkConfiguration trusted = new TrustedNetworkConfiguration();
+
   public String getUsername() { return username; }
 
   public String getPassword() { return password; }
+
+  public List<String> getSecrets() { return secrets; }
+
+  public int getMaxPayloadSize() { return maxPayloadSize; }
+
+  public TrustedNetworkConfiguration getTrustedNetworkConfiguration() { return trusted; }
 }
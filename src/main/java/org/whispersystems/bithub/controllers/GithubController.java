@@ -19,38 +19,28 @@ package org.whispersystems.bithub.controllers;
 
 import com.codahale.metrics.annotation.Timed;
 import com.coinbase.api.exception.CoinbaseException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import org.apache.commons.net.util.SubnetUtils;
-import org.apache.commons.net.util.SubnetUtils.SubnetInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.whispersystems.bithub.auth.GithubWebhookAuthenticator.Authentication;
-import org.whispersystems.bithub.client.CoinbaseClient;
-import org.whispersystems.bithub.client.GithubClient;
-import org.whispersystems.bithub.client.TransferFailedException;
+import org.whispersystems.bithub.auth.TrustedNetworks;
 import org.whispersystems.bithub.config.RepositoryConfiguration;
-import org.whispersystems.bithub.entities.Commit;
 import org.whispersystems.bithub.entities.PushEvent;
-import org.whispersystems.bithub.entities.Repository;
+import org.whispersystems.bithub.payouts.PushEventJob;
+import org.whispersystems.bithub.payouts.PushEventQueue;
+import org.whispersystems.bithub.storage.DuplicateFilter;
+import org.whispersystems.bithub.util.PushEventParser;
 
-import javax.validation.Validation;
-import javax.validation.Validator;
-import javax.validation.ValidatorFactory;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.FormParam;
 import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
 import java.io.IOException;
-import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import io.dropwizard.auth.Auth;
 
@@ -63,137 +53,100 @@ import io.dropwizard.auth.Auth;
 @Path("/v1/github")
 public class GithubController {
 
-  private static final String GITHUB_WEBOOK_CIDR = "192.30.252.0/22";
-  private static final String MASTER_REF         = "refs/heads/master";
+  private static final String MASTER_REF = "refs/heads/master";
 
-  private final Logger     logger         = LoggerFactory.getLogger(GithubController.class);
-  private final SubnetInfo trustedNetwork = new SubnetUtils(GITHUB_WEBOOK_CIDR).getInfo();
+  private final Logger logger = LoggerFactory.getLogger(GithubController.class);
 
-  private final CoinbaseClient      coinbaseClient;
-  private final GithubClient        githubClient;
+  private final TrustedNetworks     trustedNetworks;
+  private final PushEventQueue      pushEventQueue;
+  private final DuplicateFilter     deliveryFilter;
   private final Map<String, String> repositories;
-  private final BigDecimal          payoutRate;
+  private final PushEventParser     pushEventParser;
 
   public GithubController(List<RepositoryConfiguration> repositories,
-                          GithubClient githubClient,
-                          CoinbaseClient coinbaseClient,
-                          BigDecimal payoutRate)
+                          TrustedNetworks trustedNetworks,
+                          PushEventQueue pushEventQueue,
+                          DuplicateFilter deliveryFilter)
   {
-    this.coinbaseClient = coinbaseClient;
-    this.githubClient   = githubClient;
-    this.repositories   = new HashMap<>();
-    this.payoutRate     = payoutRate;
+    this.trustedNetworks = trustedNetworks;
+    this.pushEventQueue  = pushEventQueue;
+    this.deliveryFilter  = deliveryFilter;
+    this.repositories    = new HashMap<>();
 
     for (RepositoryConfiguration repository : repositories) {
       this.repositories.put(repository.getUrl().toLowerCase(),
                             repository.getMode().toUpperCase());
     }
+
+    this.pushEventParser = new PushEventParser(this.repositories.keySet(), MASTER_REF);
   }
 
   @Timed
   @POST
   @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
   @Path("/commits/")
-  public void handleCommits(@Auth Authentication auth,
-                            @HeaderParam("X-Forwarded-For") String clientIp,
-                            @FormParam("payload") String eventString)
-      throws IOException, UnauthorizedHookException, TransferFailedException, CoinbaseException
+  public Response handleCommits(@Auth Authentication auth,
+                                @HeaderParam("X-Forwarded-For") String clientIp,
+                                @HeaderParam("X-GitHub-Delivery") String deliveryId,
+                                @FormParam("payload") String eventString)
+      throws IOException, UnauthorizedHookException, CoinbaseException
   {
     authenticate(clientIp);
-    PushEvent event = getEventFromPayload(eventString);
 
-    if (!repositories.containsKey(event.getRepository().getUrl().toLowerCase())) {
-      throw new UnauthorizedHookException("Not a valid repository: " +
-                                          event.getRepository().getUrl());
+    if (deliveryId == null) {
+      return handlePushEvent(eventString);
     }
 
-    if (!event.getRef().equals(MASTER_REF)) {
-      logger.info("Not a push to master: " + event.getRef());
-      return;
+    if (!deliveryFilter.add(deliveryId)) {
+      logger.info("Duplicate delivery: " + deliveryId);
+      return Response.noContent().build();
     }
 
-    Repository   repository   = event.getRepository();
-    String       defaultMode  = repositories.get(repository.getUrl().toLowerCase());
-    List<Commit> commits      = getQualifyingCommits(event, defaultMode);
-    BigDecimal   balance      = coinbaseClient.getAccountBalance();
-    BigDecimal   exchangeRate = coinbaseClient.getExchangeRate();
+    boolean accepted = false;
 
-    logger.info("Retrieved balance: " + balance.toPlainString());
+    try {
+      Response response = handlePushEvent(eventString);
+      accepted = response.getStatus() != Response.Status.SERVICE_UNAVAILABLE.getStatusCode();
 
-    sendPaymentsFor(repository, commits, balance, exchangeRate);
+      return response;
+    } finally {
+      if (!accepted) deliveryFilter.remove(deliveryId);
+    }
   }
 
-
-  private void sendPaymentsFor(Repository repository, List<Commit> commits,
-                               BigDecimal balance, BigDecimal exchangeRate)
+  private Response handlePushEvent(String eventString)
+      throws IOException, UnauthorizedHookException, CoinbaseException
   {
-    for (Commit commit : commits) {
-      try {
-        BigDecimal payout = balance.multiply(payoutRate);
-
-        if (isViablePaymentAmount(payout)) {
-          coinbaseClient.sendPayment(commit.getAuthor(), payout, commit.getUrl());
-        }
-
-        balance = balance.subtract(payout);
+    PushEvent event = pushEventParser.parse(eventString);
 
-        githubClient.addCommitComment(repository, commit,
-                                      getCommitCommentStringForPayment(payout, exchangeRate));
-      } catch (TransferFailedException e) {
-        logger.warn("Transfer failed", e);
-      }
+    if (event.getRepository() == null || event.getRepository().getUrl() == null) {
+      throw new UnauthorizedHookException("No repository URL in push event");
     }
-  }
-
-  private PushEvent getEventFromPayload(String payload) throws IOException {
-    ObjectMapper     objectMapper = new ObjectMapper();
-    PushEvent        event        = objectMapper.readValue(payload, PushEvent.class);
-    ValidatorFactory factory      = Validation.buildDefaultValidatorFactory();
-    Validator        validator    = factory.getValidator();
-
-    validator.validate(event);
-    return event;
-  }
 
-  private List<Commit> getQualifyingCommits(PushEvent event, String defaultMode) {
-    List<Commit> commits = new LinkedList<>();
-    Set<String>  emails  = new HashSet<>();
-
-    for (Commit commit : event.getCommits()) {
-      logger.info(commit.getUrl());
-      if (!emails.contains(commit.getAuthor().getEmail())) {
-        logger.info("Unique author: "+ commit.getAuthor().getEmail());
-        if (isViableMessage(commit.getMessage(), defaultMode)) {
-          logger.info("Not a merge commit or freebie...");
-
-          emails.add(commit.getAuthor().getEmail());
-          commits.add(commit);
-        }
-      }
+    if (!repositories.containsKey(event.getRepository().getUrl().toLowerCase())) {
+      throw new UnauthorizedHookException("Not a valid repository: " +
+                                          event.getRepository().getUrl());
     }
 
-    return commits;
-  }
-
-  private boolean isViableMessage(String message, String defaultMode) {
-    if (message == null || message.startsWith("Merge"))
-      return false;
+    if (!MASTER_REF.equals(event.getRef())) {
+      logger.info("Not a push to master: " + event.getRef());
+      return Response.noContent().build();
+    }
 
-    return (!message.contains("FREEBIE") && defaultMode.equals("MONEYMONEY")) ||
-           (message.contains("MONEYMONEY") && defaultMode.equals("FREEBIE"));
-  }
+    String       defaultMode = repositories.get(event.getRepository().getUrl().toLowerCase());
+    PushEventJob job         = new PushEventJob(event, defaultMode);
 
-  private boolean isViablePaymentAmount(BigDecimal payment) {
-    return payment.compareTo(new BigDecimal(0)) == 1;
-  }
+    if (!pushEventQueue.isAsynchronous()) {
+      pushEventQueue.process(job);
+      return Response.noContent().build();
+    }
 
-  private String getCommitCommentStringForPayment(BigDecimal payment, BigDecimal exchangeRate) {
-    if (isViablePaymentAmount(payment)) {
-      BigDecimal paymentUsd = payment.multiply(exchangeRate).setScale(2, RoundingMode.CEILING);
-      return "Thanks! BitHub has sent payment of  $" + paymentUsd.toPlainString() + "USD for this commit.";
-    } else {
-      return "Thanks! Unfortunately our BitHub balance is $0.00, so no payout can be made.";
+    if (!pushEventQueue.offer(job)) {
+      logger.warn("Push event queue is full, rejecting push to " + event.getRepository().getUrl());
+      return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
     }
+
+    return Response.status(Response.Status.ACCEPTED).build();
   }
 
   private void authenticate(String clientIp) throws UnauthorizedHookException {
@@ -201,7 +154,7 @@ public class GithubController {
       throw new UnauthorizedHookException("No X-Forwarded-For!");
     }
 
-    if (!trustedNetwork.isInRange(clientIp)) {
+    if (!trustedNetworks.isTrusted(clientIp)) {
       throw new UnauthorizedHookException("Untrusted IP: " + clientIp);
     }
  }
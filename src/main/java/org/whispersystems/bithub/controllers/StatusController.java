@@ -71,6 +71,10 @@ public class StatusController {
   {
     List<Transaction> recentTransactions = coinbaseManager.getRecentTransactions();
 
+    if (recentTransactions == null) {
+      return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+    }
+
     switch (format) {
       case "html": return Response.ok(new TransactionsView(recentTransactions), MediaType.TEXT_HTML_TYPE).build();
       case "json":
@@ -102,6 +106,10 @@ public class StatusController {
   {
     CurrentPayment currentPayment = coinbaseManager.getCurrentPaymentAmount();
 
+    if (currentPayment == null) {
+      return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+    }
+
     switch (format) {
       case "json":
         return Response.ok(currentPayment.getEntity(), MediaType.APPLICATION_JSON_TYPE).build();
@@ -34,6 +34,14 @@ public class Author {
   @JsonProperty
   private String username;
 
+  public Author() {}
+
+  public Author(String name, String email, String username) {
+    this.name     = name;
+    this.email    = email;
+    this.username = username;
+  }
+
   public String getName() {
     return name;
   }
@@ -41,6 +41,15 @@ public class Commit {
   @JsonProperty
   private boolean distinct;
 
+  public Commit() {}
+
+  public Commit(String id, String message, Author author, String url) {
+    this.id      = id;
+    this.message = message;
+    this.author  = author;
+    this.url     = url;
+  }
+
   public String getSha() {
     return id;
   }
@@ -43,6 +43,16 @@ public class PushEvent {
   @NotNull
   Repository repository;
 
+  public PushEvent() {}
+
+  public PushEvent(String ref, String head, Repository repository, List<Commit> commits) {
+    this.ref        = ref;
+    this.head       = head;
+    this.repository = repository;
+    this.commits    = commits;
+    this.size       = commits.size();
+  }
+
   public Repository getRepository() {
     return repository;
   }
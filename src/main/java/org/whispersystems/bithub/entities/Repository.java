@@ -47,6 +47,12 @@ public class Repository {
     this.url = url;
   }
 
+  public Repository(String url, String name, Author owner) {
+    this.url   = url;
+    this.name  = name;
+    this.owner = owner;
+  }
+
   public Author getOwner() {
     return owner;
   }
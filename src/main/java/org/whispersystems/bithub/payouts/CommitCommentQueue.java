@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.payouts;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.bithub.client.GithubClient;
+import org.whispersystems.bithub.config.CommentConfiguration;
+import org.whispersystems.bithub.entities.Commit;
+import org.whispersystems.bithub.entities.Repository;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import io.dropwizard.lifecycle.Managed;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Posts commit comments to GitHub off the payout path, so that a slow
+ * GitHub API does not hold up payments.
+ *
+ * Comments are spread over a fixed set of lanes, each drained by a
+ * single thread.  A repository always maps to the same lane, so its
+ * comments are posted in the order they were queued.  When a lane is
+ * full the comment is dropped.
+ */
+public class CommitCommentQueue implements Managed {
+
+  private final Logger logger = LoggerFactory.getLogger(CommitCommentQueue.class);
+
+  private final GithubClient         githubClient;
+  private final ThreadPoolExecutor[] lanes;
+
+  private final Timer latencyTimer;
+  private final Meter failedMeter;
+  private final Meter droppedMeter;
+
+  public CommitCommentQueue(GithubClient githubClient,
+                            CommentConfiguration configuration,
+                            MetricRegistry metricRegistry)
+  {
+    this.githubClient = githubClient;
+    this.lanes        = new ThreadPoolExecutor[configuration.getConcurrency()];
+
+    int laneSize = Math.max(1, configuration.getQueueSize() / lanes.length);
+
+    for (int i=0;i<lanes.length;i++) {
+      lanes[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                                        new ArrayBlockingQueue<Runnable>(laneSize));
+    }
+
+    this.latencyTimer = metricRegistry.timer(name(CommitCommentQueue.class, "latency"));
+    this.failedMeter  = metricRegistry.meter(name(CommitCommentQueue.class, "failed"));
+    this.droppedMeter = metricRegistry.meter(name(CommitCommentQueue.class, "dropped"));
+
+    metricRegistry.register(name(CommitCommentQueue.class, "backlog"), new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        int backlog = 0;
+
+        for (ThreadPoolExecutor lane : lanes) {
+          backlog += lane.getQueue().size();
+        }
+
+        return backlog;
+      }
+    });
+  }
+
+  @Override
+  public void start() throws Exception {
+    for (ThreadPoolExecutor lane : lanes) {
+      lane.prestartAllCoreThreads();
+    }
+  }
+
+  @Override
+  public void stop() throws Exception {
+    for (ThreadPoolExecutor lane : lanes) {
+      lane.shutdown();
+    }
+
+    for (ThreadPoolExecutor lane : lanes) {
+      if (!lane.awaitTermination(30, TimeUnit.SECONDS)) {
+        logger.warn("Commit comments did not drain, " + lane.getQueue().size() + " comments dropped");
+        lane.shutdownNow();
+      }
+    }
+  }
+
+  /**
+   * Queues a comment to be posted on a commit.
+   *
+   * @return false if the repository's lane is full and the comment was dropped.
+   */
+  public boolean enqueue(final Repository repository, final Commit commit, final String comment) {
+    final long queued = System.currentTimeMillis();
+
+    try {
+      getLane(repository).execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            if (!githubClient.addCommitComment(repository, commit, comment)) {
+              failedMeter.mark();
+            }
+          } catch (RuntimeException e) {
+            logger.warn("Comment failed", e);
+            failedMeter.mark();
+          } finally {
+            latencyTimer.update(System.currentTimeMillis() - queued, TimeUnit.MILLISECONDS);
+          }
+        }
+      });
+
+      return true;
+    } catch (RejectedExecutionException e) {
+      logger.warn("Comment queue full, dropping comment for " + commit.getUrl());
+      droppedMeter.mark();
+      return false;
+    }
+  }
+
+  private ThreadPoolExecutor getLane(Repository repository) {
+    String key = repository.getUrl() != null ? repository.getUrl().toLowerCase() : "";
+    return lanes[(key.hashCode() & Integer.MAX_VALUE) % lanes.length];
+  }
+}
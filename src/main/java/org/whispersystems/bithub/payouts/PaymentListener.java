@@ -0,0 +1,30 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.payouts;
+
+/**
+ * Notified when a transfer completes, whether on its first attempt or
+ * when the PaymentOutbox retries it, after its amount has been taken
+ * out of the BalanceLedger.  It is called on the sending thread, so a
+ * listener should hand off anything slow.
+ */
+public interface PaymentListener {
+
+  public void paymentSent(PendingTransfer transfer);
+
+}
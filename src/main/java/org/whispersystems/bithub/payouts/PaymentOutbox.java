@@ -0,0 +1,343 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.payouts;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.bithub.client.DependencyUnavailableException;
+import org.whispersystems.bithub.client.PaymentBackend;
+import org.whispersystems.bithub.client.TransferFailedException;
+import org.whispersystems.bithub.config.OutboxConfiguration;
+import org.whispersystems.bithub.storage.BalanceLedger;
+import org.whispersystems.bithub.storage.PushEventJournal;
+import org.whispersystems.bithub.util.Backoff;
+import org.whispersystems.bithub.util.Satoshis;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import io.dropwizard.lifecycle.Managed;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * A durable store of transfers that have not yet been confirmed, and a
+ * background worker that retries the ones that failed.
+ *
+ * A transfer is written to the outbox before it is first sent and
+ * removed once it completes, so a transfer interrupted by a crash is
+ * retried on the next start.  Each transfer is one JSON file, replaced
+ * atomically whenever it changes.
+ *
+ * Transfers that complete on a retry are reported to the PaymentListener.
+ * Every transfer waiting for a retry, including those recovered on
+ * start, is reserved in the BalanceLedger until it is settled or given
+ * up on.
+ * A transfer that is given up on is journaled as FAILED, its commit is
+ * commented on, and its entry is moved to the failed subdirectory so
+ * that it can be settled by hand.
+ *
+ * Retries back off exponentially with full jitter.  When the payment
+ * backend refuses a call outright, because its circuit is open or it
+ * is already at its concurrency limit, the rest of that retry pass is
+ * deferred.  Every attempt carries the transfer's key, so the backend
+ * can recognize a retry of a transfer it already made and not repeat it.
+ */
+public class PaymentOutbox implements Managed {
+
+  private static final String SUFFIX         = ".json";
+  private static final String FAILED         = "failed";
+  private static final String FAILED_COMMENT = "Thanks! Unfortunately BitHub was unable to send a payment for this commit.";
+
+  private final Logger       logger       = LoggerFactory.getLogger(PaymentOutbox.class);
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  private final Map<String, PendingTransfer> transfers = new ConcurrentHashMap<>();
+  private final Set<String>                  inFlight  = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  private final PaymentBackend     paymentBackend;
+  private final BalanceLedger      balanceLedger;
+  private final CommitCommentQueue commentQueue;
+  private final PaymentListener    listener;
+  private final PushEventJournal   journal;
+  private final File               directory;
+  private final File               failedDirectory;
+  private final long               pollMillis;
+  private final Backoff            backoff;
+  private final int                maxAttempts;
+
+  private final Meter retried;
+  private final Meter abandoned;
+
+  private ScheduledExecutorService executor;
+
+  public PaymentOutbox(PaymentBackend paymentBackend,
+                       BalanceLedger balanceLedger,
+                       CommitCommentQueue commentQueue,
+                       PaymentListener listener,
+                       PushEventJournal journal,
+                       OutboxConfiguration configuration,
+                       MetricRegistry metricRegistry)
+  {
+    this.paymentBackend       = paymentBackend;
+    this.balanceLedger        = balanceLedger;
+    this.commentQueue         = commentQueue;
+    this.listener             = listener;
+    this.journal              = journal;
+    this.directory            = new File(configuration.getDirectory());
+    this.failedDirectory      = new File(directory, FAILED);
+    this.pollMillis           = configuration.getPollInterval().toMilliseconds();
+    this.backoff              = new Backoff(configuration.getInitialBackoff().toMilliseconds(),
+                                            configuration.getMaxBackoff().toMilliseconds());
+    this.maxAttempts          = configuration.getMaxAttempts();
+    this.retried              = metricRegistry.meter(name(PaymentOutbox.class, "retried"));
+    this.abandoned            = metricRegistry.meter(name(PaymentOutbox.class, "abandoned"));
+
+    metricRegistry.register(name(PaymentOutbox.class, "backlog"), new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        return transfers.size();
+      }
+    });
+
+    metricRegistry.register(name(PaymentOutbox.class, "oldest_age_millis"), new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return getOldestAge();
+      }
+    });
+  }
+
+  @Override
+  public void start() throws Exception {
+    if (!failedDirectory.isDirectory() && !failedDirectory.mkdirs()) {
+      throw new IOException("Unable to create outbox directory: " + failedDirectory);
+    }
+
+    File[] files = directory.listFiles();
+
+    if (files != null) {
+      for (File file : files) {
+        if (!file.getName().endsWith(SUFFIX)) continue;
+
+        try {
+          PendingTransfer transfer = objectMapper.readValue(file, PendingTransfer.class);
+          transfers.put(transfer.getKey(), transfer);
+          balanceLedger.reserve(getAmount(transfer));
+        } catch (IOException e) {
+          logger.warn("Unreadable outbox entry: " + file, e);
+        }
+      }
+    }
+
+    if (!transfers.isEmpty()) {
+      logger.warn("Recovered " + transfers.size() + " unconfirmed transfers from outbox");
+    }
+
+    executor = Executors.newSingleThreadScheduledExecutor();
+    executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          retryDue();
+        } catch (RuntimeException e) {
+          logger.warn("Outbox retry pass failed", e);
+        }
+      }
+    }, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void stop() throws Exception {
+    if (executor != null) {
+      executor.shutdown();
+      executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+  }
+
+  /**
+   * Durably records a transfer that is about to be sent.  The caller owns
+   * the transfer until it calls remove() or retryLater().
+   */
+  public void add(PendingTransfer transfer) throws IOException {
+    inFlight.add(transfer.getKey());
+    transfers.put(transfer.getKey(), transfer);
+    store(transfer);
+  }
+
+  /**
+   * Forgets a transfer that has completed.
+   */
+  public void remove(PendingTransfer transfer) {
+    transfers.remove(transfer.getKey());
+    inFlight.remove(transfer.getKey());
+
+    if (!getFile(transfer.getKey()).delete()) {
+      logger.warn("Unable to delete outbox entry " + transfer.getKey());
+    }
+  }
+
+  /**
+   * Hands a transfer whose attempt failed to the retry worker.
+   */
+  public void retryLater(PendingTransfer transfer) throws IOException {
+    try {
+      transfer.recordAttempt(System.currentTimeMillis() + backoff.getDelay(transfer.getAttempts() + 1));
+      store(transfer);
+    } finally {
+      inFlight.remove(transfer.getKey());
+    }
+  }
+
+  public int getBacklog() {
+    return transfers.size();
+  }
+
+  /**
+   * Runs a single retry pass over every transfer that is due.
+   */
+  public void retryDue() {
+    List<PendingTransfer> due = new ArrayList<>();
+    long                  now = System.currentTimeMillis();
+
+    for (PendingTransfer transfer : transfers.values()) {
+      if (transfer.getNextAttempt() <= now && !inFlight.contains(transfer.getKey())) {
+        due.add(transfer);
+      }
+    }
+
+    for (PendingTransfer transfer : due) {
+      if (!retry(transfer)) break;
+    }
+  }
+
+  /**
+   * @return false if the backend refused the attempt, and the rest of the pass should wait.
+   */
+  private boolean retry(PendingTransfer transfer) {
+    if (!inFlight.add(transfer.getKey())) {
+      return true;
+    }
+
+    retried.mark();
+
+    try {
+      paymentBackend.sendPayment(transfer.getCommit().getAuthor(), transfer.getAmount(),
+                                 transfer.getCommit().getUrl(), transfer.getKey());
+    } catch (TransferFailedException e) {
+      logger.warn("Retried transfer failed: " + transfer.getCommit().getUrl(), e);
+      balanceLedger.markStale();
+
+      if (transfer.getAttempts() + 1 >= maxAttempts) {
+        abandon(transfer);
+        return true;
+      }
+
+      try {
+        retryLater(transfer);
+      } catch (IOException ioe) {
+        logger.warn("Unable to persist outbox entry " + transfer.getKey(), ioe);
+      }
+
+      return !(e.getCause() instanceof DependencyUnavailableException);
+    }
+
+    balanceLedger.settle(getAmount(transfer));
+    remove(transfer);
+    listener.paymentSent(transfer);
+    commentQueue.enqueue(transfer.getRepository(), transfer.getCommit(), transfer.getComment());
+
+    return true;
+  }
+
+  /**
+   * Gives up on a transfer.  Its job has usually completed by now, since
+   * the job finishes once the transfer is handed to the outbox, and replay
+   * ignores payout records for completed jobs, so the FAILED record is
+   * then only kept for the audit trail.  If the job is still open, it
+   * keeps the resumed job from paying the commit again.
+   */
+  private void abandon(PendingTransfer transfer) {
+    logger.error("Giving up on transfer after " + maxAttempts + " attempts: " +
+                 transfer.getCommit().getUrl());
+    abandoned.mark();
+
+    transfers.remove(transfer.getKey());
+    inFlight.remove(transfer.getKey());
+    balanceLedger.release(getAmount(transfer));
+
+    try {
+      Files.move(getFile(transfer.getKey()).toPath(),
+                 new File(failedDirectory, transfer.getKey() + SUFFIX).toPath(),
+                 StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      logger.warn("Unable to move outbox entry " + transfer.getKey() + " to " + failedDirectory, e);
+    }
+
+    try {
+      journal.recordPayout(transfer.getJobId(), transfer.getKey(), PayoutState.FAILED);
+    } catch (IOException e) {
+      logger.warn("Unable to journal failed transfer " + transfer.getKey(), e);
+    }
+
+    commentQueue.enqueue(transfer.getRepository(), transfer.getCommit(), FAILED_COMMENT);
+  }
+
+  private Satoshis getAmount(PendingTransfer transfer) {
+    return Satoshis.fromBtc(transfer.getAmount(), RoundingMode.UP);
+  }
+
+  private long getOldestAge() {
+    long oldest = Long.MAX_VALUE;
+
+    for (PendingTransfer transfer : transfers.values()) {
+      oldest = Math.min(oldest, transfer.getCreated());
+    }
+
+    return oldest == Long.MAX_VALUE ? 0 : System.currentTimeMillis() - oldest;
+  }
+
+  private void store(PendingTransfer transfer) throws IOException {
+    File file      = getFile(transfer.getKey());
+    File temporary = new File(directory, transfer.getKey() + SUFFIX + ".tmp");
+
+    objectMapper.writeValue(temporary, transfer);
+    Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+               StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private File getFile(String key) {
+    return new File(directory, key + SUFFIX);
+  }
+}
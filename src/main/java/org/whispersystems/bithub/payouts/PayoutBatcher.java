@@ -0,0 +1,373 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.payouts;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.coinbase.api.exception.CoinbaseException;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.bithub.client.ExchangeRateService;
+import org.whispersystems.bithub.client.PaymentBackend;
+import org.whispersystems.bithub.client.TransferFailedException;
+import org.whispersystems.bithub.config.BatchConfiguration;
+import org.whispersystems.bithub.entities.Commit;
+import org.whispersystems.bithub.storage.BalanceLedger;
+import org.whispersystems.bithub.storage.PushEventJournal;
+import org.whispersystems.bithub.util.ExchangeRate;
+import org.whispersystems.bithub.util.Satoshis;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import io.dropwizard.lifecycle.Managed;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Coalesces payouts from concurrently processed PushEvents into batches.
+ *
+ * Pending payouts are collected until the batch window closes or the
+ * batch is full.  Each batch reads the balance from the BalanceLedger
+ * and the exchange rate from the ExchangeRateService once, computes every payout in the
+ * batch against that single snapshot, and then sends them, up to
+ * sendConcurrency at a time.  Sent payouts are debited from the ledger.
+ * Each transfer is written to the PaymentOutbox before it is sent, and a
+ * transfer that fails is left there to be retried, with its amount
+ * reserved in the ledger.  Completed transfers
+ * are reported to the PaymentListener.
+ * A batch's sends all finish before the next batch reads the balance.
+ * Comments on the paid commits are handed off to the CommitCommentQueue,
+ * unless the submitter summarizes the results itself.
+ *
+ * The flusher thread is the only writer of balance-dependent state for
+ * the funding account, so concurrent pushes can never pay out against
+ * the same balance.  Producers hand payouts to it through a lock-free
+ * queue and wake it directly, so submitting never contends on a lock.
+ */
+public class PayoutBatcher implements Managed {
+
+  private final Logger logger = LoggerFactory.getLogger(PayoutBatcher.class);
+
+  private final Queue<PendingPayout> pending = new ConcurrentLinkedQueue<>();
+
+  private final PaymentBackend      paymentBackend;
+  private final ExchangeRateService exchangeRates;
+  private final BalanceLedger       balanceLedger;
+  private final CommitCommentQueue  commentQueue;
+  private final PaymentOutbox       outbox;
+  private final PaymentListener     listener;
+  private final PushEventJournal    journal;
+  private final long                payoutRatePpb;
+  private final long                windowMillis;
+  private final int                 maxSize;
+  private final ExecutorService     sendExecutor;
+
+  private final Histogram batchSizeHistogram;
+  private final Timer     flushTimer;
+
+  private volatile boolean running;
+  private volatile Thread  flusher;
+
+  public PayoutBatcher(PaymentBackend paymentBackend,
+                       ExchangeRateService exchangeRates,
+                       BalanceLedger balanceLedger,
+                       CommitCommentQueue commentQueue,
+                       PaymentOutbox outbox,
+                       PaymentListener listener,
+                       PushEventJournal journal,
+                       BigDecimal payoutRate,
+                       BatchConfiguration configuration,
+                       MetricRegistry metricRegistry)
+  {
+    this.paymentBackend = paymentBackend;
+    this.exchangeRates  = exchangeRates;
+    this.balanceLedger  = balanceLedger;
+    this.commentQueue   = commentQueue;
+    this.outbox         = outbox;
+    this.listener       = listener;
+    this.journal        = journal;
+    this.payoutRatePpb  = Satoshis.toPartsPerBillion(payoutRate);
+    this.windowMillis   = configuration.getWindow().toMilliseconds();
+    this.maxSize        = configuration.getMaxSize();
+    this.sendExecutor   = Executors.newFixedThreadPool(configuration.getSendConcurrency());
+
+    this.batchSizeHistogram = metricRegistry.histogram(name(PayoutBatcher.class, "batch_size"));
+    this.flushTimer         = metricRegistry.timer(name(PayoutBatcher.class, "flush"));
+  }
+
+  @Override
+  public void start() throws Exception {
+    running = true;
+    flusher = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        runFlusher();
+      }
+    }, "payout-batcher");
+
+    flusher.setDaemon(true);
+    flusher.start();
+  }
+
+  @Override
+  public void stop() throws Exception {
+    running = false;
+    LockSupport.unpark(flusher);
+    flusher.join();
+    sendExecutor.shutdown();
+  }
+
+  /**
+   * Queues a commit's payout for the next batch, and a comment on the
+   * commit with its result.
+   */
+  public ListenableFuture<PayoutResult> submit(PushEventJob job, Commit commit) {
+    return submit(job, commit, true);
+  }
+
+  /**
+   * Queues a commit's payout for the next batch.
+   *
+   * @param comment Whether to comment on the commit with the result.  A
+   *                transfer left to the PaymentOutbox is commented on
+   *                once it completes either way.
+   * @return A future for the commit's final payout.  It fails if the
+   *         balance could not be read or the outcome could not be journaled.
+   */
+  public ListenableFuture<PayoutResult> submit(PushEventJob job, Commit commit, boolean comment) {
+    PendingPayout payout = new PendingPayout(job, commit, comment);
+    pending.add(payout);
+    LockSupport.unpark(flusher);
+    return payout.future;
+  }
+
+  private void runFlusher() {
+    while ((running || !pending.isEmpty()) && !Thread.currentThread().isInterrupted()) {
+      List<PendingPayout> batch = collectBatch();
+
+      if (!batch.isEmpty()) {
+        flush(batch);
+      }
+    }
+
+    PendingPayout abandoned;
+
+    while ((abandoned = pending.poll()) != null) {
+      abandoned.fail();
+    }
+  }
+
+  private List<PendingPayout> collectBatch() {
+    List<PendingPayout> batch = new LinkedList<>();
+    PendingPayout       first = poll(100);
+
+    if (first == null) {
+      return batch;
+    }
+
+    batch.add(first);
+
+    long deadline = System.currentTimeMillis() + windowMillis;
+
+    while (batch.size() < maxSize) {
+      PendingPayout next = poll(deadline - System.currentTimeMillis());
+
+      if (next == null) break;
+      else              batch.add(next);
+    }
+
+    return batch;
+  }
+
+  private PendingPayout poll(long timeoutMillis) {
+    long          deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    PendingPayout next;
+
+    while ((next = pending.poll()) == null) {
+      long remaining = deadline - System.nanoTime();
+
+      if (remaining <= 0 || !running) {
+        return null;
+      }
+
+      LockSupport.parkNanos(this, remaining);
+    }
+
+    return next;
+  }
+
+  private void flush(List<PendingPayout> batch) {
+    Timer.Context timer = flushTimer.time();
+
+    try {
+      batchSizeHistogram.update(batch.size());
+
+      Satoshis     balance      = balanceLedger.getBalance();
+      ExchangeRate exchangeRate = ExchangeRate.fromUsdPerBtc(exchangeRates.getExchangeRate());
+      List<Send>   sends        = new LinkedList<>();
+
+      logger.info("Retrieved balance: " + balance + " for " + batch.size() + " payouts");
+
+      for (PendingPayout payout : batch) {
+        Satoshis amount = balance.multiply(payoutRatePpb, RoundingMode.DOWN);
+        balance = balance.minus(amount);
+
+        if (amount.isPositive()) {
+          sends.add(new Send(payout, amount, exchangeRate));
+        } else {
+          skip(payout, amount, exchangeRate);
+        }
+      }
+
+      sendExecutor.invokeAll(sends);
+    } catch (IOException | CoinbaseException | RuntimeException e) {
+      logger.warn("Payout batch failed", e);
+
+      for (PendingPayout payout : batch) {
+        payout.future.setException(e);
+      }
+    } catch (InterruptedException e) {
+      logger.warn("Interrupted while sending payouts", e);
+      Thread.currentThread().interrupt();
+    } finally {
+      for (PendingPayout payout : batch) {
+        if (!payout.future.isDone()) payout.fail();
+      }
+
+      timer.stop();
+    }
+  }
+
+  private void skip(PendingPayout payout, Satoshis amount, ExchangeRate exchangeRate) {
+    try {
+      journal.recordPayout(payout.job, payout.commit.getSha(), PayoutState.SKIPPED);
+
+      if (payout.comment) {
+        commentQueue.enqueue(payout.job.getEvent().getRepository(), payout.commit,
+                             getCommitCommentStringForPayment(amount, exchangeRate));
+      }
+
+      payout.complete(PayoutState.SKIPPED, amount, exchangeRate);
+    } catch (IOException | RuntimeException e) {
+      payout.future.setException(e);
+    }
+  }
+
+  private String getCommitCommentStringForPayment(Satoshis payment, ExchangeRate exchangeRate) {
+    if (payment.isPositive()) {
+      String paymentUsd = exchangeRate.toUsdString(payment, RoundingMode.CEILING);
+      return "Thanks! BitHub has sent payment of  $" + paymentUsd + "USD for this commit.";
+    } else {
+      return "Thanks! Unfortunately our BitHub balance is $0.00, so no payout can be made.";
+    }
+  }
+
+  private static class PendingPayout {
+    private final PushEventJob                 job;
+    private final Commit                       commit;
+    private final boolean                      comment;
+    private final SettableFuture<PayoutResult> future;
+
+    private PendingPayout(PushEventJob job, Commit commit, boolean comment) {
+      this.job     = job;
+      this.commit  = commit;
+      this.comment = comment;
+      this.future  = SettableFuture.create();
+    }
+
+    private void complete(PayoutState state, Satoshis amount, ExchangeRate exchangeRate) {
+      future.set(new PayoutResult(commit, state, exchangeRate.toUsdString(amount, RoundingMode.CEILING)));
+    }
+
+    /**
+     * Settles a payout whose send never reported back.  A transfer it may
+     * have started is still journaled as SENDING and left to the outbox.
+     */
+    private void fail() {
+      future.set(new PayoutResult(commit, PayoutState.FAILED, "0.00"));
+    }
+  }
+
+  private class Send implements Callable<Void> {
+    private final PendingPayout payout;
+    private final Satoshis      amount;
+    private final ExchangeRate  exchangeRate;
+
+    private Send(PendingPayout payout, Satoshis amount, ExchangeRate exchangeRate) {
+      this.payout       = payout;
+      this.amount       = amount;
+      this.exchangeRate = exchangeRate;
+    }
+
+    @Override
+    public Void call() {
+      PushEventJob job    = payout.job;
+      Commit       commit = payout.commit;
+
+      try {
+        PendingTransfer transfer = new PendingTransfer(job.getId(), job.getEvent().getRepository(), commit,
+                                                       amount.toBtc(),
+                                                       getCommitCommentStringForPayment(amount, exchangeRate));
+
+        outbox.add(transfer);
+        journal.recordPayout(job, commit.getSha(), PayoutState.SENDING);
+
+        try {
+          paymentBackend.sendPayment(commit.getAuthor(), amount.toBtc(), commit.getUrl(), transfer.getKey());
+        } catch (TransferFailedException e) {
+          logger.warn("Transfer failed, leaving it to the outbox", e);
+          balanceLedger.markStale();
+          balanceLedger.reserve(amount);
+          outbox.retryLater(transfer);
+          journal.recordPayout(job, commit.getSha(), PayoutState.RETRYING);
+          payout.complete(PayoutState.RETRYING, amount, exchangeRate);
+          return null;
+        }
+
+        balanceLedger.debit(amount);
+        outbox.remove(transfer);
+        listener.paymentSent(transfer);
+        journal.recordPayout(job, commit.getSha(), PayoutState.SENT);
+
+        if (payout.comment) {
+          commentQueue.enqueue(transfer.getRepository(), commit, transfer.getComment());
+        }
+
+        payout.complete(PayoutState.SENT, amount, exchangeRate);
+      } catch (IOException | RuntimeException e) {
+        payout.future.setException(e);
+      }
+
+      return null;
+    }
+  }
+}
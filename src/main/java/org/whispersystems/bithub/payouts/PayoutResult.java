@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.payouts;
+
+import org.whispersystems.bithub.entities.Commit;
+
+/**
+ * The outcome of a single commit's payout, as handed back by the
+ * PayoutBatcher.
+ */
+public class PayoutResult {
+
+  private final Commit      commit;
+  private final PayoutState state;
+  private final String      paymentUsd;
+
+  public PayoutResult(Commit commit, PayoutState state, String paymentUsd) {
+    this.commit     = commit;
+    this.state      = state;
+    this.paymentUsd = paymentUsd;
+  }
+
+  public Commit getCommit() {
+    return commit;
+  }
+
+  public PayoutState getState() {
+    return state;
+  }
+
+  /**
+   * @return The payout in USD, formatted for display.
+   */
+  public String getPaymentUsd() {
+    return paymentUsd;
+  }
+}
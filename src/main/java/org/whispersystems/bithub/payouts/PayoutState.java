@@ -0,0 +1,40 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.payouts;
+
+/**
+ * The journaled state of a single commit's payout.
+ */
+public enum PayoutState {
+
+  /** A transfer is about to be sent.  If no outcome follows, it may or may not have been made. */
+  SENDING,
+
+  /** The transfer completed. */
+  SENT,
+
+  /** The transfer was attempted and failed. */
+  FAILED,
+
+  /** The transfer failed and was left in the PaymentOutbox to be retried. */
+  RETRYING,
+
+  /** No transfer was made, because the payout amount was zero. */
+  SKIPPED
+
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.payouts;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.whispersystems.bithub.entities.Commit;
+import org.whispersystems.bithub.entities.Repository;
+
+import java.math.BigDecimal;
+
+/**
+ * A payout held in the PaymentOutbox until its transfer is known to have
+ * completed.  The key is sent with every attempt, so the payment backend
+ * can recognize a retry of a transfer it already made.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class PendingTransfer {
+
+  @JsonProperty
+  private String key;
+
+  @JsonProperty
+  private String jobId;
+
+  @JsonProperty
+  private Repository repository;
+
+  @JsonProperty
+  private Commit commit;
+
+  @JsonProperty
+  private BigDecimal amount;
+
+  @JsonProperty
+  private String comment;
+
+  @JsonProperty
+  private long created;
+
+  @JsonProperty
+  private int attempts;
+
+  @JsonProperty
+  private long nextAttempt;
+
+  public PendingTransfer() {}
+
+  public PendingTransfer(String jobId, Repository repository, Commit commit, BigDecimal amount,
+                         String comment)
+  {
+    this.key        = commit.getSha();
+    this.jobId      = jobId;
+    this.repository = repository;
+    this.commit     = commit;
+    this.amount     = amount;
+    this.comment    = comment;
+    this.created    = System.currentTimeMillis();
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * @return The ID of the PushEventJob that made the transfer.
+   */
+  public String getJobId() {
+    return jobId;
+  }
+
+  public Repository getRepository() {
+    return repository;
+  }
+
+  public Commit getCommit() {
+    return commit;
+  }
+
+  public BigDecimal getAmount() {
+    return amount;
+  }
+
+  /**
+   * @return The comment to post on the commit once the transfer completes.
+   */
+  public String getComment() {
+    return comment;
+  }
+
+  public long getCreated() {
+    return created;
+  }
+
+  public int getAttempts() {
+    return attempts;
+  }
+
+  public long getNextAttempt() {
+    return nextAttempt;
+  }
+
+  void recordAttempt(long nextAttempt) {
+    this.attempts++;
+    this.nextAttempt = nextAttempt;
+  }
+}
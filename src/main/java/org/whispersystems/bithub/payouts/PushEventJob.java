@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.payouts;
+
+import org.whispersystems.bithub.entities.PushEvent;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An accepted PushEvent waiting to be run through the payout pipeline,
+ * along with the payout mode of the repository it was pushed to.
+ *
+ * A job carries the journaled payout state of every commit it has
+ * handled, including those handled before a restart when it is resumed
+ * from the journal.
+ */
+public class PushEventJob {
+
+  private final String                   id;
+  private final PushEvent                event;
+  private final String                   defaultMode;
+  private final long                     timestamp;
+  private final Map<String, PayoutState> payoutStates;
+
+  public PushEventJob(PushEvent event, String defaultMode) {
+    this(UUID.randomUUID().toString(), event, defaultMode, System.currentTimeMillis(),
+         new HashMap<String, PayoutState>());
+  }
+
+  public PushEventJob(String id, PushEvent event, String defaultMode, long timestamp,
+                      Map<String, PayoutState> payoutStates)
+  {
+    this.id           = id;
+    this.event        = event;
+    this.defaultMode  = defaultMode;
+    this.timestamp    = timestamp;
+    this.payoutStates = new ConcurrentHashMap<>(payoutStates);
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public PushEvent getEvent() {
+    return event;
+  }
+
+  public String getDefaultMode() {
+    return defaultMode;
+  }
+
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  public PayoutState getPayoutState(String commitSha) {
+    return payoutStates.get(commitSha);
+  }
+
+  /**
+   * Records a commit's payout state once it has been journaled.
+   */
+  public void setPayoutState(String commitSha, PayoutState state) {
+    payoutStates.put(commitSha, state);
+  }
+}
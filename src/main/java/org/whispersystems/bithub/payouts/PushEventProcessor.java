@@ -0,0 +1,220 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.payouts;
+
+import com.coinbase.api.exception.CoinbaseException;
+import com.google.common.base.Predicate;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.bithub.config.CommentConfiguration;
+import org.whispersystems.bithub.entities.Commit;
+import org.whispersystems.bithub.storage.CommitDescriptionCache;
+import org.whispersystems.bithub.storage.DuplicateFilter;
+import org.whispersystems.bithub.storage.PushEventJournal;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Runs an accepted PushEvent through qualification and payout:
+ * selects the commits that are eligible for payment and hands them
+ * to the PayoutBatcher, which pays their authors and comments on
+ * each commit with the result.  The messages of paid commits are
+ * recorded in the CommitDescriptionCache, so that the transaction
+ * history doesn't have to fetch them from GitHub.
+ *
+ * When comments are summarized, the per-commit comments are replaced
+ * by a single comment on the push's head commit listing every payout,
+ * which costs one GitHub write per push instead of one per author.
+ *
+ * The cached messages double as the exact record of commits that were
+ * submitted for payout, which a probable match in the commit filter is
+ * checked against before a commit is skipped as already seen.
+ */
+public class PushEventProcessor {
+
+  private final Logger logger = LoggerFactory.getLogger(PushEventProcessor.class);
+
+  private final PayoutBatcher          payoutBatcher;
+  private final CommitCommentQueue     commentQueue;
+  private final PushEventJournal       journal;
+  private final DuplicateFilter        commitFilter;
+  private final CommitDescriptionCache descriptions;
+  private final boolean                summarize;
+  private final Predicate<String>      submitted;
+
+  public PushEventProcessor(PayoutBatcher payoutBatcher,
+                            CommitCommentQueue commentQueue,
+                            PushEventJournal journal,
+                            DuplicateFilter commitFilter,
+                            final CommitDescriptionCache descriptions,
+                            CommentConfiguration commentConfiguration)
+  {
+    this.payoutBatcher = payoutBatcher;
+    this.commentQueue  = commentQueue;
+    this.journal       = journal;
+    this.commitFilter  = commitFilter;
+    this.descriptions  = descriptions;
+    this.summarize     = commentConfiguration.isSummarize();
+    this.submitted     = new Predicate<String>() {
+      @Override
+      public boolean apply(String sha) {
+        return descriptions.contains(sha);
+      }
+    };
+  }
+
+  public void process(PushEventJob job) throws IOException, CoinbaseException {
+    List<Commit> commits   = getQualifyingCommits(job, job.getDefaultMode());
+    boolean      completed = false;
+
+    try {
+      process(job, commits);
+      completed = true;
+    } finally {
+      if (!completed) releaseUnpaid(job, commits);
+    }
+  }
+
+  private void process(PushEventJob job, List<Commit> commits) throws IOException, CoinbaseException {
+    List<ListenableFuture<PayoutResult>> payouts = new LinkedList<>();
+    List<PayoutResult>                   results = new LinkedList<>();
+
+    for (Commit commit : commits) {
+      PayoutState previous = job.getPayoutState(commit.getSha());
+
+      if (previous != null) {
+        if (previous == PayoutState.SENDING) logger.warn("Payout was interrupted, leaving it to the outbox: " + commit.getUrl());
+        else                                 logger.info("Payout already " + previous + ": " + commit.getUrl());
+        continue;
+      }
+
+      descriptions.put(commit.getSha(), commit.getMessage());
+      payouts.add(payoutBatcher.submit(job, commit, !summarize));
+    }
+
+    for (ListenableFuture<PayoutResult> payout : payouts) {
+      results.add(awaitPayout(payout));
+    }
+
+    if (summarize && !results.isEmpty()) {
+      commentQueue.enqueue(job.getEvent().getRepository(), getHeadCommit(job, results),
+                           getSummaryComment(results));
+    }
+
+    journal.complete(job);
+  }
+
+  /**
+   * Forgets the commits of a failed job that never reached the journal,
+   * so that a redelivery of the push can pay them.  Commits with a
+   * journaled payout state stay marked, since they may have been paid.
+   */
+  private void releaseUnpaid(PushEventJob job, List<Commit> commits) {
+    for (Commit commit : commits) {
+      if (job.getPayoutState(commit.getSha()) == null) {
+        commitFilter.remove(commit.getSha());
+      }
+    }
+  }
+
+  private Commit getHeadCommit(PushEventJob job, List<PayoutResult> results) {
+    String head = job.getEvent().getHead();
+
+    if (head == null) {
+      return results.get(results.size() - 1).getCommit();
+    }
+
+    return new Commit(head, null, null, null);
+  }
+
+  private String getSummaryComment(List<PayoutResult> results) {
+    StringBuilder comment = new StringBuilder("Thanks! BitHub payouts for this push:\n");
+
+    for (PayoutResult result : results) {
+      Commit commit = result.getCommit();
+      String author = commit.getAuthor().getUsername() != null ? "@" + commit.getAuthor().getUsername()
+                                                               : commit.getAuthor().getName();
+
+      comment.append("\n* ").append(commit.getSha()).append(" by ").append(author).append(": ");
+
+      switch (result.getState()) {
+        case SENT:     comment.append("sent $").append(result.getPaymentUsd()).append("USD");  break;
+        case RETRYING: comment.append("$").append(result.getPaymentUsd()).append("USD pending"); break;
+        case SKIPPED:  comment.append("no payout, our BitHub balance is $0.00");                 break;
+        default:       comment.append("payout failed");                                         break;
+      }
+    }
+
+    return comment.toString();
+  }
+
+  private PayoutResult awaitPayout(ListenableFuture<PayoutResult> payout) throws IOException, CoinbaseException {
+    try {
+      return payout.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+
+      if      (cause instanceof IOException)       throw (IOException)cause;
+      else if (cause instanceof CoinbaseException) throw (CoinbaseException)cause;
+      else if (cause instanceof RuntimeException)  throw (RuntimeException)cause;
+      else                                         throw new IOException(cause);
+    }
+  }
+
+  private List<Commit> getQualifyingCommits(PushEventJob job, String defaultMode) {
+    List<Commit> commits = new LinkedList<>();
+    Set<String>  emails  = new HashSet<>();
+
+    for (Commit commit : job.getEvent().getCommits()) {
+      logger.info(commit.getUrl());
+      if (!emails.contains(commit.getAuthor().getEmail())) {
+        logger.info("Unique author: "+ commit.getAuthor().getEmail());
+        if (isViableMessage(commit.getMessage(), defaultMode)) {
+          logger.info("Not a merge commit or freebie...");
+
+          if (job.getPayoutState(commit.getSha()) == null && !commitFilter.add(commit.getSha(), submitted)) {
+            logger.info("Commit already seen: " + commit.getUrl());
+            continue;
+          }
+
+          emails.add(commit.getAuthor().getEmail());
+          commits.add(commit);
+        }
+      }
+    }
+
+    return commits;
+  }
+
+  private boolean isViableMessage(String message, String defaultMode) {
+    if (message == null || message.startsWith("Merge"))
+      return false;
+
+    return (!message.contains("FREEBIE") && defaultMode.equals("MONEYMONEY")) ||
+           (message.contains("MONEYMONEY") && defaultMode.equals("FREEBIE"));
+  }
+}
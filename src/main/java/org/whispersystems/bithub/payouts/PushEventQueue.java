@@ -0,0 +1,231 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.payouts;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.coinbase.api.exception.CoinbaseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.bithub.config.IntakeConfiguration;
+import org.whispersystems.bithub.storage.PushEventJournal;
+import org.whispersystems.bithub.util.Backoff;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import io.dropwizard.lifecycle.Managed;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * A bounded in-process queue of accepted PushEvents, drained by a
+ * dedicated worker pool that runs the payout pipeline.  This keeps
+ * Coinbase and GitHub round trips off the webhook request thread.
+ *
+ * Every job is journaled before it is acknowledged, and unfinished
+ * jobs recovered from the journal are resumed on startup, through the
+ * same bounded queue as new jobs.  A job that fails is run again after
+ * a capped, jittered exponential backoff, up to a bounded number of
+ * attempts; one that exhausts its attempts stays unfinished in the
+ * journal until the next startup, and is counted as stuck until then.
+ */
+public class PushEventQueue implements Managed {
+
+  private final Logger logger = LoggerFactory.getLogger(PushEventQueue.class);
+
+  private final PushEventProcessor       processor;
+  private final PushEventJournal         journal;
+  private final BlockingQueue<Runnable>  queue;
+  private final ThreadPoolExecutor       executor;
+  private final ScheduledExecutorService retryExecutor;
+  private final boolean                  asynchronous;
+  private final int                      maxAttempts;
+  private final Backoff                  retryBackoff;
+
+  private final Timer   lagTimer;
+  private final Timer   processingTimer;
+  private final Meter   rejectedMeter;
+  private final Meter   failedMeter;
+  private final Meter   retriedMeter;
+  private final Counter stuckCounter;
+
+  public PushEventQueue(PushEventProcessor processor,
+                        PushEventJournal journal,
+                        IntakeConfiguration configuration,
+                        MetricRegistry metricRegistry)
+  {
+    this.processor     = processor;
+    this.journal       = journal;
+    this.asynchronous  = configuration.isAsynchronous();
+    this.queue         = new ArrayBlockingQueue<>(configuration.getQueueSize());
+    this.executor      = new ThreadPoolExecutor(configuration.getWorkers(), configuration.getWorkers(),
+                                                0, TimeUnit.MILLISECONDS, queue);
+    this.retryExecutor = Executors.newSingleThreadScheduledExecutor();
+    this.maxAttempts   = configuration.getMaxAttempts();
+    this.retryBackoff  = new Backoff(configuration.getRetryDelay().toMilliseconds(),
+                                     configuration.getMaxRetryDelay().toMilliseconds());
+
+    this.lagTimer        = metricRegistry.timer(name(PushEventQueue.class, "lag"));
+    this.processingTimer = metricRegistry.timer(name(PushEventQueue.class, "processing"));
+    this.rejectedMeter   = metricRegistry.meter(name(PushEventQueue.class, "rejected"));
+    this.failedMeter     = metricRegistry.meter(name(PushEventQueue.class, "failed"));
+    this.retriedMeter    = metricRegistry.meter(name(PushEventQueue.class, "retried"));
+    this.stuckCounter    = metricRegistry.counter(name(PushEventQueue.class, "stuck"));
+
+    metricRegistry.register(name(PushEventQueue.class, "depth"), new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        return queue.size();
+      }
+    });
+  }
+
+  @Override
+  public void start() throws Exception {
+    if (asynchronous) {
+      executor.prestartAllCoreThreads();
+    }
+
+    for (PushEventJob job : journal.getRecoveredJobs()) {
+      logger.info("Resuming push event " + job.getId() + " from journal");
+
+      if (asynchronous) resume(job);
+      else              createTask(job, 1).run();
+    }
+  }
+
+  @Override
+  public void stop() throws Exception {
+    retryExecutor.shutdownNow();
+    executor.shutdown();
+
+    if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+      logger.warn("Push event queue did not drain, " + queue.size() + " events dropped");
+      executor.shutdownNow();
+    }
+  }
+
+  public boolean isAsynchronous() {
+    return asynchronous;
+  }
+
+  /**
+   * Runs a job on the calling thread, for synchronous intake.
+   */
+  public void process(PushEventJob job) throws IOException, CoinbaseException {
+    journal.accept(job);
+    processJob(job);
+  }
+
+  /**
+   * Journals a job and enqueues it for a worker to process.
+   *
+   * @return false if the queue is full and the job was not accepted.
+   */
+  public boolean offer(PushEventJob job) throws IOException {
+    journal.accept(job);
+
+    try {
+      executor.execute(createTask(job, 1));
+      return true;
+    } catch (RejectedExecutionException e) {
+      rejectedMeter.mark();
+      journal.complete(job);
+      return false;
+    }
+  }
+
+  /**
+   * Enqueues a recovered job.  There is no webhook to be redelivered,
+   * so a job that doesn't fit stays in the journal for the next startup.
+   */
+  private void resume(PushEventJob job) {
+    try {
+      executor.execute(createTask(job, 1));
+    } catch (RejectedExecutionException e) {
+      logger.warn("Push event queue is full, leaving " + job.getId() + " to be resumed on startup");
+      rejectedMeter.mark();
+      stuckCounter.inc();
+    }
+  }
+
+  private void processJob(PushEventJob job) throws IOException, CoinbaseException {
+    Timer.Context timer = processingTimer.time();
+
+    try {
+      processor.process(job);
+    } finally {
+      timer.stop();
+    }
+  }
+
+  private Runnable createTask(final PushEventJob job, final int attempt) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        if (attempt == 1) {
+          lagTimer.update(System.currentTimeMillis() - job.getTimestamp(), TimeUnit.MILLISECONDS);
+        }
+
+        try {
+          processJob(job);
+        } catch (IOException | CoinbaseException | RuntimeException e) {
+          logger.warn("Failed to process push event " + job.getId() + " (attempt " + attempt + ")", e);
+          failedMeter.mark();
+          retry(job, attempt);
+        }
+      }
+    };
+  }
+
+  private void retry(final PushEventJob job, final int attempt) {
+    if (attempt >= maxAttempts || !asynchronous) {
+      logger.warn("Giving up on push event " + job.getId() + ", leaving it to be resumed on startup");
+      stuckCounter.inc();
+      return;
+    }
+
+    try {
+      retryExecutor.schedule(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            executor.execute(createTask(job, attempt + 1));
+            retriedMeter.mark();
+          } catch (RejectedExecutionException e) {
+            logger.warn("Push event queue is full, leaving " + job.getId() + " to be resumed on startup");
+            stuckCounter.inc();
+          }
+        }
+      }, retryBackoff.getDelay(attempt), TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      logger.warn("Push event queue is stopping, leaving " + job.getId() + " to be resumed on startup");
+      stuckCounter.inc();
+    }
+  }
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.storage;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.coinbase.api.exception.CoinbaseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.bithub.client.PaymentBackend;
+import org.whispersystems.bithub.config.LedgerConfiguration;
+import org.whispersystems.bithub.util.AdvancedAtomicLong;
+import org.whispersystems.bithub.util.Satoshis;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.dropwizard.lifecycle.Managed;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * A local record of the Coinbase account balance, held in satoshis.
+ *
+ * Payouts are computed against the ledger and debited from it as they
+ * are sent, rather than reading the balance from Coinbase each time.
+ * The ledger is reconciled against Coinbase on a fixed interval, and
+ * on the next read after it has been marked stale.
+ *
+ * Transfers waiting in the PaymentOutbox are reserved: they are held
+ * out of the balance, including the balance reconciled from Coinbase,
+ * until they are either settled or released.
+ */
+public class BalanceLedger implements Managed {
+
+  private final Logger                   logger   = LoggerFactory.getLogger(BalanceLedger.class);
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+  private final AdvancedAtomicLong satoshis = new AdvancedAtomicLong(0);
+  private final AtomicLong         debited  = new AtomicLong(0);
+  private final AtomicLong         reserved = new AtomicLong(0);
+
+  private final PaymentBackend paymentBackend;
+  private final long           reconcileIntervalMillis;
+  private final Histogram      driftHistogram;
+
+  private volatile boolean loaded = false;
+  private volatile boolean stale  = true;
+
+  public BalanceLedger(PaymentBackend paymentBackend,
+                       LedgerConfiguration configuration,
+                       MetricRegistry metricRegistry)
+  {
+    this.paymentBackend          = paymentBackend;
+    this.reconcileIntervalMillis = configuration.getReconcileInterval().toMilliseconds();
+    this.driftHistogram          = metricRegistry.histogram(name(BalanceLedger.class, "drift"));
+
+    metricRegistry.register(name(BalanceLedger.class, "satoshis"), new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return loaded ? satoshis.get() : null;
+      }
+    });
+  }
+
+  @Override
+  public void start() throws Exception {
+    executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          reconcile();
+        } catch (IOException | CoinbaseException | RuntimeException e) {
+          logger.warn("Balance reconciliation failed", e);
+        }
+      }
+    }, reconcileIntervalMillis, reconcileIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void stop() throws Exception {
+    executor.shutdownNow();
+  }
+
+  /**
+   * @return The current balance, reconciling with Coinbase first
+   *         if the ledger has not been loaded or is stale.
+   */
+  public Satoshis getBalance() throws IOException, CoinbaseException {
+    if (stale || !loaded) {
+      reconcile();
+    }
+
+    return Satoshis.valueOf(satoshis.get());
+  }
+
+  /**
+   * @return The ledger's balance as it stands, without reconciling, or
+   *         null if it has not been loaded yet.
+   */
+  public Satoshis getLocalBalance() {
+    return loaded ? Satoshis.valueOf(satoshis.get()) : null;
+  }
+
+  /**
+   * Records a sent payout against the ledger.
+   */
+  public void debit(Satoshis amount) {
+    long debit = amount.longValue();
+
+    debited.addAndGet(debit);
+    satoshis.addAndGet(-debit);
+  }
+
+  /**
+   * Holds back the amount of a transfer left to be retried, so that it
+   * isn't paid out again while the transfer is outstanding.
+   */
+  public void reserve(Satoshis amount) {
+    reserved.addAndGet(amount.longValue());
+    satoshis.addAndGet(-amount.longValue());
+  }
+
+  /**
+   * Records a reserved transfer that has since been sent.
+   */
+  public void settle(Satoshis amount) {
+    debited.addAndGet(amount.longValue());
+    reserved.addAndGet(-amount.longValue());
+  }
+
+  /**
+   * Returns the amount of a reserved transfer that was given up on.
+   */
+  public void release(Satoshis amount) {
+    reserved.addAndGet(-amount.longValue());
+    satoshis.addAndGet(amount.longValue());
+  }
+
+  /**
+   * Marks the ledger as possibly out of step with Coinbase, such as after
+   * a failed transfer, so that the next read reconciles it.
+   */
+  public void markStale() {
+    stale = true;
+  }
+
+  /**
+   * Replaces the ledger balance with the balance Coinbase reports, less
+   * any reservations.  Debits made while the balance was being fetched
+   * may not be reflected in it yet, so they are applied again.  Until the
+   * first reconcile the ledger only tracks those changes, and its
+   * balance is not reported.
+   */
+  public synchronized void reconcile() throws IOException, CoinbaseException {
+    long debitedBefore = debited.get();
+
+    stale = false;
+
+    BigDecimal remote;
+
+    try {
+      remote = paymentBackend.getAccountBalance();
+    } catch (IOException | CoinbaseException | RuntimeException e) {
+      stale = true;
+      throw e;
+    }
+
+    long remoteBalance = Satoshis.fromBtc(remote, RoundingMode.DOWN).longValue();
+
+    while (true) {
+      long local      = satoshis.get();
+      long reconciled = remoteBalance - reserved.get() - (debited.get() - debitedBefore);
+
+      if (satoshis.compareAndSet(local, reconciled)) {
+        if (loaded) {
+          driftHistogram.update(Math.abs(reconciled - local));
+
+          if (reconciled != local) {
+            logger.info("Reconciled balance ledger, drift of " + (reconciled - local) + " satoshis");
+          }
+        }
+
+        loaded = true;
+        return;
+      }
+    }
+  }
+}
@@ -1,72 +1,158 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
 package org.whispersystems.bithub.storage;
 
+import com.codahale.metrics.MetricRegistry;
 import com.coinbase.api.exception.CoinbaseException;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.whispersystems.bithub.client.CoinbaseClient;
+import org.whispersystems.bithub.client.ExchangeRateService;
 import org.whispersystems.bithub.client.GithubClient;
+import org.whispersystems.bithub.config.CacheConfiguration;
 import org.whispersystems.bithub.config.RepositoryConfiguration;
+import org.whispersystems.bithub.entities.Author;
+import org.whispersystems.bithub.entities.Commit;
 import org.whispersystems.bithub.entities.Payment;
 import org.whispersystems.bithub.entities.Repository;
 import org.whispersystems.bithub.entities.Transaction;
+import org.whispersystems.bithub.payouts.PaymentListener;
+import org.whispersystems.bithub.payouts.PendingTransfer;
 import org.whispersystems.bithub.util.Badge;
+import org.whispersystems.bithub.util.ExchangeRate;
+import org.whispersystems.bithub.util.Satoshis;
 
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.text.ParseException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
 
 import io.dropwizard.lifecycle.Managed;
 
-public class CacheManager implements Managed {
+/**
+ * Keeps the dashboard's payment status, recent transactions and
+ * repositories cached.  Each is refreshed by its own ScheduledRefresh,
+ * so a failing or slow source only leaves its own data stale.
+ *
+ * Payments that BitHub sends itself are written through as they
+ * complete, on a thread of their own rather than the sender's or the
+ * refreshes': the payment status is recomputed from the debited ledger
+ * as it stands locally, and the payment is held until a transactions
+ * refresh returns it.  Held
+ * payments are merged into the recent transactions by commit SHA when
+ * they are read, so a refresh that began before a payment can't drop it.
+ */
+public class CacheManager implements Managed, PaymentListener {
 
-  private static final int UPDATE_FREQUENCY_MILLIS = 60 * 1000;
+  private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormat.forPattern("yyyy-MM-dd'T'HH:mm:ssZ");
 
   private final Logger                   logger   = LoggerFactory.getLogger(CacheManager.class);
-  private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(2);
+  private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(3);
+  private final ExecutorService          writer   = Executors.newSingleThreadExecutor();
 
-  private final CoinbaseClient                coinbaseClient;
+  private final ExchangeRateService           exchangeRates;
+  private final BalanceLedger                 balanceLedger;
+  private final TransactionHistory            transactionHistory;
   private final GithubClient                  githubClient;
-  private final BigDecimal                    payoutRate;
+  private final long                          payoutRatePpb;
   private final List<RepositoryConfiguration> repositories;
 
-  private AtomicReference<CurrentPayment>    cachedPaymentStatus;
-  private AtomicReference<List<Transaction>> cachedTransactions;
-  private AtomicReference<List<Repository>>  cachedRepositories;
+  private final ScheduledRefresh<CurrentPayment>    cachedPaymentStatus;
+  private final ScheduledRefresh<List<Transaction>> cachedTransactions;
+  private final ScheduledRefresh<List<Repository>>  cachedRepositories;
+
+  private final Map<String, Transaction> sentTransactions = new LinkedHashMap<>();
 
-  public CacheManager(CoinbaseClient coinbaseClient,
+  public CacheManager(ExchangeRateService exchangeRates,
+                      BalanceLedger balanceLedger,
+                      TransactionHistory transactionHistory,
                       GithubClient githubClient,
                       List<RepositoryConfiguration> repositories,
-                      BigDecimal payoutRate)
+                      BigDecimal payoutRate,
+                      CacheConfiguration configuration,
+                      MetricRegistry metricRegistry)
   {
-    this.coinbaseClient = coinbaseClient;
-    this.githubClient   = githubClient;
-    this.payoutRate     = payoutRate;
-    this.repositories   = repositories;
+    this.exchangeRates      = exchangeRates;
+    this.balanceLedger      = balanceLedger;
+    this.transactionHistory = transactionHistory;
+    this.githubClient       = githubClient;
+    this.payoutRatePpb      = Satoshis.toPartsPerBillion(payoutRate);
+    this.repositories       = repositories;
+
+    this.cachedPaymentStatus = new ScheduledRefresh<>("payment", new Callable<CurrentPayment>() {
+      @Override
+      public CurrentPayment call() throws IOException, CoinbaseException {
+        return createCurrentPaymentForBalance();
+      }
+    }, configuration.getPaymentConfiguration(), executor, metricRegistry);
+
+    this.cachedTransactions = new ScheduledRefresh<>("transactions", new Callable<List<Transaction>>() {
+      @Override
+      public List<Transaction> call() throws IOException, CoinbaseException {
+        return createRecentTransactions();
+      }
+    }, configuration.getTransactionsConfiguration(), executor, metricRegistry);
+
+    this.cachedRepositories = new ScheduledRefresh<>("repositories", new Callable<List<Repository>>() {
+      @Override
+      public List<Repository> call() {
+        return createRepositories();
+      }
+    }, configuration.getRepositoriesConfiguration(), executor, metricRegistry);
   }
 
   @Override
   public void start() throws Exception {
-    this.cachedPaymentStatus = new AtomicReference<>(createCurrentPaymentForBalance(coinbaseClient));
-    this.cachedTransactions  = new AtomicReference<>(createRecentTransactions(coinbaseClient));
-    this.cachedRepositories  = new AtomicReference<>(createRepositories(githubClient, repositories));
-
-    initializeUpdates(coinbaseClient, githubClient, repositories);
+    cachedPaymentStatus.start();
+    cachedTransactions.start();
+    cachedRepositories.start();
   }
 
   @Override
   public void stop() throws Exception {
-    this.executor.shutdownNow();
+    executor.shutdownNow();
+    writer.shutdownNow();
+    cachedPaymentStatus.stop();
+    cachedTransactions.stop();
+    cachedRepositories.stop();
   }
 
   public List<Transaction> getRecentTransactions() {
-    return cachedTransactions.get();
+    List<Transaction> transactions = cachedTransactions.get();
+
+    if (transactions == null) {
+      return null;
+    }
+
+    return mergeSentTransactions(transactions);
   }
 
   public CurrentPayment getCurrentPaymentAmount() {
@@ -77,91 +163,153 @@ public class CacheManager implements Managed {
     return cachedRepositories.get();
   }
 
-  public void initializeUpdates(final CoinbaseClient coinbaseClient,
-                                final GithubClient githubClient,
-                                final List<RepositoryConfiguration> repoConfigs)
-  {
-    executor.scheduleAtFixedRate(new Runnable() {
-      @Override
-      public void run() {
-        logger.warn("Running cache update...");
-        try {
-          CurrentPayment    currentPayment = createCurrentPaymentForBalance(coinbaseClient);
-          List<Transaction> transactions   = createRecentTransactions      (coinbaseClient);
-          List<Repository>  repositories   = createRepositories(githubClient, repoConfigs);
-
-          cachedPaymentStatus.set(currentPayment);
-          cachedTransactions.set(transactions);
-          cachedRepositories.set(repositories);
-
-        } catch (IOException | CoinbaseException e) {
-          logger.warn("Failed to update badge", e);
+  @Override
+  public void paymentSent(final PendingTransfer transfer) {
+    try {
+      writer.execute(new Runnable() {
+        @Override
+        public void run() {
+          writeThrough(transfer);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      logger.warn("Cache manager is stopped, not updating caches for payment " + transfer.getKey());
+    }
+  }
+
+  private void writeThrough(PendingTransfer transfer) {
+    try {
+      ExchangeRate exchangeRate = ExchangeRate.fromUsdPerBtc(exchangeRates.getExchangeRate());
+      Commit       commit       = transfer.getCommit();
+      String       sha          = commit.getSha().substring(0, Math.min(8, commit.getSha().length()));
+      Satoshis     paid         = Satoshis.fromBtc(transfer.getAmount(), RoundingMode.UP);
+
+      Transaction transaction = new Transaction(getDestination(commit.getAuthor()),
+                                                exchangeRate.toUsdString(paid, RoundingMode.CEILING),
+                                                commit.getUrl(), sha, TIMESTAMP_FORMAT.print(new DateTime()),
+                                                commit.getMessage());
+
+      synchronized (sentTransactions) {
+        sentTransactions.put(sha, transaction);
+
+        Iterator<String> oldest = sentTransactions.keySet().iterator();
+
+        while (sentTransactions.size() > transactionHistory.getSize()) {
+          oldest.next();
+          oldest.remove();
         }
       }
-    }, UPDATE_FREQUENCY_MILLIS, UPDATE_FREQUENCY_MILLIS, TimeUnit.MILLISECONDS);
+
+      Satoshis balance = balanceLedger.getLocalBalance();
+
+      if (balance != null) {
+        cachedPaymentStatus.set(createCurrentPayment(balance, exchangeRate));
+      }
+    } catch (IOException | CoinbaseException | RuntimeException e) {
+      logger.warn("Failed to update caches for payment", e);
+    }
   }
 
-  private List<Repository> createRepositories(GithubClient githubClient,
-                                              List<RepositoryConfiguration> configured)
-  {
-    List<Repository> repositoryList = new LinkedList<>();
+  private String getDestination(Author author) {
+    if      (author.getUsername() != null) return author.getUsername();
+    else if (author.getName() != null)     return author.getName();
+    else                                   return author.getEmail();
+  }
 
-    for (RepositoryConfiguration repository : configured) {
-      repositoryList.add(githubClient.getRepository(repository.getUrl()));
+  /**
+   * @return The refreshed transactions, preceded by any sent payments
+   *         that they don't include yet, newest first.
+   */
+  private List<Transaction> mergeSentTransactions(List<Transaction> transactions) {
+    synchronized (sentTransactions) {
+      if (sentTransactions.isEmpty()) {
+        return transactions;
+      }
+
+      LinkedList<Transaction> merged = new LinkedList<>(transactions);
+      Set<String>             shas   = getCommitShas(transactions);
+
+      for (Transaction sent : sentTransactions.values()) {
+        if (!shas.contains(sent.getCommitSha())) {
+          merged.addFirst(sent);
+        }
+      }
+
+      while (merged.size() > transactionHistory.getSize()) {
+        merged.removeLast();
+      }
+
+      return merged;
+    }
+  }
+
+  /**
+   * Stops holding the sent payments that a refresh has returned.
+   */
+  private void forgetSentTransactions(List<Transaction> refreshed) {
+    Set<String> shas = getCommitShas(refreshed);
+
+    synchronized (sentTransactions) {
+      sentTransactions.keySet().removeAll(shas);
+    }
+  }
+
+  private Set<String> getCommitShas(List<Transaction> transactions) {
+    Set<String> shas = new HashSet<>();
+
+    for (Transaction transaction : transactions) {
+      shas.add(transaction.getCommitSha());
+    }
+
+    return shas;
+  }
+
+  private List<Repository> createRepositories() {
+    List<String> urls = new LinkedList<>();
+
+    for (RepositoryConfiguration repository : repositories) {
+      urls.add(repository.getUrl());
     }
 
-    return repositoryList;
+    return githubClient.getRepositories(urls);
   }
 
-  private CurrentPayment createCurrentPaymentForBalance(CoinbaseClient coinbaseClient)
+  private CurrentPayment createCurrentPaymentForBalance()
       throws IOException, CoinbaseException
   {
-    BigDecimal currentBalance = coinbaseClient.getAccountBalance();
-    BigDecimal paymentBtc     = currentBalance.multiply(payoutRate);
-    BigDecimal exchangeRate   = coinbaseClient.getExchangeRate();
-    BigDecimal paymentUsd     = paymentBtc.multiply(exchangeRate);
+    return createCurrentPayment(balanceLedger.getBalance(),
+                                ExchangeRate.fromUsdPerBtc(exchangeRates.getExchangeRate()));
+  }
+
+  private CurrentPayment createCurrentPayment(Satoshis balance, ExchangeRate exchangeRate)
+      throws IOException
+  {
+    Satoshis payment    = balance.multiply(payoutRatePpb, RoundingMode.DOWN);
+    String   paymentUsd = exchangeRate.toUsdString(payment, RoundingMode.CEILING);
 
-    paymentUsd = paymentUsd.setScale(2, RoundingMode.CEILING);
-    return new CurrentPayment(Badge.createFor(paymentUsd.toPlainString()),
-                              Badge.createSmallFor(paymentUsd.toPlainString()),
-                              new Payment(paymentUsd.toPlainString()));
+    return new CurrentPayment(Badge.createFor(paymentUsd),
+                              Badge.createSmallFor(paymentUsd),
+                              new Payment(paymentUsd));
   }
 
-  private List<Transaction> createRecentTransactions(CoinbaseClient coinbaseClient)
+  private List<Transaction> createRecentTransactions()
           throws IOException, CoinbaseException
   {
-    List<com.coinbase.api.entity.Transaction> recentTransactions = coinbaseClient.getRecentTransactions();
-    BigDecimal                                exchangeRate       = coinbaseClient.getExchangeRate();
-    List<Transaction>                         transactions       = new LinkedList<>();
-
-    for (com.coinbase.api.entity.Transaction coinbaseTransaction : recentTransactions) {
-      try {
-        if (isSentTransaction(coinbaseTransaction)) {
-          CoinbaseTransactionParser parser      = new CoinbaseTransactionParser(coinbaseTransaction);
-          String                    url         = parser.parseUrlFromMessage();
-          String                    sha         = parser.parseShaFromUrl(url);
-          String                    description = githubClient.getCommitDescription(url);
-
-          transactions.add(new Transaction(parser.parseDestinationFromMessage(),
-                                           parser.parseAmountInDollars(exchangeRate),
-                                           url, sha, parser.parseTimestamp(),
-                                           description));
-
-          if (transactions.size() >= 10)
-            break;
-        }
-      } catch (ParseException e) {
-        logger.warn("Parse", e);
-      }
-    }
+    List<TransactionHistory.Entry> recentTransactions = transactionHistory.sync();
+    ExchangeRate                   exchangeRate       = ExchangeRate.fromUsdPerBtc(exchangeRates.getExchangeRate());
+    List<Transaction>              transactions       = new LinkedList<>();
 
-    return transactions;
-  }
+    for (TransactionHistory.Entry entry : recentTransactions) {
+      Satoshis paid   = Satoshis.fromBtc(entry.getAmount(), RoundingMode.UP);
+      String   amount = exchangeRate.toUsdString(paid, RoundingMode.CEILING);
 
-  private boolean isSentTransaction(com.coinbase.api.entity.Transaction coinbaseTransaction) {
-    BigDecimal amount = coinbaseTransaction.getAmount().getAmount();
-    return amount.compareTo(new BigDecimal(0.0)) < 0;
-  }
+      transactions.add(new Transaction(entry.getDestination(), amount,
+                                       entry.getCommitUrl(), entry.getCommitSha(),
+                                       entry.getTimestamp(), entry.getDescription()));
+    }
 
+    forgetSentTransactions(transactions);
 
+    return transactions;
+  }
 }
@@ -6,8 +6,6 @@ import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.text.ParseException;
 
 public class CoinbaseTransactionParser {
@@ -18,13 +16,6 @@ public class CoinbaseTransactionParser {
     this.coinbaseTransaction = coinbaseTransaction;
   }
 
-  public String parseAmountInDollars(BigDecimal exchangeRate) {
-    return coinbaseTransaction.getAmount().getAmount().abs()
-                              .multiply(exchangeRate)
-                              .setScale(2, RoundingMode.CEILING)
-                              .toPlainString();
-  }
-
   public String parseTimestamp() throws ParseException {
     DateTime          timestamp = coinbaseTransaction.getCreatedAt();
     DateTimeFormatter fmt       = DateTimeFormat.forPattern("yyyy-MM-dd'T'HH:mm:ssZ");
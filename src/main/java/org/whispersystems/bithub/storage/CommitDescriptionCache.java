@@ -0,0 +1,232 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.storage;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.bithub.config.CommitCacheConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.dropwizard.lifecycle.Managed;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * A two-tier cache of commit messages, keyed by full commit SHA.
+ *
+ * A commit's message never changes, so entries are never invalidated.
+ * Recently used messages are held in a bounded LRU.  Every message is
+ * also appended to a file on disk, as the binary SHA followed by the
+ * length-prefixed UTF-8 message, and only the offset of each record is
+ * kept in memory.  The file is indexed on startup, and a torn record at
+ * its tail is truncated away.
+ */
+public class CommitDescriptionCache implements Managed {
+
+  private static final BaseEncoding HEX = BaseEncoding.base16().lowerCase();
+
+  private static final int MAX_SHA_SIZE     = 255;
+  private static final int MAX_MESSAGE_SIZE = 1024 * 1024;
+
+  private final Logger logger = LoggerFactory.getLogger(CommitDescriptionCache.class);
+
+  private final Map<String, Long>   offsets = new HashMap<>();
+  private final Map<String, String> recent;
+
+  private final File  file;
+  private final Meter memoryHits;
+  private final Meter diskHits;
+  private final Meter misses;
+
+  private FileChannel channel;
+
+  public CommitDescriptionCache(CommitCacheConfiguration configuration, MetricRegistry metricRegistry) {
+    final int memoryEntries = configuration.getMemoryEntries();
+
+    this.file       = new File(configuration.getFile());
+    this.memoryHits = metricRegistry.meter(name(CommitDescriptionCache.class, "memory_hits"));
+    this.diskHits   = metricRegistry.meter(name(CommitDescriptionCache.class, "disk_hits"));
+    this.misses     = metricRegistry.meter(name(CommitDescriptionCache.class, "misses"));
+    this.recent     = new LinkedHashMap<String, String>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+        return size() > memoryEntries;
+      }
+    };
+  }
+
+  @Override
+  public synchronized void start() throws Exception {
+    File parent = file.getAbsoluteFile().getParentFile();
+
+    if (!parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("Unable to create commit cache directory: " + parent);
+    }
+
+    channel = new RandomAccessFile(file, "rw").getChannel();
+    index();
+  }
+
+  @Override
+  public synchronized void stop() throws Exception {
+    if (channel != null) {
+      channel.close();
+      channel = null;
+    }
+  }
+
+  /**
+   * @return The cached message for a commit, or null if it is not cached.
+   */
+  public synchronized String get(String sha) {
+    String message = recent.get(sha);
+
+    if (message != null) {
+      memoryHits.mark();
+      return message;
+    }
+
+    Long offset = offsets.get(sha);
+
+    if (offset != null && channel != null) {
+      try {
+        message = read(offset);
+        recent.put(sha, message);
+        diskHits.mark();
+
+        return message;
+      } catch (IOException e) {
+        logger.warn("Failed to read cached commit message", e);
+      }
+    }
+
+    misses.mark();
+    return null;
+  }
+
+  /**
+   * @return Whether a message is cached for a commit, in memory or on disk.
+   */
+  public synchronized boolean contains(String sha) {
+    return recent.containsKey(sha) || offsets.containsKey(sha);
+  }
+
+  /**
+   * Caches a commit's message.  Messages for commits that are already
+   * cached are not written again.
+   */
+  public synchronized void put(String sha, String message) {
+    if (message == null || recent.containsKey(sha) || offsets.containsKey(sha)) {
+      return;
+    }
+
+    recent.put(sha, message);
+
+    byte[] key  = decode(sha);
+    byte[] body = message.getBytes(Charsets.UTF_8);
+
+    if (key == null || body.length > MAX_MESSAGE_SIZE || channel == null) {
+      return;
+    }
+
+    try {
+      long       position = channel.size();
+      ByteBuffer record   = ByteBuffer.allocate(1 + key.length + 4 + body.length);
+
+      record.put((byte)key.length).put(key).putInt(body.length).put(body).flip();
+
+      while (record.hasRemaining()) {
+        channel.write(record, position + record.position());
+      }
+
+      offsets.put(sha, position + 1 + key.length);
+    } catch (IOException e) {
+      logger.warn("Failed to persist commit message", e);
+    }
+  }
+
+  private String read(long offset) throws IOException {
+    ByteBuffer length = readFully(offset, 4);
+    ByteBuffer body   = readFully(offset + 4, length.getInt());
+
+    return new String(body.array(), Charsets.UTF_8);
+  }
+
+  private void index() throws IOException {
+    long size     = channel.size();
+    long position = 0;
+
+    while (position < size) {
+      try {
+        int    keyLength = readFully(position, 1).get() & 0xff;
+        byte[] key       = readFully(position + 1, keyLength).array();
+        int    length    = readFully(position + 1 + keyLength, 4).getInt();
+
+        if (keyLength == 0 || length < 0 || length > MAX_MESSAGE_SIZE ||
+            position + 1 + keyLength + 4 + length > size)
+        {
+          break;
+        }
+
+        offsets.put(HEX.encode(key), position + 1 + keyLength);
+        position += 1 + keyLength + 4 + length;
+      } catch (IOException e) {
+        break;
+      }
+    }
+
+    if (position < size) {
+      logger.warn("Truncating torn record at the end of the commit cache, at offset " + position);
+      channel.truncate(position);
+    }
+  }
+
+  private ByteBuffer readFully(long position, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) == -1) {
+        throw new IOException("Unexpected end of commit cache");
+      }
+    }
+
+    buffer.flip();
+    return buffer;
+  }
+
+  private byte[] decode(String sha) {
+    try {
+      byte[] key = HEX.decode(sha);
+      return key.length > 0 && key.length <= MAX_SHA_SIZE ? key : null;
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+}
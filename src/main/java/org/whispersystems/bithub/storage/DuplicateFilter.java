@@ -0,0 +1,180 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.storage;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import org.whispersystems.bithub.config.DeduplicationConfiguration;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * A bounded, expiring record of recently seen keys, such as webhook
+ * delivery IDs or commit SHAs.
+ *
+ * Recently added keys are held exactly, in insertion order.  Once a key
+ * ages out of that set, or the set is full, it is demoted into the
+ * current Bloom filter bucket.  Buckets rotate on a fixed interval and
+ * the oldest is dropped, so keys are forgotten once they are older than
+ * the whole ring of buckets.
+ *
+ * A key that is still in the exact set can be removed again, which lets
+ * callers release a key when the work it guarded was not accepted.
+ *
+ * A Bloom filter can report a key it has never seen.  Callers for whom
+ * skipping a new key is costly can pass an exact record of their own, and
+ * a key found only in the buckets is then a duplicate only if that record
+ * confirms it.
+ */
+public class DuplicateFilter {
+
+  private final LinkedHashMap<String, Long> recent  = new LinkedHashMap<>();
+  private final LinkedList<Bucket>          buckets = new LinkedList<>();
+
+  private final int    recentEntries;
+  private final long   recentExpirationMillis;
+  private final int    bucketCount;
+  private final long   bucketMillis;
+  private final int    expectedInsertions;
+  private final double falsePositiveProbability;
+
+  private final Meter hits;
+  private final Meter misses;
+  private final Meter falsePositives;
+
+  public DuplicateFilter(String name, DeduplicationConfiguration configuration,
+                         MetricRegistry metricRegistry)
+  {
+    this.recentEntries            = configuration.getRecentEntries();
+    this.recentExpirationMillis   = configuration.getRecentExpiration().toMilliseconds();
+    this.bucketCount              = configuration.getBuckets();
+    this.bucketMillis             = configuration.getBucketDuration().toMilliseconds();
+    this.expectedInsertions       = configuration.getExpectedInsertions();
+    this.falsePositiveProbability = configuration.getFalsePositiveProbability();
+
+    this.hits           = metricRegistry.meter(name(DuplicateFilter.class, name, "hits"));
+    this.misses         = metricRegistry.meter(name(DuplicateFilter.class, name, "misses"));
+    this.falsePositives = metricRegistry.meter(name(DuplicateFilter.class, name, "false_positives"));
+  }
+
+  /**
+   * Records a key as seen.
+   *
+   * @return true if the key had not been seen before, false if it is a duplicate.
+   */
+  public boolean add(String key) {
+    return add(key, Predicates.<String>alwaysTrue());
+  }
+
+  /**
+   * Records a key as seen, confirming a key found only in the Bloom filter
+   * buckets against an exact record before treating it as a duplicate.
+   *
+   * @param seen Whether the caller's exact record holds a key.
+   * @return true if the key had not been seen before, false if it is a duplicate.
+   */
+  public synchronized boolean add(String key, Predicate<String> seen) {
+    long now = System.currentTimeMillis();
+
+    expire(now);
+
+    if (recent.containsKey(key)) {
+      hits.mark();
+      return false;
+    }
+
+    if (bucketsMightContain(key)) {
+      if (seen.apply(key)) {
+        hits.mark();
+        return false;
+      }
+
+      falsePositives.mark();
+    }
+
+    recent.put(key, now);
+    misses.mark();
+
+    return true;
+  }
+
+  /**
+   * Forgets a recently added key, so that a later add() of it succeeds.
+   */
+  public synchronized void remove(String key) {
+    recent.remove(key);
+  }
+
+  private boolean bucketsMightContain(String key) {
+    for (Bucket bucket : buckets) {
+      if (bucket.filter.mightContain(key)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private void expire(long now) {
+    while (!buckets.isEmpty() && now - buckets.getLast().created >= bucketMillis * bucketCount) {
+      buckets.removeLast();
+    }
+
+    if (buckets.isEmpty() || now - buckets.getFirst().created >= bucketMillis) {
+      buckets.addFirst(new Bucket(now));
+
+      if (buckets.size() > bucketCount) {
+        buckets.removeLast();
+      }
+    }
+
+    Iterator<Map.Entry<String, Long>> iterator = recent.entrySet().iterator();
+
+    while (iterator.hasNext()) {
+      Map.Entry<String, Long> entry = iterator.next();
+
+      if (recent.size() < recentEntries && now - entry.getValue() < recentExpirationMillis) {
+        break;
+      }
+
+      buckets.getFirst().filter.put(entry.getKey());
+      iterator.remove();
+    }
+  }
+
+  private class Bucket {
+    private final long                      created;
+    private final BloomFilter<CharSequence> filter;
+
+    private Bucket(long created) {
+      this.created = created;
+      this.filter  = BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8),
+                                        expectedInsertions, falsePositiveProbability);
+    }
+  }
+}
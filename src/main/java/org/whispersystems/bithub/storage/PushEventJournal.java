@@ -0,0 +1,509 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.storage;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.SettableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.bithub.config.JournalConfiguration;
+import org.whispersystems.bithub.entities.PushEvent;
+import org.whispersystems.bithub.payouts.PayoutState;
+import org.whispersystems.bithub.payouts.PushEventJob;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.CRC32;
+
+import io.dropwizard.lifecycle.Managed;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * A local append-only journal of accepted PushEvents and the payout
+ * state of each of their commits, so that a push interrupted by a crash
+ * or deploy can be resumed on startup without paying anyone twice.
+ *
+ * Records are appended to numbered segment files by a single writer
+ * thread.  Concurrent appends are group committed: the writer drains
+ * everything that is pending, writes it, and issues one fsync for the
+ * whole batch before acknowledging any of them.  An append that races
+ * with stop(), or isn't synced within the write timeout, is withdrawn
+ * and fails rather than waiting on a writer that is gone.
+ *
+ * Each record is framed as a length, a CRC32 and the record body, so a
+ * torn write at the tail of a segment is detected and ignored on replay.
+ */
+public class PushEventJournal implements Managed {
+
+  private static final byte ACCEPTED  = 1;
+  private static final byte PAYOUT    = 2;
+  private static final byte COMPLETED = 3;
+
+  private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+  private static final String SEGMENT_PREFIX = "journal-";
+  private static final String SEGMENT_SUFFIX = ".log";
+
+  private final Logger       logger       = LoggerFactory.getLogger(PushEventJournal.class);
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  private final BlockingQueue<PendingRecord> pending  = new LinkedBlockingQueue<>();
+  private final Map<String, Long>            openJobs = new HashMap<>();
+
+  private final File      directory;
+  private final long      maxSegmentSize;
+  private final int       maxBatchSize;
+  private final long      writeTimeoutMillis;
+  private final Histogram batchSizeHistogram;
+  private final Timer     syncTimer;
+
+  private List<PushEventJob> recoveredJobs = new LinkedList<>();
+  private FileChannel        channel;
+  private long               segment;
+  private Thread             writer;
+
+  private volatile boolean running;
+
+  public PushEventJournal(JournalConfiguration configuration, MetricRegistry metricRegistry) {
+    this.directory          = new File(configuration.getDirectory());
+    this.maxSegmentSize     = configuration.getMaxSegmentSize();
+    this.maxBatchSize       = configuration.getMaxBatchSize();
+    this.writeTimeoutMillis = configuration.getWriteTimeout().toMilliseconds();
+    this.batchSizeHistogram = metricRegistry.histogram(name(PushEventJournal.class, "batch_size"));
+    this.syncTimer          = metricRegistry.timer(name(PushEventJournal.class, "sync"));
+  }
+
+  @Override
+  public void start() throws Exception {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create journal directory: " + directory);
+    }
+
+    List<Long>                segments  = getSegments();
+    Map<String, RecoveredJob> recovered = new LinkedHashMap<>();
+
+    for (long existing : segments) {
+      replay(getSegmentFile(existing), recovered);
+    }
+
+    this.segment = segments.isEmpty() ? 0 : segments.get(segments.size() - 1) + 1;
+    this.channel = openSegment(segment);
+
+    List<PushEventJob> jobs = new LinkedList<>();
+
+    for (RecoveredJob recoveredJob : recovered.values()) {
+      PushEventJob job = recoveredJob.toJob();
+      jobs.add(job);
+
+      write(Collections.singletonList(encodeAccepted(job)));
+
+      for (Map.Entry<String, PayoutState> state : recoveredJob.payoutStates.entrySet()) {
+        write(Collections.singletonList(encodePayout(job.getId(), state.getKey(), state.getValue())));
+      }
+
+      openJobs.put(job.getId(), segment);
+    }
+
+    channel.force(false);
+
+    for (long existing : segments) {
+      if (!getSegmentFile(existing).delete()) {
+        logger.warn("Unable to delete compacted journal segment " + existing);
+      }
+    }
+
+    if (!jobs.isEmpty()) {
+      logger.warn("Recovered " + jobs.size() + " unfinished push events from journal");
+    }
+
+    this.recoveredJobs = jobs;
+    this.running       = true;
+    this.writer        = new Thread(new Writer(), "PushEventJournal");
+    this.writer.start();
+  }
+
+  @Override
+  public void stop() throws Exception {
+    running = false;
+
+    if (writer != null) {
+      writer.join();
+    }
+
+    if (channel != null) {
+      channel.close();
+    }
+  }
+
+  /**
+   * @return The unfinished jobs found in the journal at startup.
+   */
+  public List<PushEventJob> getRecoveredJobs() {
+    return recoveredJobs;
+  }
+
+  public void accept(PushEventJob job) throws IOException {
+    append(encodeAccepted(job));
+  }
+
+  public void recordPayout(PushEventJob job, String commitSha, PayoutState state) throws IOException {
+    recordPayout(job.getId(), commitSha, state);
+    job.setPayoutState(commitSha, state);
+  }
+
+  /**
+   * Records a payout state by job ID, for a transfer that outlives its
+   * job in the PaymentOutbox.
+   */
+  public void recordPayout(String jobId, String commitSha, PayoutState state) throws IOException {
+    append(encodePayout(jobId, commitSha, state));
+  }
+
+  public void complete(PushEventJob job) throws IOException {
+    append(encodeCompleted(job.getId()));
+  }
+
+  private void append(PendingRecord record) throws IOException {
+    if (!running) {
+      throw new IOException("Journal is not running");
+    }
+
+    pending.add(record);
+
+    if (!running && pending.remove(record)) {
+      record.future.setException(new IOException("Journal stopped"));
+    }
+
+    try {
+      record.future.get(writeTimeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted waiting for journal");
+    } catch (ExecutionException e) {
+      throw new IOException("Journal write failed", e.getCause());
+    } catch (TimeoutException e) {
+      pending.remove(record);
+      throw new IOException("Timed out waiting for journal");
+    }
+  }
+
+  private void write(List<PendingRecord> batch) throws IOException {
+    ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+
+    for (int i=0;i<buffers.length;i++) {
+      buffers[i] = ByteBuffer.wrap(batch.get(i).data);
+    }
+
+    long remaining = 0;
+
+    for (ByteBuffer buffer : buffers) {
+      remaining += buffer.remaining();
+    }
+
+    while (remaining > 0) {
+      remaining -= channel.write(buffers);
+    }
+  }
+
+  private void roll() throws IOException {
+    channel.close();
+
+    long oldestOpen = segment + 1;
+
+    for (long jobSegment : openJobs.values()) {
+      oldestOpen = Math.min(oldestOpen, jobSegment);
+    }
+
+    segment++;
+    channel = openSegment(segment);
+
+    for (long existing : getSegments()) {
+      if (existing < oldestOpen && !getSegmentFile(existing).delete()) {
+        logger.warn("Unable to delete journal segment " + existing);
+      }
+    }
+  }
+
+  private void track(PendingRecord record) {
+    switch (record.type) {
+      case ACCEPTED:  openJobs.put(record.jobId, segment); break;
+      case COMPLETED: openJobs.remove(record.jobId);       break;
+    }
+  }
+
+  private PendingRecord encodeAccepted(PushEventJob job) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DataOutputStream      out  = new DataOutputStream(baos);
+    byte[]                json = objectMapper.writeValueAsBytes(job.getEvent());
+
+    out.writeByte(ACCEPTED);
+    out.writeUTF(job.getId());
+    out.writeUTF(job.getDefaultMode());
+    out.writeLong(job.getTimestamp());
+    out.writeInt(json.length);
+    out.write(json);
+
+    return new PendingRecord(ACCEPTED, job.getId(), frame(baos.toByteArray()));
+  }
+
+  private PendingRecord encodePayout(String jobId, String commitSha, PayoutState state)
+      throws IOException
+  {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DataOutputStream      out  = new DataOutputStream(baos);
+
+    out.writeByte(PAYOUT);
+    out.writeUTF(jobId);
+    out.writeUTF(commitSha);
+    out.writeByte(state.ordinal());
+
+    return new PendingRecord(PAYOUT, jobId, frame(baos.toByteArray()));
+  }
+
+  private PendingRecord encodeCompleted(String jobId) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DataOutputStream      out  = new DataOutputStream(baos);
+
+    out.writeByte(COMPLETED);
+    out.writeUTF(jobId);
+
+    return new PendingRecord(COMPLETED, jobId, frame(baos.toByteArray()));
+  }
+
+  private byte[] frame(byte[] body) {
+    CRC32 crc = new CRC32();
+    crc.update(body);
+
+    ByteBuffer framed = ByteBuffer.allocate(8 + body.length);
+    framed.putInt(body.length);
+    framed.putInt((int)crc.getValue());
+    framed.put(body);
+
+    return framed.array();
+  }
+
+  private void replay(File segmentFile, Map<String, RecoveredJob> recovered) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segmentFile)))) {
+      while (true) {
+        byte[] body;
+
+        try {
+          int length   = in.readInt();
+          int checksum = in.readInt();
+
+          if (length < 0 || length > MAX_RECORD_SIZE) {
+            logger.warn("Bad record length in journal segment " + segmentFile + ", ignoring remainder");
+            return;
+          }
+
+          body = new byte[length];
+          in.readFully(body);
+
+          CRC32 crc = new CRC32();
+          crc.update(body);
+
+          if ((int)crc.getValue() != checksum) {
+            logger.warn("Corrupt record in journal segment " + segmentFile + ", ignoring remainder");
+            return;
+          }
+        } catch (EOFException e) {
+          return;
+        }
+
+        replayRecord(new DataInputStream(new ByteArrayInputStream(body)), recovered);
+      }
+    }
+  }
+
+  private void replayRecord(DataInputStream in, Map<String, RecoveredJob> recovered)
+      throws IOException
+  {
+    byte   type  = in.readByte();
+    String jobId = in.readUTF();
+
+    switch (type) {
+      case ACCEPTED:
+        String mode      = in.readUTF();
+        long   timestamp = in.readLong();
+        byte[] json      = new byte[in.readInt()];
+        in.readFully(json);
+
+        recovered.put(jobId, new RecoveredJob(jobId, mode, timestamp,
+                                              objectMapper.readValue(json, PushEvent.class)));
+        break;
+      case PAYOUT:
+        String      commitSha = in.readUTF();
+        PayoutState state     = PayoutState.values()[in.readByte()];
+        RecoveredJob job      = recovered.get(jobId);
+
+        if (job != null) job.payoutStates.put(commitSha, state);
+        break;
+      case COMPLETED:
+        recovered.remove(jobId);
+        break;
+      default:
+        throw new IOException("Unknown journal record type: " + type);
+    }
+  }
+
+  private List<Long> getSegments() {
+    List<Long> segments = new LinkedList<>();
+    String[]   names    = directory.list();
+
+    if (names == null) return segments;
+
+    Arrays.sort(names);
+
+    for (String name : names) {
+      if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+        try {
+          segments.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                                                     name.length() - SEGMENT_SUFFIX.length())));
+        } catch (NumberFormatException e) {
+          logger.warn("Ignoring unknown file in journal directory: " + name);
+        }
+      }
+    }
+
+    return segments;
+  }
+
+  private File getSegmentFile(long segment) {
+    return new File(directory, String.format("%s%016d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+  }
+
+  private FileChannel openSegment(long segment) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(getSegmentFile(segment), "rw");
+    file.seek(file.length());
+
+    return file.getChannel();
+  }
+
+  private class Writer implements Runnable {
+    @Override
+    public void run() {
+      List<PendingRecord> batch = new LinkedList<>();
+
+      while (running || !pending.isEmpty()) {
+        try {
+          PendingRecord first = pending.poll(100, TimeUnit.MILLISECONDS);
+
+          if (first == null) continue;
+
+          batch.clear();
+          batch.add(first);
+          pending.drainTo(batch, maxBatchSize - 1);
+
+          commit(batch);
+        } catch (InterruptedException e) {
+          logger.warn("Journal writer interrupted", e);
+        }
+      }
+
+      for (PendingRecord record : pending) {
+        record.future.setException(new IOException("Journal stopped"));
+      }
+    }
+
+    private void commit(List<PendingRecord> batch) {
+      Timer.Context timer = syncTimer.time();
+
+      try {
+        write(batch);
+        channel.force(false);
+
+        for (PendingRecord record : batch) {
+          track(record);
+          record.future.set(null);
+        }
+
+        batchSizeHistogram.update(batch.size());
+
+        if (channel.size() >= maxSegmentSize) {
+          roll();
+        }
+      } catch (IOException e) {
+        logger.warn("Journal write failed", e);
+
+        for (PendingRecord record : batch) {
+          record.future.setException(e);
+        }
+      } finally {
+        timer.stop();
+      }
+    }
+  }
+
+  private static class PendingRecord {
+    private final byte                 type;
+    private final String               jobId;
+    private final byte[]               data;
+    private final SettableFuture<Void> future = SettableFuture.create();
+
+    private PendingRecord(byte type, String jobId, byte[] data) {
+      this.type  = type;
+      this.jobId = jobId;
+      this.data  = data;
+    }
+  }
+
+  private static class RecoveredJob {
+    private final String                   id;
+    private final String                   mode;
+    private final long                     timestamp;
+    private final PushEvent                event;
+    private final Map<String, PayoutState> payoutStates = new LinkedHashMap<>();
+
+    private RecoveredJob(String id, String mode, long timestamp, PushEvent event) {
+      this.id        = id;
+      this.mode      = mode;
+      this.timestamp = timestamp;
+      this.event     = event;
+    }
+
+    private PushEventJob toJob() {
+      return new PushEventJob(id, event, mode, timestamp, new HashMap<>(payoutStates));
+    }
+  }
+}
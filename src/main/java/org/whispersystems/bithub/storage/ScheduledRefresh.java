@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.storage;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.bithub.config.RefreshConfiguration;
+import org.whispersystems.bithub.util.Backoff;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * A cached value that is reloaded on its own schedule.
+ *
+ * Each load runs on the value's own thread, and is abandoned if it takes
+ * longer than the timeout, so a slow dependency only holds up the values
+ * that are loaded from it.  Refreshes are spaced by the interval plus a
+ * random jitter.  When a refresh fails the previous value is kept, and
+ * the next attempt follows an exponential backoff with full jitter.
+ *
+ * A first load that fails is retried the same way, and get() returns
+ * null until a load succeeds, so one unavailable dependency at startup
+ * doesn't keep the service from starting.
+ */
+public class ScheduledRefresh<T> {
+
+  private final Logger logger = LoggerFactory.getLogger(ScheduledRefresh.class);
+
+  private final AtomicReference<T> value = new AtomicReference<>();
+
+  private final String                   name;
+  private final Callable<T>              loader;
+  private final ScheduledExecutorService scheduler;
+  private final ExecutorService          worker;
+  private final long                     intervalMillis;
+  private final long                     jitterMillis;
+  private final long                     timeoutMillis;
+  private final Backoff                  backoff;
+
+  private final Timer refreshTimer;
+  private final Meter failureMeter;
+
+  private volatile long lastSuccess;
+  private volatile int  failures;
+
+  public ScheduledRefresh(String name, Callable<T> loader, RefreshConfiguration configuration,
+                          ScheduledExecutorService scheduler, MetricRegistry metricRegistry)
+  {
+    this.name                 = name;
+    this.loader               = loader;
+    this.scheduler            = scheduler;
+    this.worker               = Executors.newSingleThreadExecutor();
+    this.intervalMillis       = configuration.getInterval().toMilliseconds();
+    this.jitterMillis         = configuration.getJitter().toMilliseconds();
+    this.timeoutMillis        = configuration.getTimeout().toMilliseconds();
+    this.backoff              = new Backoff(configuration.getInitialBackoff().toMilliseconds(),
+                                            configuration.getMaxBackoff().toMilliseconds());
+
+    this.refreshTimer = metricRegistry.timer(name(ScheduledRefresh.class, name, "refresh"));
+    this.failureMeter = metricRegistry.meter(name(ScheduledRefresh.class, name, "failures"));
+
+    metricRegistry.register(name(ScheduledRefresh.class, name, "last_success_age"), new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return lastSuccess == 0 ? null : System.currentTimeMillis() - lastSuccess;
+      }
+    });
+  }
+
+  /**
+   * Loads the first value and schedules the refreshes, or schedules a
+   * retry if the first value could not be loaded.
+   */
+  public void start() {
+    refresh();
+  }
+
+  public void stop() {
+    worker.shutdownNow();
+  }
+
+  /**
+   * @return The last loaded value, or null if none has loaded yet.
+   */
+  public T get() {
+    return value.get();
+  }
+
+  /**
+   * Replaces the value between refreshes, such as when the change that
+   * the next refresh would load is already known.
+   */
+  public void set(T updated) {
+    value.set(updated);
+  }
+
+  private void refresh() {
+    try {
+      loaded(load());
+      failures = 0;
+      schedule(getInterval());
+    } catch (Exception e) {
+      logger.warn("Failed to refresh " + name, e);
+      failureMeter.mark();
+      schedule(backoff.getDelay(++failures));
+    }
+  }
+
+  private T load() throws Exception {
+    Timer.Context timer  = refreshTimer.time();
+    Future<T>     future = worker.submit(loader);
+
+    try {
+      return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception) throw (Exception)e.getCause();
+      else                                   throw e;
+    } catch (TimeoutException e) {
+      future.cancel(true);
+      throw e;
+    } finally {
+      timer.stop();
+    }
+  }
+
+  private void loaded(T loaded) {
+    value.set(loaded);
+    lastSuccess = System.currentTimeMillis();
+  }
+
+  private void schedule(long delayMillis) {
+    try {
+      scheduler.schedule(new Runnable() {
+        @Override
+        public void run() {
+          refresh();
+        }
+      }, delayMillis, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      logger.info("Not refreshing " + name + ", shutting down");
+    }
+  }
+
+  private long getInterval() {
+    return intervalMillis + ThreadLocalRandom.current().nextLong(jitterMillis + 1);
+  }
+}
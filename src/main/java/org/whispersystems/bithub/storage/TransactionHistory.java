@@ -0,0 +1,311 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.storage;
+
+import com.coinbase.api.entity.Transaction;
+import com.coinbase.api.entity.TransactionsResponse;
+import com.coinbase.api.exception.CoinbaseException;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.whispersystems.bithub.client.GithubClient;
+import org.whispersystems.bithub.client.PaymentBackend;
+import org.whispersystems.bithub.config.HistoryConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A local history of the most recent payouts sent from the Coinbase account.
+ *
+ * Each sync only reads transactions newer than the last one seen, paging
+ * back through Coinbase's history when there is a backlog, and merges the
+ * new payouts into the history.  The history and the ID of the newest
+ * transaction seen are persisted, so a restart does not have to fetch the
+ * history, or its commit descriptions, again.  Descriptions of new
+ * payouts are read from the CommitDescriptionCache, and those of commits
+ * that have not been seen before are fetched from GitHub in one batch.
+ */
+public class TransactionHistory {
+
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  private final Logger logger = LoggerFactory.getLogger(TransactionHistory.class);
+
+  private final PaymentBackend         paymentBackend;
+  private final GithubClient           githubClient;
+  private final CommitDescriptionCache descriptions;
+  private final File                   file;
+  private final int                    size;
+  private final int                    maxPages;
+
+  private State state;
+
+  public TransactionHistory(PaymentBackend paymentBackend, GithubClient githubClient,
+                            CommitDescriptionCache descriptions, HistoryConfiguration configuration)
+  {
+    this.paymentBackend = paymentBackend;
+    this.githubClient   = githubClient;
+    this.descriptions   = descriptions;
+    this.file           = new File(configuration.getFile());
+    this.size           = configuration.getSize();
+    this.maxPages       = configuration.getMaxPages();
+    this.state          = load();
+  }
+
+  /**
+   * @return How many payouts the history holds.
+   */
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * Fetches transactions newer than the last sync and merges any payouts
+   * among them into the history.
+   *
+   * @return The most recent payouts, newest first.
+   */
+  public synchronized List<Entry> sync() throws IOException, CoinbaseException {
+    List<Transaction> sent   = new LinkedList<>();
+    String            newest = null;
+    int               page   = 1;
+
+    fetch:
+    while (true) {
+      TransactionsResponse response = paymentBackend.getTransactions(page);
+
+      for (Transaction transaction : response.getTransactions()) {
+        if (newest == null) {
+          newest = transaction.getId();
+        }
+
+        if (transaction.getId().equals(state.cursor) || sent.size() >= size) {
+          break fetch;
+        }
+
+        if (isSentTransaction(transaction)) {
+          sent.add(transaction);
+        }
+      }
+
+      if (page >= response.getNumPages() || page >= maxPages) {
+        break;
+      }
+
+      page++;
+    }
+
+    if (newest == null || newest.equals(state.cursor)) {
+      return state.entries;
+    }
+
+    List<Entry> merged = createEntries(sent);
+
+    for (Entry entry : state.entries) {
+      if (merged.size() >= size) break;
+      merged.add(entry);
+    }
+
+    state = new State(newest, merged);
+    store(state);
+
+    return state.entries;
+  }
+
+  private List<Entry> createEntries(List<Transaction> transactions) {
+    Set<String> urls = new LinkedHashSet<>();
+
+    for (Transaction transaction : transactions) {
+      try {
+        urls.add(new CoinbaseTransactionParser(transaction).parseUrlFromMessage());
+      } catch (ParseException e) {
+        // Logged below, when the entry fails to parse.
+      }
+    }
+
+    Map<String, String> commitDescriptions = getCommitDescriptions(urls);
+    List<Entry>         entries            = new LinkedList<>();
+
+    for (Transaction transaction : transactions) {
+      try {
+        entries.add(createEntry(transaction, commitDescriptions));
+      } catch (ParseException e) {
+        logger.warn("Parse", e);
+      }
+    }
+
+    return entries;
+  }
+
+  private Entry createEntry(Transaction transaction, Map<String, String> commitDescriptions)
+      throws ParseException
+  {
+    CoinbaseTransactionParser parser = new CoinbaseTransactionParser(transaction);
+    String                    url    = parser.parseUrlFromMessage();
+    String                    sha    = parser.parseShaFromUrl(url);
+
+    return new Entry(parser.parseDestinationFromMessage(),
+                     transaction.getAmount().getAmount().abs(),
+                     url, sha, parser.parseTimestamp(),
+                     commitDescriptions.get(url));
+  }
+
+  /**
+   * @return The description of each commit, keyed by commit URL.
+   */
+  private Map<String, String> getCommitDescriptions(Set<String> urls) {
+    Map<String, String> found   = new HashMap<>();
+    List<String>        missing = new LinkedList<>();
+
+    for (String url : urls) {
+      String description = descriptions.get(getSha(url));
+
+      if (description == null) missing.add(url);
+      else                     found.put(url, description);
+    }
+
+    if (!missing.isEmpty()) {
+      for (Map.Entry<String, String> fetched : githubClient.getCommitDescriptions(missing).entrySet()) {
+        descriptions.put(getSha(fetched.getKey()), fetched.getValue());
+        found.put(fetched.getKey(), fetched.getValue());
+      }
+    }
+
+    return found;
+  }
+
+  private String getSha(String url) {
+    return url.substring(url.lastIndexOf('/') + 1);
+  }
+
+  private boolean isSentTransaction(Transaction transaction) {
+    return transaction.getAmount().getAmount().signum() < 0;
+  }
+
+  private State load() {
+    if (!file.exists()) {
+      return new State();
+    }
+
+    try {
+      return objectMapper.readValue(file, State.class);
+    } catch (IOException e) {
+      logger.warn("Unreadable transaction history, starting over", e);
+      return new State();
+    }
+  }
+
+  private void store(State state) {
+    try {
+      File temporary = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+
+      objectMapper.writeValue(temporary, state);
+      Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                 StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      logger.warn("Failed to persist transaction history", e);
+    }
+  }
+
+  private static class State {
+    @JsonProperty
+    private String cursor;
+
+    @JsonProperty
+    private List<Entry> entries = new LinkedList<>();
+
+    public State() {}
+
+    public State(String cursor, List<Entry> entries) {
+      this.cursor  = cursor;
+      this.entries = entries;
+    }
+  }
+
+  public static class Entry {
+    @JsonProperty
+    private String destination;
+
+    @JsonProperty
+    private BigDecimal amount;
+
+    @JsonProperty
+    private String commitUrl;
+
+    @JsonProperty
+    private String commitSha;
+
+    @JsonProperty
+    private String timestamp;
+
+    @JsonProperty
+    private String description;
+
+    public Entry() {}
+
+    public Entry(String destination, BigDecimal amount, String commitUrl,
+                 String commitSha, String timestamp, String description)
+    {
+      this.destination = destination;
+      this.amount      = amount;
+      this.commitUrl   = commitUrl;
+      this.commitSha   = commitSha;
+      this.timestamp   = timestamp;
+      this.description = description;
+    }
+
+    public String getDestination() {
+      return destination;
+    }
+
+    /**
+     * @return The amount paid, in BTC.
+     */
+    public BigDecimal getAmount() {
+      return amount;
+    }
+
+    public String getCommitUrl() {
+      return commitUrl;
+    }
+
+    public String getCommitSha() {
+      return commitSha;
+    }
+
+    public String getTimestamp() {
+      return timestamp;
+    }
+
+    public String getDescription() {
+      return description;
+    }
+  }
+}
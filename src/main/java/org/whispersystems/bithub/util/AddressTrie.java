@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.util;
+
+import com.google.common.net.InetAddresses;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A binary prefix trie of IPv4 and IPv6 networks.
+ *
+ * Nodes are stored as pairs of child indexes in a single int array, so
+ * the trie stays compact however many networks it holds.  A lookup walks
+ * at most one node per address bit, so its cost depends on the address
+ * length and not on the number of networks.
+ */
+public class AddressTrie {
+
+  private static final int NONE = 0;
+
+  private final Node ipv4 = new Node();
+  private final Node ipv6 = new Node();
+
+  /**
+   * Adds a network in CIDR notation, such as 192.30.252.0/22 or
+   * 2620:112:3000::/44.  An address without a prefix length is added
+   * as a single host.
+   *
+   * @throws IllegalArgumentException if the network is not a valid CIDR.
+   */
+  public void add(String cidr) {
+    String[]    parts   = cidr.trim().split("/", 2);
+    InetAddress address = InetAddresses.forString(parts[0]);
+    byte[]      bytes   = address.getAddress();
+    int         length  = bytes.length * 8;
+
+    if (parts.length == 2) {
+      try {
+        length = Integer.parseInt(parts[1]);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Bad prefix length: " + cidr);
+      }
+
+      if (length < 0 || length > bytes.length * 8) {
+        throw new IllegalArgumentException("Bad prefix length: " + cidr);
+      }
+    }
+
+    getRoot(address).add(bytes, length);
+  }
+
+  /**
+   * @return true if the address falls within any network in the trie.
+   *         Strings that are not IP address literals never match.
+   */
+  public boolean contains(String address) {
+    if (!InetAddresses.isInetAddress(address)) {
+      return false;
+    }
+
+    InetAddress parsed = InetAddresses.forString(address);
+    return getRoot(parsed).contains(parsed.getAddress());
+  }
+
+  private Node getRoot(InetAddress address) {
+    return address instanceof Inet4Address ? ipv4 : ipv6;
+  }
+
+  private static class Node {
+    private int[]  children = new int[32];
+    private BitSet terminal = new BitSet();
+    private int    size     = 1;
+
+    private void add(byte[] address, int length) {
+      int node = 0;
+
+      for (int i=0;i<length;i++) {
+        if (terminal.get(node)) return;
+
+        int slot = node * 2 + bit(address, i);
+
+        if (children[slot] == NONE) {
+          int child = allocate();
+          children[slot] = child;
+        }
+
+        node = children[slot];
+      }
+
+      terminal.set(node);
+    }
+
+    private boolean contains(byte[] address) {
+      int node = 0;
+
+      for (int i=0;i<address.length * 8;i++) {
+        if (terminal.get(node)) return true;
+
+        node = children[node * 2 + bit(address, i)];
+
+        if (node == NONE) return false;
+      }
+
+      return terminal.get(node);
+    }
+
+    private int allocate() {
+      if (size * 2 + 2 > children.length) {
+        children = Arrays.copyOf(children, children.length * 2);
+      }
+
+      return size++;
+    }
+
+    private static int bit(byte[] address, int index) {
+      return (address[index / 8] >> (7 - (index % 8))) & 1;
+    }
+  }
+}
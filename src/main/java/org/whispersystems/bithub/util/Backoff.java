@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with full jitter: the delay before an attempt is
+ * uniformly random up to the initial delay doubled for each attempt so
+ * far, and that ceiling is capped at the maximum delay.
+ */
+public final class Backoff {
+
+  private final long initialMillis;
+  private final long maxMillis;
+
+  public Backoff(long initialMillis, long maxMillis) {
+    this.initialMillis = initialMillis;
+    this.maxMillis     = maxMillis;
+  }
+
+  /**
+   * @param attempts The attempts made so far, starting at 1.
+   * @return The largest delay before the next attempt, in milliseconds.
+   */
+  public long getCeiling(int attempts) {
+    long ceiling = initialMillis;
+
+    for (int i=1;i<attempts && ceiling < maxMillis;i++) {
+      ceiling *= 2;
+    }
+
+    return Math.min(ceiling, maxMillis);
+  }
+
+  /**
+   * @param attempts The attempts made so far, starting at 1.
+   * @return A random delay before the next attempt, in milliseconds.
+   */
+  public long getDelay(int attempts) {
+    return ThreadLocalRandom.current().nextLong(getCeiling(attempts) + 1);
+  }
+}
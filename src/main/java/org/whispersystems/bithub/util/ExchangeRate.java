@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.util;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * An immutable BTC to USD exchange rate, held as a whole number of
+ * micro-cents per bitcoin, for converting Satoshis to dollar amounts
+ * without BigDecimal arithmetic.
+ */
+public final class ExchangeRate {
+
+  public static final long MICRO_CENTS_PER_CENT = 1_000_000L;
+  public static final long MICRO_CENTS_PER_USD  = 100 * MICRO_CENTS_PER_CENT;
+
+  private final long microCentsPerBtc;
+
+  private ExchangeRate(long microCentsPerBtc) {
+    this.microCentsPerBtc = microCentsPerBtc;
+  }
+
+  public static ExchangeRate fromUsdPerBtc(BigDecimal usdPerBtc) {
+    return new ExchangeRate(usdPerBtc.movePointRight(8).setScale(0, RoundingMode.HALF_EVEN).longValueExact());
+  }
+
+  public long getMicroCentsPerBtc() {
+    return microCentsPerBtc;
+  }
+
+  public long toMicroCents(Satoshis amount, RoundingMode roundingMode) {
+    return Satoshis.multiplyDivide(amount.longValue(), microCentsPerBtc, Satoshis.PER_BTC, roundingMode);
+  }
+
+  public long toCents(Satoshis amount, RoundingMode roundingMode) {
+    return Satoshis.multiplyDivide(amount.longValue(), microCentsPerBtc,
+                                   Satoshis.PER_BTC * MICRO_CENTS_PER_CENT, roundingMode);
+  }
+
+  /**
+   * @return The amount in dollars, formatted the way badges and comments
+   *         show it, such as 12.05.
+   */
+  public String toUsdString(Satoshis amount, RoundingMode roundingMode) {
+    return formatCents(toCents(amount, roundingMode));
+  }
+
+  public static String formatCents(long cents) {
+    long          magnitude = Math.abs(cents);
+    long          fraction  = magnitude % 100;
+    StringBuilder builder   = new StringBuilder(24);
+
+    if (cents < 0) builder.append('-');
+
+    builder.append(magnitude / 100).append('.');
+
+    if (fraction < 10) builder.append('0');
+
+    return builder.append(fraction).toString();
+  }
+}
@@ -0,0 +1,238 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.whispersystems.bithub.entities.Author;
+import org.whispersystems.bithub.entities.Commit;
+import org.whispersystems.bithub.entities.PushEvent;
+import org.whispersystems.bithub.entities.Repository;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A streaming parser for GitHub PushEvent payloads that only reads the
+ * fields BitHub uses.
+ *
+ * The ref and repository are always read.  The commits array is only
+ * read when both qualify, so pushes to other branches or unconfigured
+ * repositories are rejected without binding their commits.  If the
+ * payload lists its commits before the ref or repository, they are
+ * skipped and re-read in a second pass once the push qualifies.
+ */
+public class PushEventParser {
+
+  private static final JsonFactory jsonFactory = new JsonFactory();
+
+  private final Set<String> repositories;
+  private final String      ref;
+
+  /**
+   * @param repositories The lower-case URLs of repositories that qualify for payouts.
+   * @param ref The ref that qualifies for payouts.
+   */
+  public PushEventParser(Set<String> repositories, String ref) {
+    this.repositories = repositories;
+    this.ref          = ref;
+  }
+
+  /**
+   * @return The parsed PushEvent.  If the push does not qualify, its
+   *         commits are not read and the returned event has none.
+   */
+  public PushEvent parse(String payload) throws IOException {
+    try (JsonParser parser = jsonFactory.createParser(payload)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new JsonParseException("Not a PushEvent", parser.getCurrentLocation());
+      }
+
+      String       eventRef       = null;
+      String       head           = null;
+      String       after          = null;
+      Repository   repository     = null;
+      List<Commit> commits        = null;
+      boolean      skippedCommits = false;
+
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        parser.nextToken();
+
+        switch (field) {
+          case "ref":        eventRef   = parser.getValueAsString(); break;
+          case "head":       head       = parser.getValueAsString(); break;
+          case "after":      after      = parser.getValueAsString(); break;
+          case "repository": repository = parseRepository(parser);   break;
+          case "commits":
+            if (eventRef != null && repository != null) {
+              commits = parseCommits(parser);
+            } else {
+              skippedCommits = (eventRef == null || eventRef.equals(ref));
+              parser.skipChildren();
+            }
+            break;
+          default:
+            parser.skipChildren();
+        }
+
+        if (repository != null && !isQualifyingRepository(repository)) {
+          return rejected(eventRef, repository);
+        }
+
+        if (eventRef != null && repository != null && !eventRef.equals(ref)) {
+          return rejected(eventRef, repository);
+        }
+      }
+
+      if (eventRef == null || repository == null) {
+        throw new JsonParseException("PushEvent without ref or repository", parser.getCurrentLocation());
+      }
+
+      if (commits == null) {
+        commits = skippedCommits ? reparseCommits(payload) : new LinkedList<Commit>();
+      }
+
+      return new PushEvent(eventRef, head != null ? head : after, repository, commits);
+    }
+  }
+
+  private PushEvent rejected(String eventRef, Repository repository) {
+    return new PushEvent(eventRef, null, repository, Collections.<Commit>emptyList());
+  }
+
+  private boolean isQualifyingRepository(Repository repository) {
+    return repository.getUrl() != null &&
+           repositories.contains(repository.getUrl().toLowerCase());
+  }
+
+  private List<Commit> reparseCommits(String payload) throws IOException {
+    try (JsonParser parser = jsonFactory.createParser(payload)) {
+      parser.nextToken();
+
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        parser.nextToken();
+
+        if (field.equals("commits")) return parseCommits(parser);
+        else                         parser.skipChildren();
+      }
+
+      return new LinkedList<>();
+    }
+  }
+
+  private Repository parseRepository(JsonParser parser) throws IOException {
+    String url   = null;
+    String name  = null;
+    Author owner = null;
+
+    if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+      parser.skipChildren();
+      return null;
+    }
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+
+      switch (field) {
+        case "url":   url   = parser.getValueAsString(); break;
+        case "name":  name  = parser.getValueAsString(); break;
+        case "owner": owner = parseAuthor(parser);       break;
+        default:      parser.skipChildren();
+      }
+    }
+
+    return new Repository(url, name, owner);
+  }
+
+  private List<Commit> parseCommits(JsonParser parser) throws IOException {
+    List<Commit> commits = new LinkedList<>();
+
+    if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+      throw new JsonParseException("Commits is not an array", parser.getCurrentLocation());
+    }
+
+    while (parser.nextToken() == JsonToken.START_OBJECT) {
+      commits.add(parseCommit(parser));
+    }
+
+    return commits;
+  }
+
+  private Commit parseCommit(JsonParser parser) throws IOException {
+    String id      = null;
+    String message = null;
+    String url     = null;
+    Author author  = null;
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+
+      switch (field) {
+        case "id":      id      = parser.getValueAsString(); break;
+        case "message": message = parser.getValueAsString(); break;
+        case "url":     url     = parser.getValueAsString(); break;
+        case "author":  author  = parseAuthor(parser);       break;
+        default:        parser.skipChildren();
+      }
+    }
+
+    if (id == null || id.isEmpty()) {
+      throw new JsonParseException("Commit without id", parser.getCurrentLocation());
+    }
+
+    if (author == null || author.getEmail() == null || author.getEmail().isEmpty()) {
+      throw new JsonParseException("Commit without author email", parser.getCurrentLocation());
+    }
+
+    return new Commit(id, message, author, url);
+  }
+
+  private Author parseAuthor(JsonParser parser) throws IOException {
+    String name     = null;
+    String email    = null;
+    String username = null;
+
+    if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+      parser.skipChildren();
+      return null;
+    }
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+
+      switch (field) {
+        case "name":     name     = parser.getValueAsString(); break;
+        case "email":    email    = parser.getValueAsString(); break;
+        case "username": username = parser.getValueAsString(); break;
+        default:         parser.skipChildren();
+      }
+    }
+
+    return new Author(name, email, username);
+  }
+}
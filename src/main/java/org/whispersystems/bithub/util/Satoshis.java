@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) 2013 Open WhisperSystems
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.whispersystems.bithub.util;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+
+/**
+ * An immutable amount of bitcoin, held as a whole number of satoshis.
+ *
+ * Arithmetic stays in long precision, and only falls back to BigInteger
+ * when an intermediate product would overflow.  Every operation that can
+ * lose precision takes an explicit rounding mode.
+ */
+public final class Satoshis implements Comparable<Satoshis> {
+
+  public static final long     PER_BTC           = 100_000_000L;
+  public static final long     PARTS_PER_BILLION = 1_000_000_000L;
+  public static final Satoshis ZERO              = new Satoshis(0);
+
+  private static final int BTC_SCALE = 8;
+
+  private final long value;
+
+  private Satoshis(long value) {
+    this.value = value;
+  }
+
+  public static Satoshis valueOf(long satoshis) {
+    return satoshis == 0 ? ZERO : new Satoshis(satoshis);
+  }
+
+  public static Satoshis fromBtc(BigDecimal btc, RoundingMode roundingMode) {
+    return valueOf(btc.movePointRight(BTC_SCALE).setScale(0, roundingMode).longValueExact());
+  }
+
+  /**
+   * Converts a fractional rate, such as a payout rate, into the parts per
+   * billion that {@link #multiply(long, RoundingMode)} takes.
+   */
+  public static long toPartsPerBillion(BigDecimal rate) {
+    return rate.movePointRight(9).setScale(0, RoundingMode.HALF_EVEN).longValueExact();
+  }
+
+  public long longValue() {
+    return value;
+  }
+
+  public BigDecimal toBtc() {
+    return BigDecimal.valueOf(value, BTC_SCALE);
+  }
+
+  public Satoshis plus(Satoshis other) {
+    return valueOf(value + other.value);
+  }
+
+  public Satoshis minus(Satoshis other) {
+    return valueOf(value - other.value);
+  }
+
+  /**
+   * @return This amount multiplied by a rate given in parts per billion.
+   */
+  public Satoshis multiply(long partsPerBillion, RoundingMode roundingMode) {
+    return valueOf(multiplyDivide(value, partsPerBillion, PARTS_PER_BILLION, roundingMode));
+  }
+
+  public boolean isPositive() {
+    return value > 0;
+  }
+
+  @Override
+  public int compareTo(Satoshis other) {
+    return Long.compare(value, other.value);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof Satoshis && ((Satoshis)other).value == value;
+  }
+
+  @Override
+  public int hashCode() {
+    return (int)(value ^ (value >>> 32));
+  }
+
+  @Override
+  public String toString() {
+    return toBtc().toPlainString();
+  }
+
+  /**
+   * @return value * multiplier / divisor, rounded with the given mode.
+   */
+  static long multiplyDivide(long value, long multiplier, long divisor, RoundingMode roundingMode) {
+    if (value >= 0 && multiplier >= 0 && divisor > 0 &&
+        Long.numberOfLeadingZeros(value) + Long.numberOfLeadingZeros(multiplier) > 64)
+    {
+      long product   = value * multiplier;
+      long quotient  = product / divisor;
+      long remainder = product % divisor;
+
+      if (remainder == 0) {
+        return quotient;
+      }
+
+      switch (roundingMode) {
+        case DOWN:
+        case FLOOR:     return quotient;
+        case UP:
+        case CEILING:   return quotient + 1;
+        case HALF_UP:   return remainder >= divisor - remainder ? quotient + 1 : quotient;
+        case HALF_DOWN: return remainder >  divisor - remainder ? quotient + 1 : quotient;
+        case HALF_EVEN:
+          long half = divisor - remainder;
+          return remainder > half || (remainder == half && (quotient & 1) == 1) ? quotient + 1 : quotient;
+        default:
+          throw new ArithmeticException("Rounding necessary");
+      }
+    }
+
+    return new BigDecimal(BigInteger.valueOf(value).multiply(BigInteger.valueOf(multiplier)))
+        .divide(BigDecimal.valueOf(divisor), 0, roundingMode)
+        .longValueExact();
+  }
+}
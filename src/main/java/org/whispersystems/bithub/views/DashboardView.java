@@ -30,6 +30,10 @@ public class DashboardView extends View {
   }
 
   public String getPayment() {
+    if (currentPayment == null) {
+      return null;
+    }
+
     return currentPayment.getEntity().getPayment();
   }
 
@@ -50,7 +54,7 @@ public class DashboardView extends View {
   }
 
   public String getRepositoriesCount() {
-    return String.valueOf(repositories.size());
+    return repositories == null ? null : String.valueOf(repositories.size());
   }
 
 }
@@ -0,0 +1,64 @@
+package org.whispersystems.bithub.tests.auth;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.whispersystems.bithub.auth.TrustedNetworks;
+import org.whispersystems.bithub.config.TrustedNetworkConfiguration;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class TrustedNetworksTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testForwardedForChain() throws Exception {
+    TrustedNetworks networks = new TrustedNetworks(new TrustedNetworkConfiguration(Arrays.asList("192.30.252.0/22"), null,
+                                                                                   Arrays.asList("10.0.0.0/8")));
+
+    assertThat(networks.isTrusted("192.30.252.1")).isTrue();
+    assertThat(networks.isTrusted("192.30.252.1, 10.1.1.1")).isTrue();
+    assertThat(networks.isTrusted("1.2.3.4, 192.30.252.1, 10.1.1.1, 10.2.2.2")).isTrue();
+    assertThat(networks.isTrusted("192.30.252.1, 1.2.3.4")).isFalse();
+    assertThat(networks.isTrusted("192.30.252.1, 1.2.3.4, 10.1.1.1")).isFalse();
+    assertThat(networks.isTrusted("10.1.1.1")).isFalse();
+  }
+
+  @Test
+  public void testReloadFromFile() throws Exception {
+    File file = folder.newFile("hooks.txt");
+    Files.write("# GitHub hooks\n192.30.252.0/22\n", file, Charsets.UTF_8);
+
+    TrustedNetworks networks = new TrustedNetworks(new TrustedNetworkConfiguration(new LinkedList<String>(),
+                                                                                   file.getAbsolutePath(),
+                                                                                   new LinkedList<String>()));
+
+    assertThat(networks.isTrusted("192.30.252.1")).isTrue();
+    assertThat(networks.isTrusted("2620:112:3000::1")).isFalse();
+
+    Files.write("2620:112:3000::/44 # ipv6\n", file, Charsets.UTF_8);
+    networks.reload();
+
+    assertThat(networks.isTrusted("192.30.252.1")).isFalse();
+    assertThat(networks.isTrusted("2620:112:3000::1")).isTrue();
+  }
+
+  @Test
+  public void testDefaultsCoverGithubHooks() throws Exception {
+    TrustedNetworks networks = new TrustedNetworks(new TrustedNetworkConfiguration());
+
+    assertThat(networks.isTrusted("192.30.252.1")).isTrue();
+    assertThat(networks.isTrusted("140.82.115.10")).isTrue();
+    assertThat(networks.isTrusted("143.55.64.1")).isTrue();
+    assertThat(networks.isTrusted("2606:50c0:8000::154")).isTrue();
+    assertThat(networks.isTrusted("10.1.1.1")).isFalse();
+  }
+}
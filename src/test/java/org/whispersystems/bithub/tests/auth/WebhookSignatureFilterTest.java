@@ -0,0 +1,114 @@
+package org.whispersystems.bithub.tests.auth;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.whispersystems.bithub.auth.WebhookSignatureFilter;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class WebhookSignatureFilterTest {
+
+  private static final String PAYLOAD = "payload=%7B%22ref%22%3A%22refs%2Fheads%2Fmaster%22%7D";
+
+  private final MetricRegistry      metricRegistry = new MetricRegistry();
+  private final HttpServletResponse response       = mock(HttpServletResponse.class);
+  private final FilterChain         chain          = mock(FilterChain.class);
+
+  private final WebhookSignatureFilter filter = new WebhookSignatureFilter(Arrays.asList("old-secret", "new-secret"),
+                                                                           1024, metricRegistry);
+
+  @Test
+  public void testValidSignature() throws Exception {
+    filter.doFilter(request(PAYLOAD, sign("new-secret", PAYLOAD)), response, chain);
+
+    ArgumentCaptor<ServletRequest> verified = ArgumentCaptor.forClass(ServletRequest.class);
+    verify(chain).doFilter(verified.capture(), any(ServletResponse.class));
+
+    byte[] body = ByteStreams.toByteArray(verified.getValue().getInputStream());
+    assertThat(new String(body, Charsets.UTF_8)).isEqualTo(PAYLOAD);
+  }
+
+  @Test
+  public void testRotatedSecret() throws Exception {
+    filter.doFilter(request(PAYLOAD, sign("old-secret", PAYLOAD)), response, chain);
+    verify(chain).doFilter(any(ServletRequest.class), any(ServletResponse.class));
+  }
+
+  @Test
+  public void testForgedSignature() throws Exception {
+    filter.doFilter(request(PAYLOAD, sign("wrong-secret", PAYLOAD)), response, chain);
+
+    verify(chain, never()).doFilter(any(ServletRequest.class), any(ServletResponse.class));
+    verify(response).sendError(HttpServletResponse.SC_UNAUTHORIZED);
+    assertThat(metricRegistry.meter(name(WebhookSignatureFilter.class, "rejected")).getCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testMissingSignature() throws Exception {
+    filter.doFilter(request(PAYLOAD, null), response, chain);
+
+    verify(chain, never()).doFilter(any(ServletRequest.class), any(ServletResponse.class));
+    verify(response).sendError(HttpServletResponse.SC_UNAUTHORIZED);
+  }
+
+  @Test
+  public void testOversizedPayload() throws Exception {
+    char[] large = new char[2048];
+    Arrays.fill(large, 'a');
+
+    String             payload = new String(large);
+    HttpServletRequest request = request(payload, sign("new-secret", payload));
+
+    when(request.getContentLength()).thenReturn(-1);
+
+    filter.doFilter(request, response, chain);
+
+    verify(chain, never()).doFilter(any(ServletRequest.class), any(ServletResponse.class));
+    verify(response).sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+    assertThat(metricRegistry.meter(name(WebhookSignatureFilter.class, "oversized")).getCount()).isEqualTo(1);
+  }
+
+  private HttpServletRequest request(String payload, String signature) throws Exception {
+    final ByteArrayInputStream in      = new ByteArrayInputStream(payload.getBytes(Charsets.UTF_8));
+    HttpServletRequest         request = mock(HttpServletRequest.class);
+
+    when(request.getContentLength()).thenReturn(payload.length());
+    when(request.getHeader(WebhookSignatureFilter.SIGNATURE_HEADER)).thenReturn(signature);
+    when(request.getInputStream()).thenReturn(new ServletInputStream() {
+      @Override
+      public int read() {
+        return in.read();
+      }
+    });
+
+    return request;
+  }
+
+  private String sign(String secret, String payload) throws Exception {
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(secret.getBytes(Charsets.UTF_8), "HmacSHA256"));
+
+    return "sha256=" + BaseEncoding.base16().lowerCase().encode(mac.doFinal(payload.getBytes(Charsets.UTF_8)));
+  }
+}
@@ -0,0 +1,107 @@
+package org.whispersystems.bithub.tests.benchmarks;
+
+import org.whispersystems.bithub.util.ExchangeRate;
+import org.whispersystems.bithub.util.Satoshis;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Compares the BigDecimal payout math BitHub used to do with the Satoshis
+ * path that replaced it, over bursts of pushes.  Each burst computes a
+ * batch of payouts against one balance, then formats the comment and
+ * badge amounts for each, as PayoutBatcher and CacheManager do.
+ *
+ * Run it with the test classpath:
+ *
+ *   java -cp target/classes:target/test-classes \
+ *     org.whispersystems.bithub.tests.benchmarks.PayoutMathBenchmark [bursts] [burst size]
+ */
+public class PayoutMathBenchmark {
+
+  private static final BigDecimal PAYOUT_RATE   = new BigDecimal("0.02");
+  private static final BigDecimal BALANCE       = new BigDecimal("10.01000000");
+  private static final BigDecimal EXCHANGE_RATE = new BigDecimal("612.37");
+
+  private static long sink;
+
+  public static void main(String[] args) {
+    final int bursts    = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+    final int burstSize = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+    for (int i = 0; i < 3; i++) {
+      bigDecimalBurst(bursts / 10, burstSize);
+      satoshiBurst(bursts / 10, burstSize);
+    }
+
+    report("BigDecimal", bursts, burstSize, new Runnable() {
+      @Override
+      public void run() {
+        bigDecimalBurst(bursts, burstSize);
+      }
+    });
+
+    report("Satoshis", bursts, burstSize, new Runnable() {
+      @Override
+      public void run() {
+        satoshiBurst(bursts, burstSize);
+      }
+    });
+
+    System.out.println("(checksum " + sink + ")");
+  }
+
+  private static void bigDecimalBurst(int bursts, int burstSize) {
+    for (int i = 0; i < bursts; i++) {
+      BigDecimal balance = BALANCE;
+
+      for (int j = 0; j < burstSize; j++) {
+        BigDecimal amount = balance.multiply(PAYOUT_RATE);
+        balance = balance.subtract(amount);
+
+        if (amount.compareTo(new BigDecimal(0)) == 1) {
+          String usd = amount.multiply(EXCHANGE_RATE).setScale(2, RoundingMode.CEILING).toPlainString();
+          sink += usd.length();
+        }
+      }
+    }
+  }
+
+  private static void satoshiBurst(int bursts, int burstSize) {
+    Satoshis     start        = Satoshis.fromBtc(BALANCE, RoundingMode.DOWN);
+    long         payoutRate   = Satoshis.toPartsPerBillion(PAYOUT_RATE);
+    ExchangeRate exchangeRate = ExchangeRate.fromUsdPerBtc(EXCHANGE_RATE);
+
+    for (int i = 0; i < bursts; i++) {
+      Satoshis balance = start;
+
+      for (int j = 0; j < burstSize; j++) {
+        Satoshis amount = balance.multiply(payoutRate, RoundingMode.DOWN);
+        balance = balance.minus(amount);
+
+        if (amount.isPositive()) {
+          String usd = exchangeRate.toUsdString(amount, RoundingMode.CEILING);
+          sink += usd.length();
+        }
+      }
+    }
+  }
+
+  private static void report(String name, int bursts, int burstSize, Runnable burst) {
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    long                            thread  = Thread.currentThread().getId();
+
+    long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+    long started         = System.nanoTime();
+
+    burst.run();
+
+    long elapsed   = System.nanoTime() - started;
+    long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+    long payouts   = (long)bursts * burstSize;
+
+    System.out.println(String.format("%-10s %8.1f ns/payout %8.1f bytes/payout",
+                                     name, (double)elapsed / payouts, (double)allocated / payouts));
+  }
+}
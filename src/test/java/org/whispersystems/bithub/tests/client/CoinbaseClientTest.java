@@ -0,0 +1,125 @@
+package org.whispersystems.bithub.tests.client;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.coinbase.api.Coinbase;
+import com.coinbase.api.entity.Account;
+import com.coinbase.api.entity.AccountsResponse;
+import com.coinbase.api.exception.CoinbaseException;
+import org.joda.money.CurrencyUnit;
+import org.joda.money.Money;
+import org.junit.Before;
+import org.junit.Test;
+import org.whispersystems.bithub.client.CoinbaseClient;
+import org.whispersystems.bithub.client.DependencyUnavailableException;
+import org.whispersystems.bithub.config.ClientConfiguration;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import io.dropwizard.util.Duration;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CoinbaseClientTest {
+
+  private final Coinbase       coinbase       = mock(Coinbase.class);
+  private final MetricRegistry metricRegistry = new MetricRegistry();
+  private final CoinbaseClient coinbaseClient = new CoinbaseClient(coinbase, Duration.hours(1),
+                                                                   new ClientConfiguration(8, 2, Duration.minutes(1)),
+                                                                   metricRegistry);
+
+  @Before
+  public void setup() throws Exception {
+    when(coinbase.getAccounts()).thenReturn(accounts("secondary", "primary"));
+    when(coinbase.getBalance("primary")).thenReturn(Money.of(CurrencyUnit.of("BTC"), new BigDecimal("1.5")));
+  }
+
+  @Test
+  public void testPrimaryAccountCached() throws Exception {
+    assertThat(coinbaseClient.getAccountBalance().compareTo(new BigDecimal("1.5"))).isEqualTo(0);
+    assertThat(coinbaseClient.getAccountBalance().compareTo(new BigDecimal("1.5"))).isEqualTo(0);
+    assertThat(coinbaseClient.getAccountBalance().compareTo(new BigDecimal("1.5"))).isEqualTo(0);
+
+    verify(coinbase, times(1)).getAccounts();
+    verify(coinbase, times(3)).getBalance("primary");
+
+    Gauge ratio = metricRegistry.getGauges().get(name(CoinbaseClient.class, "primary_account", "hit_ratio"));
+    assertThat((Double)ratio.getValue()).isEqualTo(2.0 / 3.0);
+  }
+
+  @Test
+  public void testStaleAccountRefreshed() throws Exception {
+    coinbaseClient.getAccountBalance();
+
+    when(coinbase.getBalance("primary")).thenThrow(new CoinbaseException("Account not found"));
+    when(coinbase.getAccounts()).thenReturn(accounts("primary", "moved"));
+    when(coinbase.getBalance("moved")).thenReturn(Money.of(CurrencyUnit.of("BTC"), new BigDecimal("2")));
+
+    assertThat(coinbaseClient.getAccountBalance().compareTo(new BigDecimal("2"))).isEqualTo(0);
+    assertThat(coinbaseClient.getAccountBalance().compareTo(new BigDecimal("2"))).isEqualTo(0);
+
+    verify(coinbase, times(2)).getAccounts();
+  }
+
+  @Test
+  public void testCircuitOpensOnIoFailures() throws Exception {
+    when(coinbase.getExchangeRates()).thenThrow(new IOException("Read timed out"));
+
+    for (int i=0;i<2;i++) {
+      try {
+        coinbaseClient.getExchangeRates();
+        fail("Expected failure");
+      } catch (IOException e) {
+        assertThat(e).isNotInstanceOf(DependencyUnavailableException.class);
+      }
+    }
+
+    try {
+      coinbaseClient.getExchangeRates();
+      fail("Expected short circuit");
+    } catch (DependencyUnavailableException e) {
+      // expected
+    }
+
+    verify(coinbase, times(2)).getExchangeRates();
+  }
+
+  @Test
+  public void testApiErrorsDoNotOpenCircuit() throws Exception {
+    when(coinbase.getExchangeRates()).thenThrow(new CoinbaseException("Invalid request"));
+
+    for (int i=0;i<3;i++) {
+      try {
+        coinbaseClient.getExchangeRates();
+        fail("Expected failure");
+      } catch (CoinbaseException e) {
+        // expected
+      }
+    }
+
+    verify(coinbase, times(3)).getExchangeRates();
+  }
+
+  private AccountsResponse accounts(String secondaryId, String primaryId) {
+    Account secondary = new Account();
+    secondary.setId(secondaryId);
+    secondary.setPrimary(false);
+
+    Account primary = new Account();
+    primary.setId(primaryId);
+    primary.setPrimary(true);
+
+    AccountsResponse response = new AccountsResponse();
+    response.setAccounts(Arrays.asList(secondary, primary));
+
+    return response;
+  }
+}
@@ -0,0 +1,104 @@
+package org.whispersystems.bithub.tests.client;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+import org.whispersystems.bithub.client.DependencyGuard;
+import org.whispersystems.bithub.client.DependencyUnavailableException;
+import org.whispersystems.bithub.config.ClientConfiguration;
+
+import io.dropwizard.util.Duration;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+public class DependencyGuardTest {
+
+  private final MetricRegistry metricRegistry = new MetricRegistry();
+
+  @Test
+  public void testBulkheadRejectsExcessCalls() throws Exception {
+    DependencyGuard guard = new DependencyGuard("test", new ClientConfiguration(2, 5, Duration.minutes(1)), metricRegistry);
+
+    guard.acquire();
+    guard.acquire();
+
+    try {
+      guard.acquire();
+      fail("Expected rejection");
+    } catch (DependencyUnavailableException e) {
+      // expected
+    }
+
+    guard.release(false);
+    guard.acquire();
+
+    assertThat(metricRegistry.meter(name(DependencyGuard.class, "test", "rejected")).getCount()).isEqualTo(1);
+    assertThat(metricRegistry.getGauges().get(name(DependencyGuard.class, "test", "in_flight")).getValue()).isEqualTo(2);
+  }
+
+  @Test
+  public void testOpensAfterConsecutiveFailures() throws Exception {
+    DependencyGuard guard = new DependencyGuard("test", new ClientConfiguration(2, 3, Duration.minutes(1)), metricRegistry);
+
+    recordFailures(guard, 2);
+    guard.acquire();
+    guard.release(false);
+    recordFailures(guard, 2);
+
+    assertThat(guard.getState()).isEqualTo(DependencyGuard.State.CLOSED);
+
+    recordFailures(guard, 1);
+
+    assertThat(guard.getState()).isEqualTo(DependencyGuard.State.OPEN);
+
+    try {
+      guard.acquire();
+      fail("Expected short circuit");
+    } catch (DependencyUnavailableException e) {
+      // expected
+    }
+
+    Gauge state = metricRegistry.getGauges().get(name(DependencyGuard.class, "test", "state"));
+
+    assertThat(state.getValue()).isEqualTo("OPEN");
+    assertThat(metricRegistry.meter(name(DependencyGuard.class, "test", "short_circuited")).getCount()).isEqualTo(1);
+    assertThat(metricRegistry.getGauges().get(name(DependencyGuard.class, "test", "in_flight")).getValue()).isEqualTo(0);
+  }
+
+  @Test
+  public void testHalfOpenTrial() throws Exception {
+    DependencyGuard guard = new DependencyGuard("test", new ClientConfiguration(2, 1, Duration.milliseconds(20)), metricRegistry);
+
+    recordFailures(guard, 1);
+    Thread.sleep(40);
+
+    guard.acquire();
+    assertThat(guard.getState()).isEqualTo(DependencyGuard.State.HALF_OPEN);
+
+    try {
+      guard.acquire();
+      fail("Only one trial call expected");
+    } catch (DependencyUnavailableException e) {
+      // expected
+    }
+
+    guard.release(true);
+    assertThat(guard.getState()).isEqualTo(DependencyGuard.State.OPEN);
+
+    Thread.sleep(40);
+
+    guard.acquire();
+    guard.release(false);
+
+    assertThat(guard.getState()).isEqualTo(DependencyGuard.State.CLOSED);
+  }
+
+  private void recordFailures(DependencyGuard guard, int failures) throws Exception {
+    for (int i=0;i<failures;i++) {
+      guard.acquire();
+      guard.release(true);
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package org.whispersystems.bithub.tests.client;
+
+import com.codahale.metrics.MetricRegistry;
+import com.coinbase.api.exception.CoinbaseException;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.whispersystems.bithub.client.CoinbaseClient;
+import org.whispersystems.bithub.client.ExchangeRateService;
+
+import java.math.BigDecimal;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import io.dropwizard.util.Duration;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ExchangeRateServiceTest {
+
+  private static final Map<String, BigDecimal> RATES = ImmutableMap.of("btc_to_usd", new BigDecimal("600.00"),
+                                                                       "usd_to_btc", new BigDecimal("0.00166"));
+
+  private final CoinbaseClient coinbaseClient = mock(CoinbaseClient.class);
+
+  @Test
+  public void testSnapshotCached() throws Exception {
+    ExchangeRateService service = new ExchangeRateService(coinbaseClient, Duration.minutes(1), new MetricRegistry());
+
+    when(coinbaseClient.getExchangeRates()).thenReturn(RATES);
+
+    assertThat(service.getExchangeRate()).isEqualTo(new BigDecimal("600.00"));
+    assertThat(service.getExchangeRate("usd_to_btc")).isEqualTo(new BigDecimal("0.00166"));
+    assertThat(service.getExchangeRate()).isEqualTo(new BigDecimal("600.00"));
+
+    verify(coinbaseClient, times(1)).getExchangeRates();
+  }
+
+  @Test
+  public void testConcurrentCallersShareFetch() throws Exception {
+    final ExchangeRateService service = new ExchangeRateService(coinbaseClient, Duration.minutes(1), new MetricRegistry());
+    final CountDownLatch      release = new CountDownLatch(1);
+
+    when(coinbaseClient.getExchangeRates()).thenAnswer(new Answer<Map<String, BigDecimal>>() {
+      @Override
+      public Map<String, BigDecimal> answer(InvocationOnMock invocation) throws Throwable {
+        release.await();
+        return RATES;
+      }
+    });
+
+    ExecutorService          executor = Executors.newFixedThreadPool(8);
+    List<Future<BigDecimal>> results  = new LinkedList<>();
+
+    for (int i=0;i<8;i++) {
+      results.add(executor.submit(new Callable<BigDecimal>() {
+        @Override
+        public BigDecimal call() throws Exception {
+          return service.getExchangeRate();
+        }
+      }));
+    }
+
+    Thread.sleep(100);
+    release.countDown();
+
+    for (Future<BigDecimal> result : results) {
+      assertThat(result.get(1, TimeUnit.SECONDS)).isEqualTo(new BigDecimal("600.00"));
+    }
+
+    executor.shutdown();
+    verify(coinbaseClient, times(1)).getExchangeRates();
+  }
+
+  @Test
+  public void testLastGoodRatesServedOnFailure() throws Exception {
+    ExchangeRateService service = new ExchangeRateService(coinbaseClient, Duration.milliseconds(0), new MetricRegistry());
+
+    when(coinbaseClient.getExchangeRates()).thenReturn(RATES)
+                                           .thenThrow(new CoinbaseException("unavailable"));
+
+    assertThat(service.getExchangeRate()).isEqualTo(new BigDecimal("600.00"));
+    assertThat(service.getExchangeRate()).isEqualTo(new BigDecimal("600.00"));
+
+    verify(coinbaseClient, times(2)).getExchangeRates();
+  }
+
+  @Test(expected = CoinbaseException.class)
+  public void testFailureWithoutRates() throws Exception {
+    ExchangeRateService service = new ExchangeRateService(coinbaseClient, Duration.minutes(1), new MetricRegistry());
+
+    when(coinbaseClient.getExchangeRates()).thenThrow(new CoinbaseException("unavailable"));
+
+    service.getExchangeRate();
+  }
+}
@@ -0,0 +1,171 @@
+package org.whispersystems.bithub.tests.client;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.whispersystems.bithub.client.GithubClient;
+import org.whispersystems.bithub.config.GithubConfiguration;
+import org.whispersystems.bithub.config.GraphqlConfiguration;
+import org.whispersystems.bithub.entities.Repository;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * Runs the client against a local stand-in for the GitHub API, which
+ * answers each request with the next canned response.
+ */
+public class GithubClientTest {
+
+  private final List<String>                 requests  = new CopyOnWriteArrayList<>();
+  private final ConcurrentLinkedQueue<Reply> responses = new ConcurrentLinkedQueue<>();
+
+  private HttpServer server;
+
+  @Before
+  public void setup() throws Exception {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        String body = new String(ByteStreams.toByteArray(exchange.getRequestBody()), Charsets.UTF_8);
+        requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath() + " " + body);
+
+        Reply reply = responses.poll();
+
+        if (reply.etag != null) {
+          exchange.getResponseHeaders().add("ETag", reply.etag);
+        }
+
+        if (reply.body == null) {
+          exchange.sendResponseHeaders(reply.status, -1);
+        } else {
+          byte[] bytes = reply.body.getBytes(Charsets.UTF_8);
+          exchange.getResponseHeaders().add("Content-Type", "application/json");
+          exchange.sendResponseHeaders(reply.status, bytes.length);
+
+          try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+          }
+        }
+
+        exchange.close();
+      }
+    });
+    server.start();
+  }
+
+  @After
+  public void teardown() {
+    server.stop(0);
+  }
+
+  @Test
+  public void testRepositoriesInOneRoundTrip() throws Exception {
+    responses.add(new Reply(200, null, "{\"data\": {" +
+        "\"r0\": {\"url\": \"https://github.com/moxie0/one\", \"name\": \"one\", \"owner\": {\"name\": \"moxie0\"}}, " +
+        "\"r1\": {\"url\": \"https://github.com/moxie0/two\", \"name\": \"two\", \"owner\": {\"name\": \"moxie0\"}}, " +
+        "\"r2\": {\"url\": \"https://github.com/WhisperSystems/three\", \"name\": \"three\", \"description\": \"Three\", " +
+                 "\"owner\": {\"name\": \"WhisperSystems\"}}}}"));
+
+    List<Repository> repositories = client(true, 50).getRepositories(Arrays.asList("https://github.com/moxie0/one",
+                                                                                   "https://github.com/moxie0/two",
+                                                                                   "https://github.com/WhisperSystems/three"));
+
+    assertThat(requests).hasSize(1);
+    assertThat(requests.get(0)).startsWith("POST /api/graphql ");
+    assertThat(requests.get(0)).contains("r2: repository(owner: \\\"WhisperSystems\\\", name: \\\"three\\\")");
+
+    assertThat(repositories).hasSize(3);
+    assertThat(repositories.get(0).getName()).isEqualTo("one");
+    assertThat(repositories.get(0).getUrl()).isEqualTo(baseUrl() + "repos/moxie0/one");
+    assertThat(repositories.get(2).getOwner().getName()).isEqualTo("WhisperSystems");
+    assertThat(repositories.get(2).getDescription()).isEqualTo("Three");
+  }
+
+  @Test
+  public void testCommitDescriptionsBatched() throws Exception {
+    responses.add(new Reply(200, null, "{\"data\": {\"c0\": {\"object\": {\"message\": \"First\"}}, " +
+                                                  "\"c1\": {\"object\": {\"message\": \"Second\"}}}}"));
+    responses.add(new Reply(200, null, "{\"data\": {\"c0\": {\"object\": {\"message\": \"Third\"}}}}"));
+
+    Map<String, String> descriptions = client(true, 2).getCommitDescriptions(Arrays.asList(commit("a"), commit("b"), commit("c")));
+
+    assertThat(requests).hasSize(2);
+    assertThat(requests.get(0)).contains("object(oid: \\\"" + sha("a") + "\\\")");
+    assertThat(requests.get(1)).contains("c0: repository(owner: \\\"moxie0\\\", name: \\\"test\\\")");
+
+    assertThat(descriptions).hasSize(3);
+    assertThat(descriptions.get(commit("a"))).isEqualTo("First");
+    assertThat(descriptions.get(commit("c"))).isEqualTo("Third");
+  }
+
+  @Test(expected = Exception.class)
+  public void testMissingCommitFails() throws Exception {
+    responses.add(new Reply(200, null, "{\"data\": {\"c0\": {\"object\": null}}, " +
+                                       "\"errors\": [{\"message\": \"Could not resolve\"}]}"));
+
+    client(true, 50).getCommitDescriptions(Arrays.asList(commit("a")));
+  }
+
+  @Test
+  public void testRestFallbackRevalidates() throws Exception {
+    String repository = "{\"url\": \"https://github.com/moxie0/one\", \"name\": \"one\", \"owner\": {\"name\": \"moxie0\"}}";
+
+    responses.add(new Reply(200, "\"abc\"", repository));
+    responses.add(new Reply(304, "\"abc\"", null));
+
+    GithubClient client = client(false, 50);
+
+    assertThat(client.getRepositories(Arrays.asList("https://github.com/moxie0/one")).get(0).getName()).isEqualTo("one");
+    assertThat(client.getRepositories(Arrays.asList("https://github.com/moxie0/one")).get(0).getName()).isEqualTo("one");
+
+    assertThat(requests).hasSize(2);
+    assertThat(requests.get(1)).startsWith("GET /repos/moxie0/one");
+  }
+
+  private GithubClient client(boolean graphql, int batchSize) {
+    return new GithubClient(new GithubConfiguration(baseUrl(), "moxie0", "token",
+                                                    new GraphqlConfiguration(graphql, baseUrl() + "api/graphql",
+                                                                             batchSize)),
+                            new MetricRegistry());
+  }
+
+  private String baseUrl() {
+    return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+  }
+
+  private String commit(String id) {
+    return "https://github.com/moxie0/test/commit/" + sha(id);
+  }
+
+  private String sha(String id) {
+    return id + id + id + id + id + id + id + id;
+  }
+
+  private static class Reply {
+    private final int    status;
+    private final String etag;
+    private final String body;
+
+    private Reply(int status, String etag, String body) {
+      this.status = status;
+      this.etag   = etag;
+      this.body   = body;
+    }
+  }
+}
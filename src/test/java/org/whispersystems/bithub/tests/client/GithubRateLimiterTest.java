@@ -0,0 +1,137 @@
+package org.whispersystems.bithub.tests.client;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+import org.whispersystems.bithub.client.DependencyUnavailableException;
+import org.whispersystems.bithub.client.GithubRateLimiter;
+import org.whispersystems.bithub.client.GithubRateLimiter.Priority;
+import org.whispersystems.bithub.config.RateLimitConfiguration;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.dropwizard.util.Duration;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+public class GithubRateLimiterTest {
+
+  private final MetricRegistry metricRegistry = new MetricRegistry();
+
+  @Test
+  public void testUnknownBudgetAdmits() throws Exception {
+    GithubRateLimiter limiter = limiter(10, Duration.milliseconds(50));
+
+    limiter.acquire(Priority.DASHBOARD);
+    limiter.acquire(Priority.DASHBOARD);
+
+    assertThat(limiter.getRemaining()).isEqualTo(-1);
+  }
+
+  @Test
+  public void testReserveKeptForComments() throws Exception {
+    GithubRateLimiter limiter = limiter(10, Duration.milliseconds(50));
+
+    limiter.update("10", String.valueOf(secondsFromNow(3600)));
+
+    try {
+      limiter.acquire(Priority.DASHBOARD);
+      fail("Expected throttle");
+    } catch (DependencyUnavailableException e) {
+      // expected
+    }
+
+    limiter.acquire(Priority.COMMENT);
+
+    assertThat(limiter.getRemaining()).isEqualTo(9);
+    assertThat(metricRegistry.meter(name(GithubRateLimiter.class, "rest", "throttled")).getCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testExhaustedBudgetRefusesComments() throws Exception {
+    GithubRateLimiter limiter = limiter(0, Duration.milliseconds(50));
+
+    limiter.update("0", String.valueOf(secondsFromNow(3600)));
+
+    try {
+      limiter.acquire(Priority.COMMENT);
+      fail("Expected throttle");
+    } catch (DependencyUnavailableException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testBackgroundRequestsPacedAsBudgetShrinks() throws Exception {
+    GithubRateLimiter limiter = limiter(10, Duration.milliseconds(200));
+
+    // One request above the reserve, spread over the rest of the window.
+    limiter.update("11", String.valueOf(secondsFromNow(3600)));
+
+    limiter.acquire(Priority.HISTORY);
+
+    limiter.update("11", String.valueOf(secondsFromNow(3600)));
+
+    try {
+      limiter.acquire(Priority.HISTORY);
+      fail("Expected pacing");
+    } catch (DependencyUnavailableException e) {
+      // expected
+    }
+
+    limiter.acquire(Priority.COMMENT);
+  }
+
+  @Test
+  public void testCommentsAdmittedFirst() throws Exception {
+    final GithubRateLimiter limiter = limiter(0, Duration.seconds(5));
+    final List<Priority>    order   = new CopyOnWriteArrayList<>();
+    final CountDownLatch    done    = new CountDownLatch(2);
+
+    limiter.update("0", String.valueOf(secondsFromNow(2)));
+
+    Thread dashboard = waiter(limiter, Priority.DASHBOARD, order, done);
+    dashboard.start();
+    Thread.sleep(50);
+
+    Thread comment = waiter(limiter, Priority.COMMENT, order, done);
+    comment.start();
+    Thread.sleep(50);
+
+    // Room for one more request before the reset, which the later comment should get.
+    limiter.update("1", String.valueOf(secondsFromNow(2)));
+
+    assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(order).containsExactly(Priority.COMMENT, Priority.DASHBOARD);
+  }
+
+  private Thread waiter(final GithubRateLimiter limiter, final Priority priority,
+                        final List<Priority> order, final CountDownLatch done)
+  {
+    return new Thread() {
+      @Override
+      public void run() {
+        try {
+          limiter.acquire(priority);
+          order.add(priority);
+        } catch (DependencyUnavailableException e) {
+          throw new AssertionError(e);
+        } finally {
+          done.countDown();
+        }
+      }
+    };
+  }
+
+  private GithubRateLimiter limiter(int reserve, Duration maxWait) {
+    return new GithubRateLimiter("rest", new RateLimitConfiguration(reserve, maxWait), metricRegistry);
+  }
+
+  private long secondsFromNow(long seconds) {
+    return System.currentTimeMillis() / 1000 + seconds;
+  }
+}
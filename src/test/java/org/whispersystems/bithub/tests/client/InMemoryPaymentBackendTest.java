@@ -0,0 +1,144 @@
+package org.whispersystems.bithub.tests.client;
+
+import com.coinbase.api.entity.Transaction;
+import com.coinbase.api.entity.TransactionsResponse;
+import org.junit.Test;
+import org.whispersystems.bithub.client.ExchangeRateService;
+import org.whispersystems.bithub.client.InMemoryPaymentBackend;
+import org.whispersystems.bithub.client.TransferFailedException;
+import org.whispersystems.bithub.config.MemoryBackendConfiguration;
+import org.whispersystems.bithub.entities.Author;
+import org.whispersystems.bithub.storage.CoinbaseTransactionParser;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import io.dropwizard.util.Duration;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+public class InMemoryPaymentBackendTest {
+
+  private static final Author AUTHOR = new Author("Moxie", "moxie@thoughtcrime.org", "moxie0");
+  private static final String URL    = "https://github.com/moxie0/test/commit/ba1b681c71db4fcd461954b1bf344bc6e29411e5";
+
+  @Test
+  public void testSendRecordsTransaction() throws Exception {
+    InMemoryPaymentBackend backend = backend("1.0", 0.0);
+
+    backend.sendPayment(AUTHOR, new BigDecimal("0.25"), URL, "a");
+
+    assertThat(backend.getAccountBalance().compareTo(new BigDecimal("0.75"))).isEqualTo(0);
+    assertThat(backend.getExchangeRates().get(ExchangeRateService.BTC_TO_USD)).isEqualTo(new BigDecimal("500"));
+
+    TransactionsResponse response = backend.getTransactions(1);
+    assertThat(response.getNumPages()).isEqualTo(1);
+    assertThat(response.getTransactions()).hasSize(1);
+
+    Transaction               transaction = response.getTransactions().get(0);
+    CoinbaseTransactionParser parser      = new CoinbaseTransactionParser(transaction);
+
+    assertThat(transaction.getAmount().getAmount().compareTo(new BigDecimal("-0.25"))).isEqualTo(0);
+    assertThat(parser.parseDestinationFromMessage()).isEqualTo("moxie0");
+    assertThat(parser.parseUrlFromMessage()).isEqualTo(URL);
+  }
+
+  @Test
+  public void testTransactionsPagedNewestFirst() throws Exception {
+    InMemoryPaymentBackend backend = backend("100", 0.0);
+
+    for (int i=0;i<30;i++) {
+      backend.sendPayment(AUTHOR, new BigDecimal("0.01"), URL + i, "key" + i);
+    }
+
+    TransactionsResponse first  = backend.getTransactions(1);
+    TransactionsResponse second = backend.getTransactions(2);
+
+    assertThat(first.getNumPages()).isEqualTo(2);
+    assertThat(first.getTransactions()).hasSize(25);
+    assertThat(second.getTransactions()).hasSize(5);
+    assertThat(new CoinbaseTransactionParser(first.getTransactions().get(0)).parseUrlFromMessage()).isEqualTo(URL + 29);
+    assertThat(new CoinbaseTransactionParser(second.getTransactions().get(4)).parseUrlFromMessage()).isEqualTo(URL + 0);
+  }
+
+  @Test
+  public void testRetryWithSameKeyNotRepeated() throws Exception {
+    InMemoryPaymentBackend backend = backend("1.0", 0.0);
+
+    backend.sendPayment(AUTHOR, new BigDecimal("0.25"), URL, "a");
+    backend.sendPayment(AUTHOR, new BigDecimal("0.25"), URL, "a");
+
+    assertThat(backend.getAccountBalance().compareTo(new BigDecimal("0.75"))).isEqualTo(0);
+    assertThat(backend.getTransactions(1).getTransactions()).hasSize(1);
+  }
+
+  @Test
+  public void testInsufficientFunds() throws Exception {
+    InMemoryPaymentBackend backend = backend("0.1", 0.0);
+
+    try {
+      backend.sendPayment(AUTHOR, new BigDecimal("0.2"), URL, "a");
+      fail("Expected insufficient funds");
+    } catch (TransferFailedException e) {
+      // expected
+    }
+
+    assertThat(backend.getAccountBalance().compareTo(new BigDecimal("0.1"))).isEqualTo(0);
+    assertThat(backend.getTransactions(1).getTransactions()).isEmpty();
+  }
+
+  @Test
+  public void testInjectedFailures() throws Exception {
+    InMemoryPaymentBackend backend = backend("1.0", 1.0);
+
+    try {
+      backend.getAccountBalance();
+      fail("Expected failure");
+    } catch (IOException e) {
+      // expected
+    }
+
+    try {
+      backend.sendPayment(AUTHOR, new BigDecimal("0.1"), URL, "a");
+      fail("Expected failure");
+    } catch (TransferFailedException e) {
+      assertThat(e.getCause()).isInstanceOf(IOException.class);
+    }
+  }
+
+  @Test
+  public void testConcurrentSends() throws Exception {
+    final InMemoryPaymentBackend backend  = backend("10", 0.0);
+    ExecutorService              executor = Executors.newFixedThreadPool(8);
+
+    for (int i=0;i<200;i++) {
+      final String key = "key" + i;
+
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            backend.sendPayment(AUTHOR, new BigDecimal("0.01"), URL, key);
+          } catch (TransferFailedException e) {
+            throw new AssertionError(e);
+          }
+        }
+      });
+    }
+
+    executor.shutdown();
+    assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+    assertThat(backend.getAccountBalance().compareTo(new BigDecimal("8"))).isEqualTo(0);
+    assertThat(backend.getTransactions(1).getTotalCount()).isEqualTo(200);
+  }
+
+  private InMemoryPaymentBackend backend(String balance, double failureRate) {
+    return new InMemoryPaymentBackend(new MemoryBackendConfiguration(new BigDecimal(balance), new BigDecimal("500"),
+                                                                     Duration.milliseconds(0), failureRate));
+  }
+}
@@ -0,0 +1,60 @@
+package org.whispersystems.bithub.tests.client;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+import org.whispersystems.bithub.client.ResponseCache;
+import org.whispersystems.bithub.config.ResponseCacheConfiguration;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class ResponseCacheTest {
+
+  private final MetricRegistry metricRegistry = new MetricRegistry();
+  private final ResponseCache  cache          = new ResponseCache("github", new ResponseCacheConfiguration(2),
+                                                                  metricRegistry);
+
+  @Test
+  public void testRevalidatedEntry() {
+    Object entity = new Object();
+
+    cache.put("/repos/moxie0/test", "\"abc\"", "Tue, 01 Jan 2014 00:00:00 GMT", entity, 1200);
+
+    ResponseCache.Entry entry = cache.get("/repos/moxie0/test");
+
+    assertThat(entry.getEtag()).isEqualTo("\"abc\"");
+    assertThat(entry.getLastModified()).isEqualTo("Tue, 01 Jan 2014 00:00:00 GMT");
+    assertThat(entry.getEntity()).isSameAs(entity);
+
+    cache.hit(entry);
+    cache.hit(entry);
+
+    Gauge ratio = metricRegistry.getGauges().get(name(ResponseCache.class, "github", "hit_ratio"));
+
+    assertThat((Double)ratio.getValue()).isEqualTo(2.0 / 3.0);
+    assertThat(metricRegistry.counter(name(ResponseCache.class, "github", "bytes_saved")).getCount()).isEqualTo(2400);
+  }
+
+  @Test
+  public void testResponseWithoutValidatorsNotCached() {
+    cache.put("/repos/moxie0/test", "\"abc\"", null, new Object(), 10);
+    cache.put("/repos/moxie0/test", null, null, new Object(), 10);
+
+    assertThat(cache.get("/repos/moxie0/test")).isNull();
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEvicted() {
+    cache.put("/a", "\"a\"", null, new Object(), 10);
+    cache.put("/b", "\"b\"", null, new Object(), 10);
+
+    cache.get("/a");
+    cache.put("/c", "\"c\"", null, new Object(), 10);
+
+    assertThat(cache.get("/a")).isNotNull();
+    assertThat(cache.get("/b")).isNull();
+    assertThat(cache.get("/c")).isNotNull();
+  }
+
+}
@@ -20,19 +20,41 @@ package org.whispersystems.bithub.tests.controllers;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.core.util.MultivaluedMapImpl;
 import org.apache.commons.codec.binary.Base64;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.whispersystems.bithub.auth.GithubWebhookAuthenticator;
+import org.whispersystems.bithub.auth.TrustedNetworks;
 import org.whispersystems.bithub.client.CoinbaseClient;
+import org.whispersystems.bithub.client.ExchangeRateService;
 import org.whispersystems.bithub.client.GithubClient;
 import org.whispersystems.bithub.client.TransferFailedException;
+import org.whispersystems.bithub.config.BatchConfiguration;
+import org.whispersystems.bithub.config.CommentConfiguration;
+import org.whispersystems.bithub.config.DeduplicationConfiguration;
+import org.whispersystems.bithub.config.IntakeConfiguration;
+import org.whispersystems.bithub.config.LedgerConfiguration;
 import org.whispersystems.bithub.config.RepositoryConfiguration;
+import org.whispersystems.bithub.config.TrustedNetworkConfiguration;
 import org.whispersystems.bithub.controllers.GithubController;
 import org.whispersystems.bithub.entities.Author;
 import org.whispersystems.bithub.mappers.UnauthorizedHookExceptionMapper;
+import org.whispersystems.bithub.payouts.CommitCommentQueue;
+import org.whispersystems.bithub.payouts.PaymentListener;
+import org.whispersystems.bithub.payouts.PaymentOutbox;
+import org.whispersystems.bithub.payouts.PayoutBatcher;
+import org.whispersystems.bithub.payouts.PushEventProcessor;
+import org.whispersystems.bithub.payouts.PushEventQueue;
+import org.whispersystems.bithub.storage.BalanceLedger;
+import org.whispersystems.bithub.storage.CommitDescriptionCache;
+import org.whispersystems.bithub.storage.DuplicateFilter;
+import org.whispersystems.bithub.storage.PushEventJournal;
 
 import javax.ws.rs.core.MediaType;
+import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigDecimal;
 import java.util.LinkedList;
@@ -41,6 +63,8 @@ import java.util.Scanner;
 
 import io.dropwizard.auth.basic.BasicAuthProvider;
 import io.dropwizard.testing.junit.ResourceTestRule;
+import io.dropwizard.util.Duration;
+
 import static org.fest.assertions.api.Assertions.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
@@ -49,11 +73,13 @@ import static org.mockito.Mockito.*;
 
 public class GithubControllerTest {
 
-  private static final BigDecimal BALANCE = new BigDecimal(10.01);
+  private static final BigDecimal BALANCE = new BigDecimal("10.01000000");
   private static final BigDecimal EXCHANGE_RATE = new BigDecimal(1.0);
 
-  private final CoinbaseClient coinbaseClient = mock(CoinbaseClient.class);
-  private final GithubClient   githubClient   = mock(GithubClient.class);
+  private final CoinbaseClient   coinbaseClient = mock(CoinbaseClient.class);
+  private final GithubClient     githubClient   = mock(GithubClient.class);
+  private final PushEventJournal journal        = mock(PushEventJournal.class);
+  private final PaymentOutbox    outbox         = mock(PaymentOutbox.class);
 
   // HTTP Basic Authentication data
   private final String authUsername = "TestUser";
@@ -68,18 +94,52 @@ public class GithubControllerTest {
     add(new RepositoryConfiguration("https://github.com/moxie0/optin", "FREEBIE"));
   }};
 
+  private final MetricRegistry  metricRegistry = new MetricRegistry();
+  private final DuplicateFilter deliveryFilter = new DuplicateFilter("deliveries", new DeduplicationConfiguration(), metricRegistry);
+  private final DuplicateFilter commitFilter   = new DuplicateFilter("commits", new DeduplicationConfiguration(), metricRegistry);
+
+  private final CommitCommentQueue commentQueue = new CommitCommentQueue(githubClient, new CommentConfiguration(10, 1), metricRegistry);
+
+  private final BalanceLedger       balanceLedger = new BalanceLedger(coinbaseClient, new LedgerConfiguration(), metricRegistry);
+  private final ExchangeRateService exchangeRates = new ExchangeRateService(coinbaseClient, Duration.minutes(1), metricRegistry);
+
+  private final PayoutBatcher  payoutBatcher  = new PayoutBatcher(coinbaseClient, exchangeRates, balanceLedger, commentQueue, outbox, mock(PaymentListener.class), journal, new BigDecimal(0.02),
+                                                                 new BatchConfiguration(Duration.milliseconds(10), 50, 1),
+                                                                 metricRegistry);
+  private final PushEventQueue pushEventQueue = new PushEventQueue(new PushEventProcessor(payoutBatcher, commentQueue, journal, commitFilter,
+                                                                                          mock(CommitDescriptionCache.class),
+                                                                                          new CommentConfiguration()),
+                                                                  journal, new IntakeConfiguration(false, 10, 1, 1, Duration.seconds(1)),
+                                                                  metricRegistry);
+
   @Rule
   public final ResourceTestRule resources = ResourceTestRule.builder()
                                                             .addProvider(new UnauthorizedHookExceptionMapper())
                                                             .addProvider(new BasicAuthProvider<>(new GithubWebhookAuthenticator(authUsername, authPassword), authRealm))
-                                                            .addResource(new GithubController(repositories, githubClient, coinbaseClient, new BigDecimal(0.02)))
+                                                            .addResource(new GithubController(repositories, trustedNetworks(), pushEventQueue, deliveryFilter))
                                                             .build();
 
 
   @Before
   public void setup() throws Exception, TransferFailedException {
     when(coinbaseClient.getAccountBalance()).thenReturn(BALANCE);
-    when(coinbaseClient.getExchangeRate()).thenReturn(EXCHANGE_RATE);
+    when(coinbaseClient.getExchangeRates()).thenReturn(ImmutableMap.of(ExchangeRateService.BTC_TO_USD, EXCHANGE_RATE));
+    commentQueue.start();
+    payoutBatcher.start();
+  }
+
+  @After
+  public void teardown() throws Exception {
+    payoutBatcher.stop();
+    commentQueue.stop();
+  }
+
+  private static TrustedNetworks trustedNetworks() {
+    try {
+      return new TrustedNetworks(new TrustedNetworkConfiguration());
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
   }
 
   protected String payload(String path) {
@@ -102,6 +162,19 @@ public class GithubControllerTest {
     assertThat(response.getStatus()).isEqualTo(401);
   }
 
+  @Test
+  public void testMissingRepositoryUrl() throws Exception {
+    MultivaluedMapImpl post = new MultivaluedMapImpl();
+    post.add("payload", "{\"ref\": \"refs/heads/master\", \"repository\": {\"name\": \"test\"}, \"commits\": []}");
+    ClientResponse response = resources.client().resource("/v1/github/commits/")
+        .header("X-Forwarded-For", "192.30.252.1")
+        .header("Authorization", authString)
+        .type(MediaType.APPLICATION_FORM_URLENCODED_TYPE)
+        .post(ClientResponse.class, post);
+
+    assertThat(response.getStatus()).isEqualTo(401);
+  }
+
   @Test
   public void testInvalidOrigin() throws Exception {
     String payloadValue = payload("/payloads/invalid_origin.json");
@@ -116,6 +189,20 @@ public class GithubControllerTest {
     assertThat(response.getStatus()).isEqualTo(401);
   }
 
+  @Test
+  public void testForgedForwardedFor() throws Exception {
+    String payloadValue = payload("/payloads/valid_commit.json");
+    MultivaluedMapImpl post = new MultivaluedMapImpl();
+    post.add("payload", payloadValue);
+    ClientResponse response = resources.client().resource("/v1/github/commits/")
+        .header("X-Forwarded-For", "192.30.252.1, 192.30.242.1")
+        .header("Authorization", authString)
+        .type(MediaType.APPLICATION_FORM_URLENCODED_TYPE)
+        .post(ClientResponse.class, post);
+
+    assertThat(response.getStatus()).isEqualTo(401);
+  }
+
   @Test
   public void testMissingAuth() throws Exception, TransferFailedException {
       String payloadValue = payload("/payloads/valid_commit.json");
@@ -170,7 +257,7 @@ public class GithubControllerTest {
 
     verify(coinbaseClient, never()).sendPayment(any(Author.class),
                                        any(BigDecimal.class),
-                                       anyString());
+                                       anyString(), anyString());
   }
 
   @Test
@@ -185,8 +272,8 @@ public class GithubControllerTest {
         .post(ClientResponse.class, post);
 
     verify(coinbaseClient).sendPayment(any(Author.class),
-                                       eq(BALANCE.multiply(new BigDecimal(0.02))),
-                                       anyString());
+                                       eq(new BigDecimal("0.20020000")),
+                                       anyString(), anyString());
   }
 
   @Test
@@ -201,8 +288,8 @@ public class GithubControllerTest {
         .post(ClientResponse.class, post);
 
     verify(coinbaseClient, never()).sendPayment(any(Author.class),
-                                       eq(BALANCE.multiply(new BigDecimal(0.02))),
-                                       anyString());
+                                       eq(new BigDecimal("0.20020000")),
+                                       anyString(), anyString());
   }
 
   @Test
@@ -216,10 +303,10 @@ public class GithubControllerTest {
         .type(MediaType.APPLICATION_FORM_URLENCODED_TYPE)
         .post(ClientResponse.class, post);
 
-    verify(coinbaseClient, times(1)).sendPayment(any(Author.class), eq(BALANCE.multiply(new BigDecimal(0.02))),
-        anyString());
-    verify(coinbaseClient, times(1)).sendPayment(any(Author.class), eq(BALANCE.subtract(BALANCE.multiply(new BigDecimal(0.02)))
-        .multiply(new BigDecimal(0.02))), anyString());
+    verify(coinbaseClient, times(1)).sendPayment(any(Author.class), eq(new BigDecimal("0.20020000")),
+        anyString(), anyString());
+    verify(coinbaseClient, times(1)).sendPayment(any(Author.class), eq(new BigDecimal("0.19619600")),
+                                                anyString(), anyString());
   }
 
   @Test
@@ -234,8 +321,8 @@ public class GithubControllerTest {
         .post(ClientResponse.class, post);
 
     verify(coinbaseClient).sendPayment(any(Author.class),
-                                       eq(BALANCE.multiply(new BigDecimal(0.02))),
-                                       anyString());
+                                       eq(new BigDecimal("0.20020000")),
+                                       anyString(), anyString());
   }
 
   @Test
@@ -251,8 +338,49 @@ public class GithubControllerTest {
 
     verify(coinbaseClient, never()).sendPayment(any(Author.class),
                                                 any(BigDecimal.class),
-                                                anyString());
+                                                anyString(), anyString());
   }
 
+  @Test
+  public void testDuplicateDelivery() throws Exception, TransferFailedException {
+    String payloadValue = payload("/payloads/valid_commit.json");
+    MultivaluedMapImpl post = new MultivaluedMapImpl();
+    post.add("payload", payloadValue);
+
+    for (int i=0;i<2;i++) {
+      ClientResponse response = resources.client().resource("/v1/github/commits/")
+          .header("X-Forwarded-For", "192.30.252.1")
+          .header("X-GitHub-Delivery", "72d3162e-cc78-11e3-81ab-4c9367dc0958")
+          .header("Authorization", authString)
+          .type(MediaType.APPLICATION_FORM_URLENCODED_TYPE)
+          .post(ClientResponse.class, post);
+
+      assertThat(response.getStatus()).isEqualTo(204);
+    }
+
+    verify(coinbaseClient, times(1)).getAccountBalance();
+    verify(coinbaseClient, times(1)).sendPayment(any(Author.class),
+                                                 eq(new BigDecimal("0.20020000")),
+                                                 anyString(), anyString());
+  }
+
+  @Test
+  public void testDuplicateCommit() throws Exception, TransferFailedException {
+    String payloadValue = payload("/payloads/valid_commit.json");
+    MultivaluedMapImpl post = new MultivaluedMapImpl();
+    post.add("payload", payloadValue);
+
+    for (String delivery : new String[] {"first-delivery", "second-delivery"}) {
+      resources.client().resource("/v1/github/commits/")
+          .header("X-Forwarded-For", "192.30.252.1")
+          .header("X-GitHub-Delivery", delivery)
+          .header("Authorization", authString)
+          .type(MediaType.APPLICATION_FORM_URLENCODED_TYPE)
+          .post(ClientResponse.class, post);
+    }
+
+    verify(coinbaseClient, times(1)).getAccountBalance();
+    verify(coinbaseClient, times(1)).sendPayment(any(Author.class), any(BigDecimal.class), anyString(), anyString());
+  }
 
 }
@@ -1,22 +1,34 @@
 package org.whispersystems.bithub.tests.controllers;
 
+import com.codahale.metrics.MetricRegistry;
 import com.coinbase.api.ObjectMapperProvider;
 import com.coinbase.api.entity.TransactionsResponse;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
 import com.sun.jersey.api.client.ClientResponse;
 import org.junit.ClassRule;
 import org.junit.Test;
 import org.whispersystems.bithub.client.CoinbaseClient;
+import org.whispersystems.bithub.client.ExchangeRateService;
 import org.whispersystems.bithub.client.GithubClient;
+import org.whispersystems.bithub.config.CacheConfiguration;
+import org.whispersystems.bithub.config.HistoryConfiguration;
+import org.whispersystems.bithub.config.LedgerConfiguration;
 import org.whispersystems.bithub.config.RepositoryConfiguration;
 import org.whispersystems.bithub.controllers.StatusController;
+import org.whispersystems.bithub.storage.BalanceLedger;
 import org.whispersystems.bithub.storage.CacheManager;
+import org.whispersystems.bithub.storage.CommitDescriptionCache;
+import org.whispersystems.bithub.storage.TransactionHistory;
 
 import javax.ws.rs.core.MediaType;
+import java.io.File;
 import java.math.BigDecimal;
 import java.util.LinkedList;
 
 import io.dropwizard.testing.junit.ResourceTestRule;
+import io.dropwizard.util.Duration;
+
 import static org.fest.assertions.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -37,13 +49,24 @@ public class StatusControllerTest {
     try {
       ObjectMapper objectMapper = ObjectMapperProvider.createDefaultMapper();
       TransactionsResponse transactionsResponse = objectMapper.readValue(StatusControllerTest.class.getResourceAsStream("/payloads/transactions.json"), TransactionsResponse.class);
-      when(coinbaseClient.getRecentTransactions()).thenReturn(transactionsResponse.getTransactions());
+      when(coinbaseClient.getTransactions(1)).thenReturn(transactionsResponse);
       when(coinbaseClient.getAccountBalance()).thenReturn(BALANCE);
-      when(coinbaseClient.getExchangeRate()).thenReturn(EXCHANGE_RATE);
+      when(coinbaseClient.getExchangeRates()).thenReturn(ImmutableMap.of(ExchangeRateService.BTC_TO_USD, EXCHANGE_RATE));
+
+      BalanceLedger       balanceLedger = new BalanceLedger(coinbaseClient, new LedgerConfiguration(), new MetricRegistry());
+      ExchangeRateService exchangeRates = new ExchangeRateService(coinbaseClient, Duration.minutes(1), new MetricRegistry());
+
+      File history = File.createTempFile("transactions", ".json");
+      history.delete();
+      history.deleteOnExit();
+
+      TransactionHistory transactions = new TransactionHistory(coinbaseClient, githubClient,
+                                                               mock(CommitDescriptionCache.class),
+                                                               new HistoryConfiguration(history.getAbsolutePath()));
 
-      CacheManager coinbaseManager = new CacheManager(coinbaseClient, githubClient,
+      CacheManager coinbaseManager = new CacheManager(exchangeRates, balanceLedger, transactions, githubClient,
                                                       new LinkedList<RepositoryConfiguration>(),
-                                                      PAYOUT_RATE);
+                                                      PAYOUT_RATE, new CacheConfiguration(), new MetricRegistry());
       coinbaseManager.start();
 
       resources = ResourceTestRule.builder()
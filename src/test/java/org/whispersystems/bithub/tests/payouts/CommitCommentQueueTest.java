@@ -0,0 +1,97 @@
+package org.whispersystems.bithub.tests.payouts;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.whispersystems.bithub.client.GithubClient;
+import org.whispersystems.bithub.config.CommentConfiguration;
+import org.whispersystems.bithub.entities.Author;
+import org.whispersystems.bithub.entities.Commit;
+import org.whispersystems.bithub.entities.Repository;
+import org.whispersystems.bithub.payouts.CommitCommentQueue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CommitCommentQueueTest {
+
+  private final GithubClient   githubClient   = mock(GithubClient.class);
+  private final MetricRegistry metricRegistry = new MetricRegistry();
+  private final CountDownLatch release        = new CountDownLatch(1);
+  private final Repository     repository     = new Repository("https://github.com/moxie0/test", "test",
+                                                               new Author("moxie0", null, null));
+
+  private final CommitCommentQueue queue = new CommitCommentQueue(githubClient, new CommentConfiguration(1, 1),
+                                                                  metricRegistry);
+
+  @After
+  public void teardown() throws Exception {
+    release.countDown();
+    queue.stop();
+  }
+
+  @Test
+  public void testCommentsPostedInOrder() throws Exception {
+    CommitCommentQueue ordered = new CommitCommentQueue(githubClient, new CommentConfiguration(10, 4), new MetricRegistry());
+    Commit             first   = commit("a");
+    Commit             second  = commit("b");
+
+    when(githubClient.addCommitComment(any(Repository.class), any(Commit.class), anyString())).thenReturn(true);
+
+    ordered.start();
+    assertThat(ordered.enqueue(repository, first, "first")).isTrue();
+    assertThat(ordered.enqueue(repository, second, "second")).isTrue();
+    ordered.stop();
+
+    InOrder inOrder = inOrder(githubClient);
+    inOrder.verify(githubClient).addCommitComment(repository, first, "first");
+    inOrder.verify(githubClient).addCommitComment(repository, second, "second");
+  }
+
+  @Test
+  public void testFullQueueDrops() throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+
+    when(githubClient.addCommitComment(any(Repository.class), any(Commit.class), anyString())).thenAnswer(new Answer<Boolean>() {
+      @Override
+      public Boolean answer(InvocationOnMock invocation) throws Throwable {
+        started.countDown();
+        release.await();
+        return false;
+      }
+    });
+
+    queue.start();
+
+    assertThat(queue.enqueue(repository, commit("a"), "a")).isTrue();
+    assertThat(started.await(1, TimeUnit.SECONDS)).isTrue();
+    Commit queued = commit("b");
+
+    assertThat(queue.enqueue(repository, queued, "b")).isTrue();
+    assertThat(queue.enqueue(repository, commit("c"), "c")).isFalse();
+
+    assertThat(metricRegistry.getGauges().get(name(CommitCommentQueue.class, "backlog")).getValue()).isEqualTo(1);
+    assertThat(metricRegistry.meter(name(CommitCommentQueue.class, "dropped")).getCount()).isEqualTo(1);
+
+    release.countDown();
+    queue.stop();
+
+    verify(githubClient).addCommitComment(repository, queued, "b");
+  }
+
+  private Commit commit(String sha) {
+    return new Commit(sha, "Fix", null, "https://github.com/moxie0/test/commit/" + sha);
+  }
+}
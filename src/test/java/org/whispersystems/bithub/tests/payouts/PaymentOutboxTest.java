@@ -0,0 +1,194 @@
+package org.whispersystems.bithub.tests.payouts;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.whispersystems.bithub.client.DependencyUnavailableException;
+import org.whispersystems.bithub.client.PaymentBackend;
+import org.whispersystems.bithub.client.TransferFailedException;
+import org.whispersystems.bithub.config.OutboxConfiguration;
+import org.whispersystems.bithub.entities.Author;
+import org.whispersystems.bithub.entities.Commit;
+import org.whispersystems.bithub.entities.Repository;
+import org.whispersystems.bithub.payouts.CommitCommentQueue;
+import org.whispersystems.bithub.payouts.PaymentListener;
+import org.whispersystems.bithub.payouts.PaymentOutbox;
+import org.whispersystems.bithub.payouts.PayoutState;
+import org.whispersystems.bithub.payouts.PendingTransfer;
+import org.whispersystems.bithub.storage.BalanceLedger;
+import org.whispersystems.bithub.storage.PushEventJournal;
+import org.whispersystems.bithub.util.Satoshis;
+
+import java.io.File;
+import java.math.BigDecimal;
+
+import io.dropwizard.util.Duration;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class PaymentOutboxTest {
+
+  private final PaymentBackend     paymentBackend = mock(PaymentBackend.class);
+  private final BalanceLedger      balanceLedger  = mock(BalanceLedger.class);
+  private final CommitCommentQueue commentQueue   = mock(CommitCommentQueue.class);
+  private final PaymentListener    listener       = mock(PaymentListener.class);
+  private final PushEventJournal   journal        = mock(PushEventJournal.class);
+  private final MetricRegistry     metricRegistry = new MetricRegistry();
+
+  private File          directory;
+  private PaymentOutbox outbox;
+
+  @Before
+  public void setup() throws Exception {
+    directory = Files.createTempDir();
+    outbox    = outbox(3, new MetricRegistry());
+    outbox.start();
+  }
+
+  @After
+  public void teardown() throws Exception {
+    outbox.stop();
+
+    for (File file : failedDirectory().listFiles()) file.delete();
+    for (File file : directory.listFiles())         file.delete();
+    directory.delete();
+  }
+
+  @Test
+  public void testTransferRecoveredAfterRestart() throws Exception {
+    PendingTransfer transfer = transfer("a");
+
+    outbox.add(transfer);
+    outbox.stop();
+
+    PaymentOutbox restarted = outbox(3, metricRegistry);
+    restarted.start();
+
+    assertThat(restarted.getBacklog()).isEqualTo(1);
+    assertThat(metricRegistry.getGauges().get(name(PaymentOutbox.class, "backlog")).getValue()).isEqualTo(1);
+    assertThat((Long)metricRegistry.getGauges().get(name(PaymentOutbox.class, "oldest_age_millis")).getValue()).isGreaterThanOrEqualTo(0L);
+
+    verify(balanceLedger).reserve(Satoshis.valueOf(50000000));
+
+    restarted.retryDue();
+
+    verify(paymentBackend).sendPayment(any(Author.class), eq(new BigDecimal("0.5")), anyString(), eq("a"));
+    verify(balanceLedger).settle(Satoshis.valueOf(50000000));
+    verify(commentQueue).enqueue(any(Repository.class), any(Commit.class), eq("Thanks!"));
+    verify(listener).paymentSent(any(PendingTransfer.class));
+
+    assertThat(restarted.getBacklog()).isEqualTo(0);
+    assertThat(directory.list()).containsOnly("failed");
+
+    restarted.stop();
+  }
+
+  @Test
+  public void testCompletedTransferRemoved() throws Exception {
+    PendingTransfer transfer = transfer("a");
+
+    outbox.add(transfer);
+    outbox.remove(transfer);
+
+    assertThat(outbox.getBacklog()).isEqualTo(0);
+    assertThat(directory.list()).containsOnly("failed");
+  }
+
+  @Test
+  public void testInFlightTransferNotRetried() throws Exception {
+    outbox.add(transfer("a"));
+    outbox.retryDue();
+
+    verify(paymentBackend, never()).sendPayment(any(Author.class), any(BigDecimal.class), anyString(), anyString());
+  }
+
+  @Test
+  public void testFailedRetryBacksOffThenAbandons() throws Exception {
+    PendingTransfer transfer = transfer("a");
+
+    doThrow(new TransferFailedException()).when(paymentBackend)
+                                          .sendPayment(any(Author.class), any(BigDecimal.class), anyString(), anyString());
+
+    outbox.add(transfer);
+    outbox.retryLater(transfer);
+
+    assertThat(transfer.getAttempts()).isEqualTo(1);
+
+    outbox.retryDue();
+
+    assertThat(transfer.getAttempts()).isEqualTo(2);
+    assertThat(outbox.getBacklog()).isEqualTo(1);
+
+    outbox.retryDue();
+
+    assertThat(outbox.getBacklog()).isEqualTo(0);
+    assertThat(directory.list()).containsOnly("failed");
+    assertThat(failedDirectory().list()).containsOnly("a.json");
+
+    verify(paymentBackend, times(2)).sendPayment(any(Author.class), any(BigDecimal.class), anyString(), eq("a"));
+    verify(balanceLedger, times(2)).markStale();
+    verify(balanceLedger, never()).settle(any(Satoshis.class));
+    verify(balanceLedger).release(Satoshis.valueOf(50000000));
+    verify(journal).recordPayout("job", "a", PayoutState.FAILED);
+    verify(commentQueue).enqueue(any(Repository.class), any(Commit.class), contains("unable to send"));
+    verify(listener, never()).paymentSent(any(PendingTransfer.class));
+  }
+
+  @Test
+  public void testRefusedBackendDefersPass() throws Exception {
+    PendingTransfer first  = transfer("a");
+    PendingTransfer second = transfer("b");
+
+    doThrow(new TransferFailedException(new DependencyUnavailableException("circuit is open")))
+        .when(paymentBackend).sendPayment(any(Author.class), any(BigDecimal.class), anyString(), anyString());
+
+    outbox.add(first);
+    outbox.retryLater(first);
+    outbox.add(second);
+    outbox.retryLater(second);
+
+    outbox.retryDue();
+
+    verify(paymentBackend, times(1)).sendPayment(any(Author.class), any(BigDecimal.class), anyString(), anyString());
+
+    doNothing().when(paymentBackend).sendPayment(any(Author.class), any(BigDecimal.class), anyString(), anyString());
+
+    outbox.retryDue();
+
+    assertThat(outbox.getBacklog()).isEqualTo(0);
+  }
+
+  private PaymentOutbox outbox(int maxAttempts, MetricRegistry metricRegistry) {
+    return new PaymentOutbox(paymentBackend, balanceLedger, commentQueue, listener, journal,
+                             new OutboxConfiguration(directory.getAbsolutePath(), Duration.hours(1),
+                                                     Duration.milliseconds(0), Duration.milliseconds(0),
+                                                     maxAttempts),
+                             metricRegistry);
+  }
+
+  private PendingTransfer transfer(String sha) {
+    Author     author     = new Author("Moxie", "moxie@thoughtcrime.org", "moxie0");
+    Repository repository = new Repository("https://github.com/moxie0/test", "test", author);
+    Commit     commit     = new Commit(sha, "Fix", author, "https://github.com/moxie0/test/commit/" + sha);
+
+    return new PendingTransfer("job", repository, commit, new BigDecimal("0.5"), "Thanks!");
+  }
+
+  private File failedDirectory() {
+    return new File(directory, "failed");
+  }
+}
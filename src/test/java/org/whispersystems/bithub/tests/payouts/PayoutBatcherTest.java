@@ -0,0 +1,237 @@
+package org.whispersystems.bithub.tests.payouts;
+
+import com.codahale.metrics.MetricRegistry;
+import com.coinbase.api.exception.CoinbaseException;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.whispersystems.bithub.client.CoinbaseClient;
+import org.whispersystems.bithub.client.ExchangeRateService;
+import org.whispersystems.bithub.client.TransferFailedException;
+import org.whispersystems.bithub.config.BatchConfiguration;
+import org.whispersystems.bithub.config.LedgerConfiguration;
+import org.whispersystems.bithub.entities.Author;
+import org.whispersystems.bithub.entities.Commit;
+import org.whispersystems.bithub.entities.PushEvent;
+import org.whispersystems.bithub.entities.Repository;
+import org.whispersystems.bithub.payouts.CommitCommentQueue;
+import org.whispersystems.bithub.payouts.PaymentListener;
+import org.whispersystems.bithub.payouts.PaymentOutbox;
+import org.whispersystems.bithub.payouts.PayoutBatcher;
+import org.whispersystems.bithub.payouts.PayoutResult;
+import org.whispersystems.bithub.payouts.PayoutState;
+import org.whispersystems.bithub.payouts.PendingTransfer;
+import org.whispersystems.bithub.payouts.PushEventJob;
+import org.whispersystems.bithub.storage.BalanceLedger;
+import org.whispersystems.bithub.storage.PushEventJournal;
+import org.whispersystems.bithub.util.Satoshis;
+
+import java.math.BigDecimal;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import io.dropwizard.util.Duration;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PayoutBatcherTest {
+
+  private static final Satoshis   BALANCE     = Satoshis.valueOf(10 * Satoshis.PER_BTC);
+  private static final BigDecimal PAYOUT_RATE = new BigDecimal("0.10");
+
+  private final CoinbaseClient      coinbaseClient = mock(CoinbaseClient.class);
+  private final ExchangeRateService exchangeRates  = mock(ExchangeRateService.class);
+  private final CommitCommentQueue  commentQueue   = mock(CommitCommentQueue.class);
+  private final PushEventJournal    journal        = mock(PushEventJournal.class);
+  private final BalanceLedger       balanceLedger  = mock(BalanceLedger.class);
+  private final PaymentOutbox       outbox         = mock(PaymentOutbox.class);
+  private final PaymentListener     listener       = mock(PaymentListener.class);
+
+  private final PayoutBatcher batcher = new PayoutBatcher(coinbaseClient, exchangeRates, balanceLedger, commentQueue, outbox, listener, journal, PAYOUT_RATE,
+                                                          new BatchConfiguration(Duration.milliseconds(500), 2, 2),
+                                                          new MetricRegistry());
+
+  @Before
+  public void setup() throws Exception {
+    when(balanceLedger.getBalance()).thenReturn(BALANCE);
+    when(exchangeRates.getExchangeRate()).thenReturn(BigDecimal.ONE);
+    batcher.start();
+  }
+
+  @After
+  public void teardown() throws Exception {
+    batcher.stop();
+  }
+
+  @Test
+  public void testPayoutsCoalesced() throws Exception {
+    PushEventJob first  = job("a");
+    PushEventJob second = job("b");
+
+    ListenableFuture<PayoutResult> firstPayout  = batcher.submit(first, first.getEvent().getCommits().get(0));
+    ListenableFuture<PayoutResult> secondPayout = batcher.submit(second, second.getEvent().getCommits().get(0));
+
+    assertThat(firstPayout.get(1, TimeUnit.SECONDS).getState()).isEqualTo(PayoutState.SENT);
+    assertThat(secondPayout.get(1, TimeUnit.SECONDS).getState()).isEqualTo(PayoutState.SENT);
+    assertThat(secondPayout.get().getPaymentUsd()).isEqualTo("0.90");
+
+    verify(balanceLedger, times(1)).getBalance();
+    verify(exchangeRates, times(1)).getExchangeRate();
+    verify(coinbaseClient).sendPayment(any(Author.class), eq(new BigDecimal("1.00000000")), anyString(), eq("a"));
+    verify(coinbaseClient).sendPayment(any(Author.class), eq(new BigDecimal("0.90000000")), anyString(), eq("b"));
+    verify(journal).recordPayout(first, "a", PayoutState.SENT);
+    verify(journal).recordPayout(second, "b", PayoutState.SENT);
+    verify(balanceLedger).debit(Satoshis.valueOf(100000000));
+    verify(balanceLedger).debit(Satoshis.valueOf(90000000));
+    verify(commentQueue, times(2)).enqueue(any(Repository.class), any(Commit.class), anyString());
+    verify(outbox, times(2)).add(any(PendingTransfer.class));
+    verify(outbox, times(2)).remove(any(PendingTransfer.class));
+    verify(outbox, never()).retryLater(any(PendingTransfer.class));
+    verify(listener, times(2)).paymentSent(any(PendingTransfer.class));
+  }
+
+  @Test
+  public void testFailedTransfer() throws Exception {
+    PushEventJob job = job("a");
+
+    doThrow(new TransferFailedException()).when(coinbaseClient)
+                                          .sendPayment(any(Author.class), any(BigDecimal.class), anyString(), anyString());
+
+    assertThat(batcher.submit(job, job.getEvent().getCommits().get(0)).get(1, TimeUnit.SECONDS).getState())
+        .isEqualTo(PayoutState.RETRYING);
+
+    ArgumentCaptor<PendingTransfer> transfer = ArgumentCaptor.forClass(PendingTransfer.class);
+
+    verify(journal).recordPayout(job, "a", PayoutState.RETRYING);
+    verify(outbox).add(transfer.capture());
+    verify(outbox).retryLater(transfer.getValue());
+    verify(outbox, never()).remove(any(PendingTransfer.class));
+    verify(balanceLedger).markStale();
+    verify(balanceLedger).reserve(Satoshis.valueOf(100000000));
+    verify(balanceLedger, never()).debit(any(Satoshis.class));
+    verify(commentQueue, never()).enqueue(any(Repository.class), any(Commit.class), anyString());
+    verify(listener, never()).paymentSent(any(PendingTransfer.class));
+  }
+
+  @Test
+  public void testBalanceFailure() throws Exception {
+    PushEventJob job = job("a");
+
+    when(balanceLedger.getBalance()).thenThrow(new CoinbaseException("down"));
+
+    try {
+      batcher.submit(job, job.getEvent().getCommits().get(0)).get(1, TimeUnit.SECONDS);
+      fail("Expected failure");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause()).isInstanceOf(CoinbaseException.class);
+    }
+
+    verify(coinbaseClient, never()).sendPayment(any(Author.class), any(BigDecimal.class), anyString(), anyString());
+  }
+
+  @Test
+  public void testInterruptedFlushFailsPayouts() throws Exception {
+    final CountDownLatch sending = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    PushEventJob         job     = job("a");
+
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        sending.countDown();
+        Uninterruptibles.awaitUninterruptibly(release);
+        return null;
+      }
+    }).when(coinbaseClient).sendPayment(any(Author.class), any(BigDecimal.class), anyString(), anyString());
+
+    ListenableFuture<PayoutResult> payout = batcher.submit(job, job.getEvent().getCommits().get(0));
+
+    assertThat(sending.await(1, TimeUnit.SECONDS)).isTrue();
+
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().equals("payout-batcher")) thread.interrupt();
+    }
+
+    assertThat(payout.get(1, TimeUnit.SECONDS).getState()).isEqualTo(PayoutState.FAILED);
+    release.countDown();
+  }
+
+  @Test
+  public void testConcurrentSubmissionsPaySequentially() throws Exception {
+    CoinbaseClient coinbase = mock(CoinbaseClient.class);
+    BalanceLedger  ledger   = new BalanceLedger(coinbase, new LedgerConfiguration(), new MetricRegistry());
+    final PayoutBatcher serial = new PayoutBatcher(coinbase, exchangeRates, ledger, commentQueue, outbox, listener, journal, new BigDecimal("0.5"),
+                                                      new BatchConfiguration(Duration.milliseconds(50), 2, 2),
+                                                      new MetricRegistry());
+
+    when(coinbase.getAccountBalance()).thenReturn(BigDecimal.ONE);
+
+    serial.start();
+
+    final List<ListenableFuture<PayoutResult>> payouts = new Vector<>();
+    List<Thread>                              threads = new LinkedList<>();
+
+    for (int i=0;i<4;i++) {
+      final PushEventJob job = job(String.valueOf(i));
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          payouts.add(serial.submit(job, job.getEvent().getCommits().get(0)));
+        }
+      });
+    }
+
+    for (Thread thread : threads) thread.start();
+    for (Thread thread : threads) thread.join();
+
+    for (ListenableFuture<PayoutResult> payout : payouts) {
+      assertThat(payout.get(1, TimeUnit.SECONDS).getState()).isEqualTo(PayoutState.SENT);
+    }
+
+    serial.stop();
+
+    ArgumentCaptor<BigDecimal> amounts = ArgumentCaptor.forClass(BigDecimal.class);
+    verify(coinbase, times(4)).sendPayment(any(Author.class), amounts.capture(), anyString(), anyString());
+
+    BigDecimal total = BigDecimal.ZERO;
+
+    for (BigDecimal amount : amounts.getAllValues()) {
+      total = total.add(amount);
+    }
+
+    assertThat(new HashSet<>(amounts.getAllValues())).hasSize(4);
+    assertThat(total.compareTo(new BigDecimal("0.9375"))).isEqualTo(0);
+    verify(coinbase, times(1)).getAccountBalance();
+  }
+
+  private PushEventJob job(String sha) {
+    Author             author     = new Author("Moxie", sha + "@example.com", "moxie0");
+    Repository         repository = new Repository("https://github.com/moxie0/test", "test", author);
+    LinkedList<Commit> commits    = new LinkedList<>();
+
+    commits.add(new Commit(sha, "Fix", author, "https://github.com/moxie0/test/commit/" + sha));
+
+    return new PushEventJob(new PushEvent("refs/heads/master", sha, repository, commits), "MONEYMONEY");
+  }
+}
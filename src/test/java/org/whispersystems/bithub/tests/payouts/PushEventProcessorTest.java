@@ -0,0 +1,171 @@
+package org.whispersystems.bithub.tests.payouts;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.whispersystems.bithub.config.CommentConfiguration;
+import org.whispersystems.bithub.config.DeduplicationConfiguration;
+import org.whispersystems.bithub.entities.Author;
+import org.whispersystems.bithub.entities.Commit;
+import org.whispersystems.bithub.entities.PushEvent;
+import org.whispersystems.bithub.entities.Repository;
+import org.whispersystems.bithub.payouts.CommitCommentQueue;
+import org.whispersystems.bithub.payouts.PayoutBatcher;
+import org.whispersystems.bithub.payouts.PayoutResult;
+import org.whispersystems.bithub.payouts.PayoutState;
+import org.whispersystems.bithub.payouts.PushEventJob;
+import org.whispersystems.bithub.payouts.PushEventProcessor;
+import org.whispersystems.bithub.storage.CommitDescriptionCache;
+import org.whispersystems.bithub.storage.DuplicateFilter;
+import org.whispersystems.bithub.storage.PushEventJournal;
+
+import java.io.IOException;
+import java.util.LinkedList;
+
+import io.dropwizard.util.Duration;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PushEventProcessorTest {
+
+  private final PayoutBatcher      payoutBatcher = mock(PayoutBatcher.class);
+  private final CommitCommentQueue commentQueue  = mock(CommitCommentQueue.class);
+  private final PushEventJournal   journal       = mock(PushEventJournal.class);
+
+  private final Author     alice      = new Author("Alice", "alice@example.com", "alice");
+  private final Author     bob        = new Author("Bob", "bob@example.com", "bob");
+  private final Repository repository = new Repository("https://github.com/moxie0/test", "test", alice);
+  private final Commit     first      = new Commit("aaaaaaaa", "Fix", alice, "https://github.com/moxie0/test/commit/aaaaaaaa");
+  private final Commit     second     = new Commit("bbbbbbbb", "Fix", bob, "https://github.com/moxie0/test/commit/bbbbbbbb");
+
+  @Test
+  public void testSummaryCommentOnHead() throws Exception {
+    PushEventJob job = job();
+
+    when(payoutBatcher.submit(job, first, false)).thenReturn(Futures.immediateFuture(new PayoutResult(first, PayoutState.SENT, "1.00")));
+    when(payoutBatcher.submit(job, second, false)).thenReturn(Futures.immediateFuture(new PayoutResult(second, PayoutState.SKIPPED, "0.00")));
+
+    processor(true).process(job);
+
+    ArgumentCaptor<Commit> head    = ArgumentCaptor.forClass(Commit.class);
+    ArgumentCaptor<String> comment = ArgumentCaptor.forClass(String.class);
+
+    verify(commentQueue).enqueue(eq(repository), head.capture(), comment.capture());
+    verify(journal).complete(job);
+
+    assertThat(head.getValue().getSha()).isEqualTo("bbbbbbbb");
+    assertThat(comment.getValue()).contains("aaaaaaaa by @alice: sent $1.00USD");
+    assertThat(comment.getValue()).contains("bbbbbbbb by @bob: no payout");
+  }
+
+  @Test
+  public void testSummaryReportsFailedPayout() throws Exception {
+    PushEventJob job = job();
+
+    when(payoutBatcher.submit(job, first, false)).thenReturn(Futures.immediateFuture(new PayoutResult(first, PayoutState.FAILED, "0.00")));
+    when(payoutBatcher.submit(job, second, false)).thenReturn(Futures.immediateFuture(new PayoutResult(second, PayoutState.SKIPPED, "0.00")));
+
+    processor(true).process(job);
+
+    ArgumentCaptor<String> comment = ArgumentCaptor.forClass(String.class);
+
+    verify(commentQueue).enqueue(eq(repository), any(Commit.class), comment.capture());
+
+    assertThat(comment.getValue()).contains("aaaaaaaa by @alice: payout failed");
+    assertThat(comment.getValue()).contains("bbbbbbbb by @bob: no payout, our BitHub balance is $0.00");
+  }
+
+  @Test
+  public void testPerCommitComments() throws Exception {
+    PushEventJob job = job();
+
+    when(payoutBatcher.submit(job, first, true)).thenReturn(Futures.immediateFuture(new PayoutResult(first, PayoutState.SENT, "1.00")));
+    when(payoutBatcher.submit(job, second, true)).thenReturn(Futures.immediateFuture(new PayoutResult(second, PayoutState.SENT, "0.99")));
+
+    processor(false).process(job);
+
+    verify(payoutBatcher, never()).submit(any(PushEventJob.class), any(Commit.class), eq(false));
+    verify(commentQueue, never()).enqueue(any(Repository.class), any(Commit.class), anyString());
+    verify(journal).complete(job);
+  }
+
+  @Test
+  public void testFailedJobReleasesUnpaidCommits() throws Exception {
+    final PushEventProcessor processor = processor(false);
+    final PushEventJob       failed    = job();
+    final PushEventJob       retried   = job();
+
+    when(payoutBatcher.submit(failed, first, true)).thenAnswer(new Answer<ListenableFuture<PayoutResult>>() {
+      @Override
+      public ListenableFuture<PayoutResult> answer(InvocationOnMock invocation) {
+        failed.setPayoutState("aaaaaaaa", PayoutState.SENDING);
+        return Futures.immediateFailedFuture(new IOException("Down"));
+      }
+    });
+    when(payoutBatcher.submit(failed, second, true)).thenReturn(Futures.<PayoutResult>immediateFailedFuture(new IOException("Down")));
+    when(payoutBatcher.submit(retried, second, true)).thenReturn(Futures.immediateFuture(new PayoutResult(second, PayoutState.SENT, "1.00")));
+
+    try {
+      processor.process(failed);
+      throw new AssertionError("Expected the job to fail");
+    } catch (IOException e) {
+      // expected
+    }
+
+    processor.process(retried);
+
+    verify(payoutBatcher, never()).submit(retried, first, true);
+    verify(payoutBatcher).submit(retried, second, true);
+    verify(journal, never()).complete(failed);
+    verify(journal).complete(retried);
+  }
+
+  @Test
+  public void testFalsePositiveStillPaid() throws Exception {
+    DuplicateFilter        commitFilter = new DuplicateFilter("commits", new DeduplicationConfiguration(1, Duration.hours(1),
+                                                                                                         24, Duration.hours(1),
+                                                                                                         1, 0.1),
+                                                              new MetricRegistry());
+    CommitDescriptionCache descriptions = mock(CommitDescriptionCache.class);
+    PushEventJob           job          = job();
+
+    for (int i=0;i<1000;i++) {
+      commitFilter.add("key-" + i);
+    }
+
+    when(descriptions.contains("aaaaaaaa")).thenReturn(true);
+    when(payoutBatcher.submit(job, second, true)).thenReturn(Futures.immediateFuture(new PayoutResult(second, PayoutState.SENT, "1.00")));
+
+    new PushEventProcessor(payoutBatcher, commentQueue, journal, commitFilter, descriptions,
+                           new CommentConfiguration(10, 1, false)).process(job);
+
+    verify(payoutBatcher, never()).submit(job, first, true);
+    verify(payoutBatcher).submit(job, second, true);
+    verify(journal).complete(job);
+  }
+
+  private PushEventProcessor processor(boolean summarize) {
+    return new PushEventProcessor(payoutBatcher, commentQueue, journal,
+                                  new DuplicateFilter("commits", new DeduplicationConfiguration(), new MetricRegistry()),
+                                  mock(CommitDescriptionCache.class), new CommentConfiguration(10, 1, summarize));
+  }
+
+  private PushEventJob job() {
+    LinkedList<Commit> commits = new LinkedList<>();
+    commits.add(first);
+    commits.add(second);
+
+    return new PushEventJob(new PushEvent("refs/heads/master", "bbbbbbbb", repository, commits), "MONEYMONEY");
+  }
+}
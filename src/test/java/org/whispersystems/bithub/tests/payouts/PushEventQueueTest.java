@@ -0,0 +1,145 @@
+package org.whispersystems.bithub.tests.payouts;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.whispersystems.bithub.config.IntakeConfiguration;
+import org.whispersystems.bithub.entities.PushEvent;
+import org.whispersystems.bithub.payouts.PushEventJob;
+import org.whispersystems.bithub.payouts.PushEventProcessor;
+import org.whispersystems.bithub.payouts.PushEventQueue;
+import org.whispersystems.bithub.storage.PushEventJournal;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.dropwizard.util.Duration;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PushEventQueueTest {
+
+  private final PushEventProcessor processor      = mock(PushEventProcessor.class);
+  private final PushEventJournal   journal        = mock(PushEventJournal.class);
+  private final MetricRegistry     metricRegistry = new MetricRegistry();
+  private final CountDownLatch     release        = new CountDownLatch(1);
+
+  private final PushEventQueue queue = new PushEventQueue(processor, journal, new IntakeConfiguration(true, 1, 1, 2, Duration.milliseconds(10)),
+                                                          metricRegistry);
+
+  @After
+  public void teardown() throws Exception {
+    release.countDown();
+    queue.stop();
+  }
+
+  @Test
+  public void testJobProcessedOffRequestThread() throws Exception {
+    PushEventJob job = new PushEventJob(new PushEvent(), "MONEYMONEY");
+
+    queue.start();
+
+    assertThat(queue.offer(job)).isTrue();
+    verify(processor, timeout(1000)).process(job);
+  }
+
+  @Test
+  public void testFullQueueRejects() throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        started.countDown();
+        release.await();
+        return null;
+      }
+    }).when(processor).process(any(PushEventJob.class));
+
+    queue.start();
+
+    assertThat(queue.offer(new PushEventJob(new PushEvent(), "MONEYMONEY"))).isTrue();
+    assertThat(started.await(1, TimeUnit.SECONDS)).isTrue();
+
+    PushEventJob rejected = new PushEventJob(new PushEvent(), "MONEYMONEY");
+
+    assertThat(queue.offer(new PushEventJob(new PushEvent(), "MONEYMONEY"))).isTrue();
+    assertThat(queue.offer(rejected)).isFalse();
+    verify(journal).complete(rejected);
+
+    Gauge depth = metricRegistry.getGauges().get(name(PushEventQueue.class, "depth"));
+    assertThat(depth.getValue()).isEqualTo(1);
+  }
+
+  @Test
+  public void testFailedJobRetried() throws Exception {
+    PushEventJob job = new PushEventJob(new PushEvent(), "MONEYMONEY");
+
+    doThrow(new IOException("Down")).doNothing().when(processor).process(job);
+
+    queue.start();
+
+    assertThat(queue.offer(job)).isTrue();
+    verify(processor, timeout(1000).times(2)).process(job);
+    assertThat(metricRegistry.getCounters().get(name(PushEventQueue.class, "stuck")).getCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testExhaustedJobLeftForStartup() throws Exception {
+    PushEventJob job = new PushEventJob(new PushEvent(), "MONEYMONEY");
+
+    doThrow(new IOException("Down")).when(processor).process(job);
+
+    queue.start();
+
+    assertThat(queue.offer(job)).isTrue();
+    verify(processor, timeout(1000).times(2)).process(job);
+
+    Counter stuck = metricRegistry.getCounters().get(name(PushEventQueue.class, "stuck"));
+
+    for (int i = 0; i < 100 && stuck.getCount() == 0; i++) {
+      Thread.sleep(10);
+    }
+
+    assertThat(stuck.getCount()).isEqualTo(1);
+    verify(journal, never()).complete(job);
+  }
+
+  @Test
+  public void testRecoveredJobsShareQueue() throws Exception {
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        release.await();
+        return null;
+      }
+    }).when(processor).process(any(PushEventJob.class));
+
+    when(journal.getRecoveredJobs()).thenReturn(Arrays.asList(new PushEventJob(new PushEvent(), "MONEYMONEY"),
+                                                              new PushEventJob(new PushEvent(), "MONEYMONEY"),
+                                                              new PushEventJob(new PushEvent(), "MONEYMONEY")));
+
+    queue.start();
+
+    long rejected = metricRegistry.meter(name(PushEventQueue.class, "rejected")).getCount();
+
+    assertThat(rejected).isGreaterThanOrEqualTo(1);
+    assertThat(metricRegistry.getCounters().get(name(PushEventQueue.class, "stuck")).getCount()).isEqualTo(rejected);
+    verify(journal, never()).complete(any(PushEventJob.class));
+  }
+}
@@ -0,0 +1,83 @@
+package org.whispersystems.bithub.tests.storage;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+import org.whispersystems.bithub.client.CoinbaseClient;
+import org.whispersystems.bithub.config.LedgerConfiguration;
+import org.whispersystems.bithub.storage.BalanceLedger;
+import org.whispersystems.bithub.util.Satoshis;
+
+import java.math.BigDecimal;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BalanceLedgerTest {
+
+  private final CoinbaseClient coinbaseClient = mock(CoinbaseClient.class);
+  private final BalanceLedger  ledger         = new BalanceLedger(coinbaseClient, new LedgerConfiguration(),
+                                                                  new MetricRegistry());
+
+  @Test
+  public void testDebitsWithoutFetching() throws Exception {
+    when(coinbaseClient.getAccountBalance()).thenReturn(new BigDecimal("1.5"));
+
+    assertThat(ledger.getBalance()).isEqualTo(Satoshis.valueOf(150000000));
+
+    ledger.debit(Satoshis.valueOf(25000000));
+    ledger.debit(Satoshis.valueOf(1));
+
+    assertThat(ledger.getBalance()).isEqualTo(Satoshis.valueOf(124999999));
+    verify(coinbaseClient, times(1)).getAccountBalance();
+  }
+
+  @Test
+  public void testStaleReconciles() throws Exception {
+    when(coinbaseClient.getAccountBalance()).thenReturn(new BigDecimal("1.5"), new BigDecimal("1.0"));
+
+    ledger.getBalance();
+    ledger.debit(Satoshis.valueOf(25000000));
+    ledger.markStale();
+
+    assertThat(ledger.getBalance()).isEqualTo(Satoshis.valueOf(100000000));
+    verify(coinbaseClient, times(2)).getAccountBalance();
+  }
+
+  @Test
+  public void testReservationHeldUntilSettled() throws Exception {
+    when(coinbaseClient.getAccountBalance()).thenReturn(new BigDecimal("1.5"), new BigDecimal("1.5"),
+                                                        new BigDecimal("1.25"));
+
+    ledger.getBalance();
+    ledger.reserve(Satoshis.valueOf(25000000));
+
+    assertThat(ledger.getBalance()).isEqualTo(Satoshis.valueOf(125000000));
+
+    ledger.markStale();
+
+    assertThat(ledger.getBalance()).isEqualTo(Satoshis.valueOf(125000000));
+
+    ledger.settle(Satoshis.valueOf(25000000));
+    ledger.markStale();
+
+    assertThat(ledger.getBalance()).isEqualTo(Satoshis.valueOf(125000000));
+  }
+
+  @Test
+  public void testReleasedReservationReturned() throws Exception {
+    when(coinbaseClient.getAccountBalance()).thenReturn(new BigDecimal("1.5"));
+
+    ledger.getBalance();
+    ledger.reserve(Satoshis.valueOf(25000000));
+    ledger.release(Satoshis.valueOf(25000000));
+
+    assertThat(ledger.getBalance()).isEqualTo(Satoshis.valueOf(150000000));
+
+    ledger.markStale();
+
+    assertThat(ledger.getBalance()).isEqualTo(Satoshis.valueOf(150000000));
+  }
+}
@@ -0,0 +1,135 @@
+package org.whispersystems.bithub.tests.storage;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.whispersystems.bithub.client.ExchangeRateService;
+import org.whispersystems.bithub.client.GithubClient;
+import org.whispersystems.bithub.config.CacheConfiguration;
+import org.whispersystems.bithub.config.RepositoryConfiguration;
+import org.whispersystems.bithub.entities.Author;
+import org.whispersystems.bithub.entities.Commit;
+import org.whispersystems.bithub.entities.Repository;
+import org.whispersystems.bithub.entities.Transaction;
+import org.whispersystems.bithub.payouts.PendingTransfer;
+import org.whispersystems.bithub.storage.BalanceLedger;
+import org.whispersystems.bithub.storage.CacheManager;
+import org.whispersystems.bithub.storage.TransactionHistory;
+import org.whispersystems.bithub.util.Satoshis;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CacheManagerTest {
+
+  private final ExchangeRateService exchangeRates      = mock(ExchangeRateService.class);
+  private final BalanceLedger       balanceLedger      = mock(BalanceLedger.class);
+  private final TransactionHistory  transactionHistory = mock(TransactionHistory.class);
+
+  private final CacheManager cacheManager = new CacheManager(exchangeRates, balanceLedger, transactionHistory,
+                                                             mock(GithubClient.class),
+                                                             new LinkedList<RepositoryConfiguration>(),
+                                                             new BigDecimal("0.02"), new CacheConfiguration(),
+                                                             new MetricRegistry());
+
+  @Before
+  public void setup() throws Exception {
+    when(exchangeRates.getExchangeRate()).thenReturn(new BigDecimal("500"));
+    when(balanceLedger.getBalance()).thenReturn(Satoshis.valueOf(Satoshis.PER_BTC));
+    when(transactionHistory.sync()).thenReturn(new LinkedList<TransactionHistory.Entry>());
+    when(transactionHistory.getSize()).thenReturn(10);
+
+    cacheManager.start();
+  }
+
+  @After
+  public void teardown() throws Exception {
+    cacheManager.stop();
+  }
+
+  @Test
+  public void testPaymentWrittenThrough() throws Exception {
+    assertThat(cacheManager.getCurrentPaymentAmount().getEntity().getPayment()).isEqualTo("10.00");
+    assertThat(cacheManager.getRecentTransactions()).isEmpty();
+
+    Author          author   = new Author("Moxie", "moxie@example.com", "moxie0");
+    Commit          commit   = new Commit("abcdef0123456789", "Fix", author, "https://github.com/moxie0/test/commit/abcdef0123456789");
+    PendingTransfer transfer = new PendingTransfer("job", new Repository("https://github.com/moxie0/test", "test", author),
+                                                   commit, new BigDecimal("0.02"), "Thanks!");
+
+    when(balanceLedger.getLocalBalance()).thenReturn(Satoshis.valueOf(98000000));
+
+    cacheManager.paymentSent(transfer);
+    awaitPayment(cacheManager, "9.80");
+
+    List<Transaction> transactions = cacheManager.getRecentTransactions();
+
+    assertThat(transactions).hasSize(1);
+    assertThat(transactions.get(0).getDestination()).isEqualTo("moxie0");
+    assertThat(transactions.get(0).getAmount()).isEqualTo("10.00");
+    assertThat(transactions.get(0).getCommitSha()).isEqualTo("abcdef01");
+    assertThat(transactions.get(0).getDescription()).isEqualTo("Fix");
+    assertThat(cacheManager.getCurrentPaymentAmount().getEntity().getPayment()).isEqualTo("9.80");
+  }
+
+  @Test
+  public void testWrittenThroughWithoutUsername() throws Exception {
+    Author          author   = new Author("Moxie", "moxie@example.com", null);
+    Commit          commit   = new Commit("abcdef0123456789", "Fix", author, "https://github.com/moxie0/test/commit/abcdef0123456789");
+    PendingTransfer transfer = new PendingTransfer("job", new Repository("https://github.com/moxie0/test", "test", author),
+                                                   commit, new BigDecimal("0.02"), "Thanks!");
+
+    when(balanceLedger.getLocalBalance()).thenReturn(Satoshis.valueOf(98000000));
+
+    cacheManager.paymentSent(transfer);
+    awaitPayment(cacheManager, "9.80");
+
+    assertThat(cacheManager.getRecentTransactions().get(0).getDestination()).isEqualTo("Moxie");
+  }
+
+  @Test
+  public void testRefreshedPaymentMergedBySha() throws Exception {
+    TransactionHistory.Entry refreshed = new TransactionHistory.Entry("moxie0", new BigDecimal("0.02"),
+                                                                      "https://github.com/moxie0/test/commit/abcdef0123456789",
+                                                                      "abcdef01", "2014-01-01T00:00:00+0000", "Fix");
+
+    when(transactionHistory.sync()).thenReturn(new LinkedList<>(Arrays.asList(refreshed)));
+
+    CacheManager refreshedManager = new CacheManager(exchangeRates, balanceLedger, transactionHistory,
+                                                     mock(GithubClient.class),
+                                                     new LinkedList<RepositoryConfiguration>(),
+                                                     new BigDecimal("0.02"), new CacheConfiguration(),
+                                                     new MetricRegistry());
+    refreshedManager.start();
+
+    Author          author   = new Author("Moxie", "moxie@example.com", "moxie0");
+    Commit          commit   = new Commit("abcdef0123456789", "Fix", author, "https://github.com/moxie0/test/commit/abcdef0123456789");
+    PendingTransfer transfer = new PendingTransfer("job", new Repository("https://github.com/moxie0/test", "test", author),
+                                                   commit, new BigDecimal("0.02"), "Thanks!");
+
+    when(balanceLedger.getLocalBalance()).thenReturn(Satoshis.valueOf(98000000));
+
+    refreshedManager.paymentSent(transfer);
+    awaitPayment(refreshedManager, "9.80");
+
+    assertThat(refreshedManager.getRecentTransactions()).hasSize(1);
+    assertThat(refreshedManager.getRecentTransactions().get(0).getTimestamp()).isEqualTo("2014-01-01T00:00:00+0000");
+
+    refreshedManager.stop();
+  }
+
+  private void awaitPayment(CacheManager manager, String payment) throws InterruptedException {
+    for (int i = 0; i < 100 && !payment.equals(manager.getCurrentPaymentAmount().getEntity().getPayment()); i++) {
+      Thread.sleep(10);
+    }
+
+    assertThat(manager.getCurrentPaymentAmount().getEntity().getPayment()).isEqualTo(payment);
+  }
+}
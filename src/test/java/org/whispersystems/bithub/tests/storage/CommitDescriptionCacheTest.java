@@ -0,0 +1,86 @@
+package org.whispersystems.bithub.tests.storage;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.whispersystems.bithub.config.CommitCacheConfiguration;
+import org.whispersystems.bithub.storage.CommitDescriptionCache;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class CommitDescriptionCacheTest {
+
+  private static final String SHA       = "ba1b681c71db4fcd461954b1bf344bc6e29411e5";
+  private static final String OTHER_SHA = "bcf09f8b4a32921114587e4814a3f0849aa9900f";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private CommitDescriptionCache cache;
+
+  @After
+  public void teardown() throws Exception {
+    cache.stop();
+  }
+
+  @Test
+  public void testSurvivesRestart() throws Exception {
+    cache = createCache(10);
+    cache.put(SHA, "Update path\n\nWith a longer description ✓");
+    cache.stop();
+
+    cache = createCache(10);
+
+    assertThat(cache.get(SHA)).isEqualTo("Update path\n\nWith a longer description ✓");
+    assertThat(cache.get(OTHER_SHA)).isNull();
+  }
+
+  @Test
+  public void testEvictedFromMemoryReadFromDisk() throws Exception {
+    cache = createCache(1);
+    cache.put(SHA, "First");
+    cache.put(OTHER_SHA, "Second");
+
+    assertThat(cache.get(SHA)).isEqualTo("First");
+    assertThat(cache.get(OTHER_SHA)).isEqualTo("Second");
+  }
+
+  @Test
+  public void testTornRecordTruncated() throws Exception {
+    cache = createCache(10);
+    cache.put(SHA, "First");
+    cache.put(OTHER_SHA, "Second");
+    cache.stop();
+
+    File file = new File(folder.getRoot(), "commits.db");
+
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(raf.length() - 2);
+    }
+
+    cache = createCache(10);
+
+    assertThat(cache.get(SHA)).isEqualTo("First");
+    assertThat(cache.get(OTHER_SHA)).isNull();
+
+    cache.put(OTHER_SHA, "Second");
+    cache.stop();
+    cache = createCache(10);
+
+    assertThat(cache.get(OTHER_SHA)).isEqualTo("Second");
+  }
+
+  private CommitDescriptionCache createCache(int memoryEntries) throws Exception {
+    CommitDescriptionCache cache = new CommitDescriptionCache(new CommitCacheConfiguration(new File(folder.getRoot(), "commits.db").getAbsolutePath(),
+                                                                                           memoryEntries),
+                                                              new MetricRegistry());
+    cache.start();
+    return cache;
+  }
+
+}
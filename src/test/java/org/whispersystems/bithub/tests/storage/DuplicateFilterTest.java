@@ -0,0 +1,81 @@
+package org.whispersystems.bithub.tests.storage;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Predicates;
+import org.junit.Test;
+import org.whispersystems.bithub.config.DeduplicationConfiguration;
+import org.whispersystems.bithub.storage.DuplicateFilter;
+
+import io.dropwizard.util.Duration;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class DuplicateFilterTest {
+
+  private final MetricRegistry metricRegistry = new MetricRegistry();
+
+  @Test
+  public void testDuplicate() {
+    DuplicateFilter filter = createFilter(10);
+
+    assertThat(filter.add("one")).isTrue();
+    assertThat(filter.add("two")).isTrue();
+    assertThat(filter.add("one")).isFalse();
+
+    assertThat(metricRegistry.meter(name(DuplicateFilter.class, "test", "hits")).getCount()).isEqualTo(1);
+    assertThat(metricRegistry.meter(name(DuplicateFilter.class, "test", "misses")).getCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testEvictedKeysStillDuplicate() {
+    DuplicateFilter filter = createFilter(2);
+
+    for (int i=0;i<100;i++) {
+      assertThat(filter.add("key-" + i)).isTrue();
+    }
+
+    for (int i=0;i<100;i++) {
+      assertThat(filter.add("key-" + i)).isFalse();
+    }
+  }
+
+  @Test
+  public void testRemove() {
+    DuplicateFilter filter = createFilter(10);
+
+    assertThat(filter.add("one")).isTrue();
+    filter.remove("one");
+    assertThat(filter.add("one")).isTrue();
+  }
+
+  @Test
+  public void testUnconfirmedFalsePositive() {
+    DuplicateFilter filter = createSaturatedFilter();
+
+    assertThat(filter.add("new", Predicates.<String>alwaysTrue())).isFalse();
+    assertThat(filter.add("other", Predicates.<String>alwaysFalse())).isTrue();
+    assertThat(filter.add("other", Predicates.<String>alwaysFalse())).isFalse();
+
+    assertThat(metricRegistry.meter(name(DuplicateFilter.class, "test", "false_positives")).getCount()).isEqualTo(1);
+  }
+
+  private DuplicateFilter createSaturatedFilter() {
+    DuplicateFilter filter = new DuplicateFilter("test", new DeduplicationConfiguration(2, Duration.hours(1),
+                                                                                        24, Duration.hours(1),
+                                                                                        1, 0.1),
+                                                 metricRegistry);
+
+    for (int i=0;i<1000;i++) {
+      filter.add("key-" + i);
+    }
+
+    return filter;
+  }
+
+  private DuplicateFilter createFilter(int recentEntries) {
+    return new DuplicateFilter("test", new DeduplicationConfiguration(recentEntries, Duration.hours(1),
+                                                                      24, Duration.hours(1)),
+                               metricRegistry);
+  }
+}
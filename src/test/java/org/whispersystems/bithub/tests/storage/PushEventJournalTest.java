@@ -0,0 +1,163 @@
+package org.whispersystems.bithub.tests.storage;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.whispersystems.bithub.config.JournalConfiguration;
+import org.whispersystems.bithub.entities.Author;
+import org.whispersystems.bithub.entities.Commit;
+import org.whispersystems.bithub.entities.PushEvent;
+import org.whispersystems.bithub.entities.Repository;
+import org.whispersystems.bithub.payouts.PayoutState;
+import org.whispersystems.bithub.payouts.PushEventJob;
+import org.whispersystems.bithub.storage.PushEventJournal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class PushEventJournalTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private PushEventJournal journal;
+
+  @Before
+  public void setup() throws Exception {
+    journal = createJournal();
+    journal.start();
+  }
+
+  @After
+  public void teardown() throws Exception {
+    journal.stop();
+  }
+
+  @Test
+  public void testRecoversUnfinishedJob() throws Exception {
+    PushEventJob job = new PushEventJob(createEvent(), "MONEYMONEY");
+
+    journal.accept(job);
+    journal.recordPayout(job, "aaaa", PayoutState.SENT);
+    journal.recordPayout(job, "bbbb", PayoutState.SENDING);
+
+    List<PushEventJob> recovered = restart();
+
+    assertThat(recovered).hasSize(1);
+    assertThat(recovered.get(0).getId()).isEqualTo(job.getId());
+    assertThat(recovered.get(0).getDefaultMode()).isEqualTo("MONEYMONEY");
+    assertThat(recovered.get(0).getEvent().getCommits()).hasSize(2);
+    assertThat(recovered.get(0).getEvent().getCommits().get(0).getAuthor().getEmail()).isEqualTo("moxie@thoughtcrime.org");
+    assertThat(recovered.get(0).getPayoutState("aaaa")).isEqualTo(PayoutState.SENT);
+    assertThat(recovered.get(0).getPayoutState("bbbb")).isEqualTo(PayoutState.SENDING);
+  }
+
+  @Test
+  public void testCompletedJobNotRecovered() throws Exception {
+    PushEventJob job = new PushEventJob(createEvent(), "MONEYMONEY");
+
+    journal.accept(job);
+    journal.recordPayout(job, "aaaa", PayoutState.SENT);
+    journal.complete(job);
+
+    assertThat(restart()).isEmpty();
+  }
+
+  @Test
+  public void testRecoveredJobSurvivesSecondRestart() throws Exception {
+    PushEventJob job = new PushEventJob(createEvent(), "MONEYMONEY");
+
+    journal.accept(job);
+    journal.recordPayout(job, "aaaa", PayoutState.FAILED);
+
+    restart();
+    List<PushEventJob> recovered = restart();
+
+    assertThat(recovered).hasSize(1);
+    assertThat(recovered.get(0).getPayoutState("aaaa")).isEqualTo(PayoutState.FAILED);
+    assertThat(folder.getRoot().list()).hasSize(1);
+  }
+
+  @Test
+  public void testTornTailIgnored() throws Exception {
+    PushEventJob job = new PushEventJob(createEvent(), "MONEYMONEY");
+    journal.accept(job);
+    journal.stop();
+
+    File[] segments = folder.getRoot().listFiles();
+
+    try (FileOutputStream out = new FileOutputStream(segments[segments.length - 1], true)) {
+      out.write(new byte[] {0, 0, 0, 42, 1, 2, 3});
+    }
+
+    journal = createJournal();
+    journal.start();
+
+    assertThat(journal.getRecoveredJobs()).hasSize(1);
+  }
+
+  @Test(expected = IOException.class)
+  public void testAppendAfterStopFails() throws Exception {
+    journal.stop();
+
+    journal.accept(new PushEventJob(createEvent(), "MONEYMONEY"));
+  }
+
+  @Test
+  public void testConcurrentAppends() throws Exception {
+    List<Thread> threads = new LinkedList<>();
+
+    for (int i=0;i<8;i++) {
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int j=0;j<25;j++) {
+              journal.accept(new PushEventJob(createEvent(), "MONEYMONEY"));
+            }
+          } catch (Exception e) {
+            throw new AssertionError(e);
+          }
+        }
+      });
+    }
+
+    for (Thread thread : threads) thread.start();
+    for (Thread thread : threads) thread.join();
+
+    assertThat(restart()).hasSize(200);
+  }
+
+  private List<PushEventJob> restart() throws Exception {
+    journal.stop();
+    journal = createJournal();
+    journal.start();
+
+    return journal.getRecoveredJobs();
+  }
+
+  private PushEventJournal createJournal() {
+    return new PushEventJournal(new JournalConfiguration(folder.getRoot().getAbsolutePath()),
+                                new MetricRegistry());
+  }
+
+  private PushEvent createEvent() {
+    Author       author  = new Author("Moxie Marlinspike", "moxie@thoughtcrime.org", "moxie0");
+    List<Commit> commits = new LinkedList<>();
+
+    commits.add(new Commit("aaaa", "Update path", author, "https://github.com/moxie0/test/commit/aaaa"));
+    commits.add(new Commit("bbbb", "Fix build", author, "https://github.com/moxie0/test/commit/bbbb"));
+
+    return new PushEvent("refs/heads/master", "bbbb",
+                         new Repository("https://github.com/moxie0/test", "test", author),
+                         commits);
+  }
+}
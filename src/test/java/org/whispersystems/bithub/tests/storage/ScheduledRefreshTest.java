@@ -0,0 +1,115 @@
+package org.whispersystems.bithub.tests.storage;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Test;
+import org.whispersystems.bithub.config.RefreshConfiguration;
+import org.whispersystems.bithub.storage.ScheduledRefresh;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.dropwizard.util.Duration;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class ScheduledRefreshTest {
+
+  private final ScheduledExecutorService scheduler      = Executors.newScheduledThreadPool(2);
+  private final MetricRegistry           metricRegistry = new MetricRegistry();
+
+  @After
+  public void teardown() {
+    scheduler.shutdownNow();
+  }
+
+  @Test
+  public void testFailureKeepsValue() throws Exception {
+    final AtomicInteger  loads   = new AtomicInteger();
+    final CountDownLatch retried = new CountDownLatch(3);
+
+    ScheduledRefresh<Integer> refresh = new ScheduledRefresh<>("test", new Callable<Integer>() {
+      @Override
+      public Integer call() throws IOException {
+        if (loads.incrementAndGet() > 1) {
+          retried.countDown();
+          throw new IOException("down");
+        }
+
+        return 1;
+      }
+    }, configuration(Duration.seconds(1)), scheduler, metricRegistry);
+
+    refresh.start();
+
+    assertThat(retried.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(refresh.get()).isEqualTo(1);
+    assertThat(metricRegistry.getMeters().get(name(ScheduledRefresh.class, "test", "failures")).getCount()).isGreaterThanOrEqualTo(2);
+    assertThat((Long)metricRegistry.getGauges().get(name(ScheduledRefresh.class, "test", "last_success_age")).getValue()).isGreaterThanOrEqualTo(0);
+
+    refresh.stop();
+  }
+
+  @Test
+  public void testSlowLoadTimesOut() throws Exception {
+    ScheduledRefresh<Integer> refresh = new ScheduledRefresh<>("slow", new Callable<Integer>() {
+      @Override
+      public Integer call() throws InterruptedException {
+        Thread.sleep(10000);
+        return 1;
+      }
+    }, configuration(Duration.milliseconds(100)), scheduler, metricRegistry);
+
+    long started = System.currentTimeMillis();
+
+    refresh.start();
+
+    assertThat(System.currentTimeMillis() - started).isLessThan(5000);
+    assertThat(refresh.get()).isNull();
+    assertThat(metricRegistry.getMeters().get(name(ScheduledRefresh.class, "slow", "failures")).getCount()).isGreaterThanOrEqualTo(1);
+
+    refresh.stop();
+  }
+
+  @Test
+  public void testFailedStartRetried() throws Exception {
+    final AtomicInteger  loads  = new AtomicInteger();
+    final CountDownLatch loaded = new CountDownLatch(1);
+
+    ScheduledRefresh<Integer> refresh = new ScheduledRefresh<>("start", new Callable<Integer>() {
+      @Override
+      public Integer call() throws IOException {
+        if (loads.incrementAndGet() == 1) {
+          throw new IOException("down");
+        }
+
+        loaded.countDown();
+        return 1;
+      }
+    }, configuration(Duration.seconds(1)), scheduler, metricRegistry);
+
+    refresh.start();
+
+    assertThat(refresh.get()).isNull();
+    assertThat(loaded.await(5, TimeUnit.SECONDS)).isTrue();
+
+    for (int i=0;i<50 && refresh.get() == null;i++) {
+      Thread.sleep(10);
+    }
+
+    assertThat(refresh.get()).isEqualTo(1);
+
+    refresh.stop();
+  }
+
+  private RefreshConfiguration configuration(Duration timeout) {
+    return new RefreshConfiguration(Duration.milliseconds(10), Duration.milliseconds(0), timeout,
+                                    Duration.milliseconds(10), Duration.milliseconds(20));
+  }
+}
@@ -0,0 +1,184 @@
+package org.whispersystems.bithub.tests.storage;
+
+import com.codahale.metrics.MetricRegistry;
+import com.coinbase.api.entity.Transaction;
+import com.coinbase.api.entity.TransactionsResponse;
+import org.joda.money.CurrencyUnit;
+import org.joda.money.Money;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.whispersystems.bithub.client.CoinbaseClient;
+import org.whispersystems.bithub.client.GithubClient;
+import org.whispersystems.bithub.config.CommitCacheConfiguration;
+import org.whispersystems.bithub.config.HistoryConfiguration;
+import org.whispersystems.bithub.storage.CommitDescriptionCache;
+import org.whispersystems.bithub.storage.TransactionHistory;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TransactionHistoryTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final CoinbaseClient coinbaseClient = mock(CoinbaseClient.class);
+  private final GithubClient   githubClient   = mock(GithubClient.class);
+
+  private CommitDescriptionCache descriptions;
+
+  @Before
+  public void setup() throws Exception {
+    descriptions = new CommitDescriptionCache(new CommitCacheConfiguration(folder.getRoot().getAbsolutePath() + "/commits.db", 10),
+                                              new MetricRegistry());
+    descriptions.start();
+  }
+
+  @After
+  public void teardown() throws Exception {
+    descriptions.stop();
+  }
+
+  @Test
+  public void testOnlyNewTransactionsFetched() throws Exception {
+    HistoryConfiguration configuration = configuration();
+
+    when(coinbaseClient.getTransactions(1)).thenReturn(page(1, 1, sent("b"), received("r"), sent("a")));
+    when(githubClient.getCommitDescriptions(anyListOf(String.class))).thenAnswer(describeAll("Fix"));
+
+    List<TransactionHistory.Entry> entries = new TransactionHistory(coinbaseClient, githubClient, descriptions, configuration).sync();
+
+    assertThat(entries).hasSize(2);
+    assertThat(entries.get(0).getCommitSha()).isEqualTo("bbbbbbbb");
+    assertThat(entries.get(0).getAmount()).isEqualTo(new BigDecimal("0.5"));
+    assertThat(entries.get(1).getCommitSha()).isEqualTo("aaaaaaaa");
+    verify(githubClient).getCommitDescriptions(eq(Arrays.asList(url("b"), url("a"))));
+
+    when(coinbaseClient.getTransactions(1)).thenReturn(page(1, 1, sent("c"), sent("b"), received("r"), sent("a")));
+
+    TransactionHistory restarted = new TransactionHistory(coinbaseClient, githubClient, descriptions, configuration);
+    entries = restarted.sync();
+
+    assertThat(entries).hasSize(3);
+    assertThat(entries.get(0).getCommitSha()).isEqualTo("cccccccc");
+    assertThat(entries.get(1).getDescription()).isEqualTo("Fix");
+    verify(githubClient).getCommitDescriptions(eq(Arrays.asList(url("c"))));
+
+    assertThat(restarted.sync()).hasSize(3);
+    verify(githubClient, times(2)).getCommitDescriptions(anyListOf(String.class));
+  }
+
+  @Test
+  public void testBacklogPaged() throws Exception {
+    HistoryConfiguration configuration = configuration();
+
+    when(coinbaseClient.getTransactions(1)).thenReturn(page(1, 1, sent("a")));
+
+    TransactionHistory history = new TransactionHistory(coinbaseClient, githubClient, descriptions, configuration);
+    history.sync();
+
+    when(coinbaseClient.getTransactions(1)).thenReturn(page(1, 3, sent("e"), sent("d")));
+    when(coinbaseClient.getTransactions(2)).thenReturn(page(2, 3, sent("c"), sent("b")));
+    when(coinbaseClient.getTransactions(3)).thenReturn(page(3, 3, sent("a")));
+
+    List<TransactionHistory.Entry> entries = history.sync();
+
+    assertThat(entries).hasSize(5);
+    assertThat(entries.get(0).getCommitSha()).isEqualTo("eeeeeeee");
+    assertThat(entries.get(4).getCommitSha()).isEqualTo("aaaaaaaa");
+  }
+
+  @Test
+  public void testUnchangedSkipsDescriptions() throws Exception {
+    when(coinbaseClient.getTransactions(1)).thenReturn(page(1, 1, received("r")));
+
+    TransactionHistory history = new TransactionHistory(coinbaseClient, githubClient, descriptions, configuration());
+
+    assertThat(history.sync()).isEmpty();
+    assertThat(history.sync()).isEmpty();
+    verify(githubClient, never()).getCommitDescriptions(anyListOf(String.class));
+  }
+
+  @Test
+  public void testCachedDescriptionsSkipGithub() throws Exception {
+    descriptions.put("aaaaaaaa", "Seen in a push");
+
+    when(coinbaseClient.getTransactions(1)).thenReturn(page(1, 1, sent("a")));
+
+    List<TransactionHistory.Entry> entries = new TransactionHistory(coinbaseClient, githubClient, descriptions,
+                                                                    configuration()).sync();
+
+    assertThat(entries.get(0).getDescription()).isEqualTo("Seen in a push");
+    verify(githubClient, never()).getCommitDescriptions(anyListOf(String.class));
+  }
+
+  private HistoryConfiguration configuration() {
+    return new HistoryConfiguration(folder.getRoot().getAbsolutePath() + "/transactions.json");
+  }
+
+  private TransactionsResponse page(int page, int pages, Transaction... transactions) {
+    TransactionsResponse response = new TransactionsResponse();
+    response.setTransactions(Arrays.asList(transactions));
+    response.setCurrentPage(page);
+    response.setNumPages(pages);
+
+    return response;
+  }
+
+  private Transaction sent(String id) {
+    Transaction transaction = transaction(id, new BigDecimal("-0.5"));
+    transaction.setNotes("Commit payment:\n__moxie0__ " + url(id));
+
+    return transaction;
+  }
+
+  private String url(String id) {
+    return "https://github.com/moxie0/test/commit/" + id + id + id + id + id + id + id + id;
+  }
+
+  private Answer<Map<String, String>> describeAll(final String description) {
+    return new Answer<Map<String, String>>() {
+      @Override
+      public Map<String, String> answer(InvocationOnMock invocation) throws Throwable {
+        Map<String, String> descriptions = new HashMap<>();
+
+        for (Object url : (List<?>)invocation.getArguments()[0]) {
+          descriptions.put((String)url, description);
+        }
+
+        return descriptions;
+      }
+    };
+  }
+
+  private Transaction received(String id) {
+    return transaction(id, new BigDecimal("1.0"));
+  }
+
+  private Transaction transaction(String id, BigDecimal amount) {
+    Transaction transaction = new Transaction();
+    transaction.setId(id);
+    transaction.setAmount(Money.of(CurrencyUnit.of("BTC"), amount));
+    transaction.setCreatedAt(new DateTime(2014, 1, 1, 0, 0));
+
+    return transaction;
+  }
+}
@@ -0,0 +1,53 @@
+package org.whispersystems.bithub.tests.util;
+
+import org.junit.Test;
+import org.whispersystems.bithub.util.AddressTrie;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class AddressTrieTest {
+
+  @Test
+  public void testIpv4() {
+    AddressTrie trie = new AddressTrie();
+    trie.add("192.30.252.0/22");
+    trie.add("185.199.108.0/22");
+    trie.add("10.1.2.3");
+
+    assertThat(trie.contains("192.30.252.1")).isTrue();
+    assertThat(trie.contains("192.30.255.255")).isTrue();
+    assertThat(trie.contains("185.199.110.153")).isTrue();
+    assertThat(trie.contains("10.1.2.3")).isTrue();
+    assertThat(trie.contains("::ffff:192.30.253.7")).isTrue();
+
+    assertThat(trie.contains("192.30.251.255")).isFalse();
+    assertThat(trie.contains("192.30.242.1")).isFalse();
+    assertThat(trie.contains("10.1.2.4")).isFalse();
+  }
+
+  @Test
+  public void testIpv6() {
+    AddressTrie trie = new AddressTrie();
+    trie.add("2620:112:3000::/44");
+
+    assertThat(trie.contains("2620:112:3000::1")).isTrue();
+    assertThat(trie.contains("2620:112:300f:ffff::1")).isTrue();
+    assertThat(trie.contains("2620:112:3010::1")).isFalse();
+    assertThat(trie.contains("192.30.252.1")).isFalse();
+  }
+
+  @Test
+  public void testNotAnAddress() {
+    AddressTrie trie = new AddressTrie();
+    trie.add("0.0.0.0/0");
+
+    assertThat(trie.contains("1.2.3.4")).isTrue();
+    assertThat(trie.contains("github.com")).isFalse();
+    assertThat(trie.contains("")).isFalse();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBadPrefix() {
+    new AddressTrie().add("192.30.252.0/33");
+  }
+}
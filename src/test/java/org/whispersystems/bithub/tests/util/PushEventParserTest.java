@@ -0,0 +1,96 @@
+package org.whispersystems.bithub.tests.util;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import org.junit.Test;
+import org.whispersystems.bithub.entities.Commit;
+import org.whispersystems.bithub.entities.PushEvent;
+import org.whispersystems.bithub.util.PushEventParser;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static io.dropwizard.testing.FixtureHelpers.fixture;
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class PushEventParserTest {
+
+  private static final String MASTER_REF = "refs/heads/master";
+
+  private final Set<String> repositories = new HashSet<String>() {{
+    add("https://github.com/moxie0/test");
+  }};
+
+  private final PushEventParser parser = new PushEventParser(repositories, MASTER_REF);
+
+  @Test
+  public void testValidCommit() throws Exception {
+    PushEvent event = parser.parse(fixture("payloads/valid_commit.json"));
+
+    assertThat(event.getRef()).isEqualTo(MASTER_REF);
+    assertThat(event.getHead()).isEqualTo("bcf09f8b4a32921114587e4814a3f0849aa9900f");
+    assertThat(event.getRepository().getUrl()).isEqualTo("https://github.com/moxie0/test");
+    assertThat(event.getRepository().getName()).isEqualTo("tempt");
+    assertThat(event.getRepository().getOwner().getName()).isEqualTo("moxie0");
+    assertThat(event.getCommits()).hasSize(2);
+
+    Commit commit = event.getCommits().get(0);
+    assertThat(commit.getSha()).isEqualTo("ba1b681c71db4fcd461954b1bf344bc6e29411e5");
+    assertThat(commit.getMessage()).isEqualTo("Update path");
+    assertThat(commit.getAuthor().getEmail()).isEqualTo("moxie@thoughtcrime.org");
+    assertThat(commit.getAuthor().getUsername()).isEqualTo("moxie0");
+    assertThat(commit.getUrl()).isEqualTo("https://github.com/moxie0/tempt/commit/ba1b681c71db4fcd461954b1bf344bc6e29411e5");
+  }
+
+  @Test
+  public void testNonMasterSkipsCommits() throws Exception {
+    PushEvent event = parser.parse(fixture("payloads/non_master_push.json"));
+
+    assertThat(event.getRef()).isNotEqualTo(MASTER_REF);
+    assertThat(event.getCommits()).isEmpty();
+  }
+
+  @Test
+  public void testInvalidRepositorySkipsCommits() throws Exception {
+    PushEvent event = parser.parse(fixture("payloads/invalid_repo.json"));
+
+    assertThat(event.getRepository().getUrl()).isNotEqualTo("https://github.com/moxie0/test");
+    assertThat(event.getCommits()).isEmpty();
+  }
+
+  @Test
+  public void testStopsBeforeCommitsWhenRejected() throws Exception {
+    String payload = "{\"ref\": \"refs/heads/feature\", " +
+                     "\"repository\": {\"url\": \"https://github.com/moxie0/test\", \"name\": \"test\"}, " +
+                     "\"commits\": [ this is not json";
+
+    PushEvent event = parser.parse(payload);
+
+    assertThat(event.getRef()).isEqualTo("refs/heads/feature");
+    assertThat(event.getCommits()).isEmpty();
+  }
+
+  @Test
+  public void testRepositoryBeforeCommits() throws Exception {
+    String payload = "{\"ref\": \"refs/heads/master\", \"after\": \"abcdef\", " +
+                     "\"repository\": {\"url\": \"https://github.com/moxie0/test\", \"name\": \"test\", \"owner\": {\"name\": \"moxie0\"}}, " +
+                     "\"commits\": [{\"id\": \"abcdef\", \"message\": \"Fix\", \"url\": \"https://github.com/moxie0/test/commit/abcdef\", " +
+                                    "\"author\": {\"email\": \"moxie@thoughtcrime.org\", \"username\": \"moxie0\"}}]}";
+
+    PushEvent event = parser.parse(payload);
+
+    assertThat(event.getHead()).isEqualTo("abcdef");
+    assertThat(event.getCommits()).hasSize(1);
+    assertThat(event.getCommits().get(0).getMessage()).isEqualTo("Fix");
+  }
+
+  @Test(expected = JsonParseException.class)
+  public void testCommitWithoutIdRejected() throws Exception {
+    String payload = "{\"ref\": \"refs/heads/master\", " +
+                     "\"repository\": {\"url\": \"https://github.com/moxie0/test\", \"name\": \"test\"}, " +
+                     "\"commits\": [{\"message\": \"Fix\", \"url\": \"https://github.com/moxie0/test/commit/abcdef\", " +
+                                    "\"author\": {\"email\": \"moxie@thoughtcrime.org\", \"username\": \"moxie0\"}}]}";
+
+    parser.parse(payload);
+  }
+
+}
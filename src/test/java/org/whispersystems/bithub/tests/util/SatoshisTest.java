@@ -0,0 +1,57 @@
+package org.whispersystems.bithub.tests.util;
+
+import org.junit.Test;
+import org.whispersystems.bithub.util.ExchangeRate;
+import org.whispersystems.bithub.util.Satoshis;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class SatoshisTest {
+
+  @Test
+  public void testBtcConversion() {
+    Satoshis amount = Satoshis.fromBtc(new BigDecimal("1.234567891"), RoundingMode.UP);
+
+    assertThat(amount.longValue()).isEqualTo(123456790L);
+    assertThat(amount.toBtc()).isEqualTo(new BigDecimal("1.23456790"));
+    assertThat(Satoshis.fromBtc(new BigDecimal("1.234567891"), RoundingMode.DOWN).longValue()).isEqualTo(123456789L);
+  }
+
+  @Test
+  public void testMultiplyMatchesBigDecimal() {
+    long[]       balances = {0, 1, 7, 99999999, 1001000000, 2100000000000000L};
+    BigDecimal[] rates    = {new BigDecimal("0.02"), new BigDecimal("0.1"), new BigDecimal("0.333333333")};
+
+    for (long balance : balances) {
+      for (BigDecimal rate : rates) {
+        for (RoundingMode mode : new RoundingMode[] {RoundingMode.DOWN, RoundingMode.CEILING, RoundingMode.HALF_EVEN}) {
+          long expected = BigDecimal.valueOf(balance).multiply(rate).setScale(0, mode).longValueExact();
+          long actual   = Satoshis.valueOf(balance).multiply(Satoshis.toPartsPerBillion(rate), mode).longValue();
+
+          assertThat(actual).isEqualTo(expected);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testMultiplyOverflowFallsBack() {
+    Satoshis amount = Satoshis.valueOf(Long.MAX_VALUE / 2);
+
+    assertThat(amount.multiply(Satoshis.toPartsPerBillion(BigDecimal.ONE), RoundingMode.DOWN)).isEqualTo(amount);
+  }
+
+  @Test
+  public void testUsdFormatting() {
+    ExchangeRate rate = ExchangeRate.fromUsdPerBtc(new BigDecimal("612.37"));
+
+    assertThat(rate.toUsdString(Satoshis.valueOf(20020000), RoundingMode.CEILING)).isEqualTo("122.60");
+    assertThat(rate.toUsdString(Satoshis.valueOf(1), RoundingMode.CEILING)).isEqualTo("0.01");
+    assertThat(rate.toUsdString(Satoshis.ZERO, RoundingMode.CEILING)).isEqualTo("0.00");
+    assertThat(ExchangeRate.formatCents(-105)).isEqualTo("-1.05");
+  }
+
+}